@@ -3,8 +3,7 @@ package net.nosql_bench;
 
 import com.aerospike.client.*;
 import com.aerospike.client.command.ParticleType;
-import com.aerospike.client.policy.GenerationPolicy;
-import com.aerospike.client.policy.WritePolicy;
+import com.aerospike.client.policy.*;
 import com.aerospike.client.query.Filter;
 import com.aerospike.client.query.IndexType;
 import com.aerospike.client.query.RecordSet;
@@ -12,32 +11,197 @@ import com.aerospike.client.query.Statement;
 import com.aerospike.client.task.IndexTask;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Aerospike extends Database {
 
-	// true if "transaction" is active
-	private static ThreadLocal<Map<Key, AsRecord>> threadLocalTransaction = new ThreadLocal<Map<Key, AsRecord>>();
+	// set if "transaction" is active
+	private static ThreadLocal<AsTransaction> threadLocalTransaction = new ThreadLocal<AsTransaction>();
+
+	// one pool per JVM, so several clients in one process share their threads like our production clients do
+	private static ExecutorService sharedPool;
 
 	private AerospikeClient db;
 	private String namespace;
 
+	// type of the secondary index of each indexed bin, per set, filled by register()
+	private final Map<String, Map<String, IndexType>> indexes = new ConcurrentHashMap<>();
+
+	// built once in init() from properties and never modified afterwards, shared by all threads
+	private Policy readPolicy;
+	private WritePolicy writePolicy;
+	private WritePolicy createOnlyPolicy;
+	private WritePolicy replacePolicy;
+	private WritePolicy updateOnlyPolicy;
+	private QueryPolicy queryPolicy;
+	private BatchPolicy batchPolicy;
+
 	@Override
 	public void init(Properties props) {
 		properties = props;
-		String host = properties.getProperty("host");
 		int port = PropsUtil.expandInt(properties.getProperty("port", "3000"));
-		db = new AerospikeClient(host, port);
+		List<Host> hosts = new ArrayList<>();
+		for (String host : properties.getProperty("host").split(",")) {
+			String[] parts = host.trim().split(":");
+			hosts.add(new Host(parts[0], parts.length > 1 ? PropsUtil.expandInt(parts[1]) : port));
+		}
+
+		readPolicy = new Policy();
+		configure(readPolicy, "read.");
+
+		writePolicy = newWritePolicy();
+		writePolicy.generationPolicy = GenerationPolicy.NONE; // overwrite
+
+		createOnlyPolicy = newWritePolicy();
+		createOnlyPolicy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
+
+		replacePolicy = newWritePolicy();
+		replacePolicy.recordExistsAction = RecordExistsAction.REPLACE;
+
+		updateOnlyPolicy = newWritePolicy();
+		updateOnlyPolicy.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+
+		queryPolicy = new QueryPolicy();
+		configure(queryPolicy, "query.");
+		queryPolicy.maxConcurrentNodes = intProperty("query.maxConcurrentNodes", queryPolicy.maxConcurrentNodes);
+		queryPolicy.recordQueueSize = intProperty("query.recordQueueSize", queryPolicy.recordQueueSize);
+
+		batchPolicy = new BatchPolicy();
+		configure(batchPolicy, "batch.");
+		batchPolicy.maxConcurrentThreads = intProperty("batch.maxConcurrentThreads", batchPolicy.maxConcurrentThreads);
+		batchPolicy.useBatchDirect = booleanProperty("batch.useBatchDirect", batchPolicy.useBatchDirect);
+
+		ClientPolicy clientPolicy = new ClientPolicy();
+		clientPolicy.user = properties.getProperty("client.user", clientPolicy.user);
+		clientPolicy.password = properties.getProperty("client.password", clientPolicy.password);
+		clientPolicy.timeout = intProperty("client.timeout", clientPolicy.timeout);
+		clientPolicy.maxConnsPerNode = intProperty("client.maxConnsPerNode", clientPolicy.maxConnsPerNode);
+		clientPolicy.maxSocketIdle = intProperty("client.maxSocketIdle", clientPolicy.maxSocketIdle);
+		clientPolicy.tendInterval = intProperty("client.tendInterval", clientPolicy.tendInterval);
+		clientPolicy.failIfNotConnected = booleanProperty("client.failIfNotConnected", clientPolicy.failIfNotConnected);
+		clientPolicy.requestProleReplicas = booleanProperty("client.requestProleReplicas", clientPolicy.requestProleReplicas);
+		int threads = intProperty("client.threads", 0);
+		if (threads > 0) {
+			clientPolicy.threadPool = sharedThreadPool(threads);
+			clientPolicy.sharedThreadPool = true;
+		}
+		clientPolicy.readPolicyDefault = readPolicy;
+		clientPolicy.writePolicyDefault = writePolicy;
+		clientPolicy.queryPolicyDefault = queryPolicy;
+		clientPolicy.batchPolicyDefault = batchPolicy;
 
+		db = new AerospikeClient(clientPolicy, hosts.toArray(new Host[hosts.size()]));
 
 		namespace = properties.getProperty("namespace");
+
+		System.out.println("Aerospike config: hosts=" + properties.getProperty("host") + " namespace=" + namespace
+				+ " maxConnsPerNode=" + clientPolicy.maxConnsPerNode + " timeout=" + clientPolicy.timeout
+				+ " tendInterval=" + clientPolicy.tendInterval + " threads=" + (threads > 0 ? threads : "default"));
+		System.out.println("Aerospike read policy: " + describe(readPolicy));
+		System.out.println("Aerospike write policy: " + describe(writePolicy) + " commitLevel=" + writePolicy.commitLevel
+				+ " expiration=" + writePolicy.expiration);
+		System.out.println("Aerospike query policy: " + describe(queryPolicy) + " maxConcurrentNodes=" + queryPolicy.maxConcurrentNodes
+				+ " recordQueueSize=" + queryPolicy.recordQueueSize);
+		System.out.println("Aerospike batch policy: " + describe(batchPolicy) + " maxConcurrentThreads=" + batchPolicy.maxConcurrentThreads
+				+ " useBatchDirect=" + batchPolicy.useBatchDirect);
+	}
+
+	private static synchronized ExecutorService sharedThreadPool(int threads) {
+		if (sharedPool == null) {
+			sharedPool = Executors.newFixedThreadPool(threads);
+		}
+		return sharedPool;
+	}
+
+	/**
+	 * @return a new write policy with the 'write.*' settings, only called by init; policies with a per-record
+	 * generation are copied from these per write, see {@link #expectGeneration(WritePolicy, int)}
+	 */
+	private WritePolicy newWritePolicy() {
+		WritePolicy policy = new WritePolicy();
+		configure(policy, "write.");
+		String commitLevel = properties.getProperty("write.commitLevel");
+		if (commitLevel != null) {
+			policy.commitLevel = CommitLevel.valueOf(commitLevel);
+		}
+		policy.expiration = intProperty("write.expiration", policy.expiration);
+		return policy;
+	}
+
+	/**
+	 * @return a copy of the template that fails unless the record has the given generation
+	 */
+	private static WritePolicy expectGeneration(WritePolicy template, int generation) {
+		WritePolicy policy = new WritePolicy();
+		policy.timeout = template.timeout;
+		policy.maxRetries = template.maxRetries;
+		policy.sleepBetweenRetries = template.sleepBetweenRetries;
+		policy.sendKey = template.sendKey;
+		policy.replica = template.replica;
+		policy.consistencyLevel = template.consistencyLevel;
+		policy.priority = template.priority;
+		policy.commitLevel = template.commitLevel;
+		policy.expiration = template.expiration;
+		policy.recordExistsAction = template.recordExistsAction;
+		policy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+		policy.generation = generation;
+		return policy;
+	}
+
+	private void configure(Policy policy, String prefix) {
+		policy.timeout = intProperty(prefix + "timeout", policy.timeout);
+		policy.maxRetries = intProperty(prefix + "maxRetries", policy.maxRetries);
+		policy.sleepBetweenRetries = intProperty(prefix + "sleepBetweenRetries", policy.sleepBetweenRetries);
+		policy.sendKey = booleanProperty(prefix + "sendKey", policy.sendKey);
+		String replica = properties.getProperty(prefix + "replica");
+		if (replica != null) {
+			policy.replica = Replica.valueOf(replica);
+		}
+		String consistencyLevel = properties.getProperty(prefix + "consistencyLevel");
+		if (consistencyLevel != null) {
+			policy.consistencyLevel = ConsistencyLevel.valueOf(consistencyLevel);
+		}
+		String priority = properties.getProperty(prefix + "priority");
+		if (priority != null) {
+			policy.priority = Priority.valueOf(priority);
+		}
+	}
+
+	private String describe(Policy policy) {
+		return "timeout=" + policy.timeout + " maxRetries=" + policy.maxRetries + " sleepBetweenRetries=" + policy.sleepBetweenRetries
+				+ " replica=" + policy.replica + " consistencyLevel=" + policy.consistencyLevel + " priority=" + policy.priority
+				+ " sendKey=" + policy.sendKey;
+	}
+
+	private int intProperty(String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		return value == null ? defaultValue : PropsUtil.expandInt(value);
+	}
+
+	private boolean booleanProperty(String name, boolean defaultValue) {
+		String value = properties.getProperty(name);
+		return value == null ? defaultValue : Boolean.valueOf(value);
 	}
 
 	@Override
 	public void register(String tableName, List<FieldDefinition> fields) {
+		Map<String, IndexType> indexed = indexes.get(tableName);
+		if (indexed == null) {
+			indexed = new ConcurrentHashMap<>();
+			indexes.put(tableName, indexed);
+		}
 		for (FieldDefinition field : fields) {
+			if (field.indexType == FieldDefinition.INDEX_TYPE.FULLTEXT) {
+				// secondary indexes only match whole bin values, text predicates are evaluated on the record stream
+				System.out.println("Aerospike: no fulltext index for " + tableName + "." + field.fieldName + ", text is matched on the client");
+				continue;
+			}
 			String indexName = tableName + "_" + field.fieldName + "_" + field.indexType.name();
 			IndexTask task = db.createIndex(null, namespace, tableName, indexName, field.fieldName, translateIndexType(field));
 			task.waitTillComplete();
+			indexed.put(field.fieldName, translateIndexType(field));
 		}
 	}
 
@@ -53,12 +217,96 @@ public class Aerospike extends Database {
 
 	@Override
 	public void startTransaction() {
-		threadLocalTransaction.set(new HashMap<Key, AsRecord>());
+		threadLocalTransaction.set(new AsTransaction());
 	}
 
+	/**
+	 * Optimistic commit: the generations of all records read in the transaction are verified with a single batch
+	 * read, then the buffered writes are applied with generation checks. If a write still collides, the writes
+	 * already applied are restored from the before-images taken at read time.
+	 */
 	@Override
 	public void commitTransaction() {
+		AsTransaction transaction = threadLocalTransaction.get();
 		threadLocalTransaction.set(null);
+		if (transaction == null || transaction.writes.isEmpty()) {
+			return;
+		}
+
+		validate(transaction);
+
+		List<Key> applied = new ArrayList<>(transaction.writes.size());
+		try {
+			for (Map.Entry<Key, Map<String, Object>> write : transaction.writes.entrySet()) {
+				apply(transaction, write.getKey(), write.getValue());
+				applied.add(write.getKey());
+			}
+		} catch (AerospikeException ae) {
+			undo(transaction, applied);
+			throw new IllegalStateException("Transaction collision: " + ae.getMessage(), ae);
+		}
+	}
+
+	private void validate(AsTransaction transaction) {
+		if (transaction.reads.isEmpty()) {
+			return;
+		}
+		Key[] keys = transaction.reads.keySet().toArray(new Key[transaction.reads.size()]);
+		Record[] headers = db.getHeader(batchPolicy, keys);
+		for (int i = 0; i < keys.length; i++) {
+			int current = headers[i] == null ? 0 : headers[i].generation;
+			int read = transaction.reads.get(keys[i]).generation;
+			if (current != read) {
+				throw new IllegalStateException("Record(" + keys[i].userKey + ") generation has changed. read=" + read + " current=" + current);
+			}
+		}
+	}
+
+	private void apply(AsTransaction transaction, Key key, Map<String, Object> fields) {
+		AsRecord read = transaction.reads.get(key);
+		WritePolicy writePolicy;
+		if (read == null) {
+			// insert or blind write
+			writePolicy = transaction.inserts.contains(key) ? createOnlyPolicy : this.writePolicy;
+		} else if (read.fields == null) {
+			// read as missing, must still be missing
+			writePolicy = createOnlyPolicy;
+		} else {
+			writePolicy = expectGeneration(this.writePolicy, read.generation);
+		}
+
+		if (fields == null) {
+			db.delete(writePolicy, key);
+		} else {
+			db.put(writePolicy, key, toBins(fields));
+		}
+	}
+
+	/**
+	 * Best effort: restores records that were read from their before-image and removes records that did not exist.
+	 * Blind writes have no before-image and stay applied.
+	 */
+	private void undo(AsTransaction transaction, List<Key> applied) {
+		for (int i = applied.size() - 1; i >= 0; i--) {
+			Key key = applied.get(i);
+			AsRecord read = transaction.reads.get(key);
+			boolean inserted = transaction.inserts.contains(key) || (read != null && read.fields == null);
+			try {
+				if (inserted) {
+					db.delete(writePolicy, key);
+				} else if (read != null) {
+					WritePolicy writePolicy = replacePolicy;
+					boolean deleted = transaction.writes.get(key) == null;
+					if (!deleted) {
+						// our write incremented the generation, fails if somebody else has written since
+						writePolicy = expectGeneration(replacePolicy, read.generation + 1);
+					}
+					db.put(writePolicy, key, toBins(read.fields));
+				}
+			} catch (AerospikeException ae) {
+				System.out.println("Error: could not undo write of " + key.userKey + ": " + ae.getMessage());
+			}
+		}
 	}
 
 	@Override
@@ -74,10 +322,24 @@ public class Aerospike extends Database {
 		Key key = new Key(namespace, tableName, generatedId);
 
 		// save data
+		AsTransaction transaction = threadLocalTransaction.get();
+		if (transaction != null) {
+			transaction.inserts.add(key);
+		}
 		put(key, fields);
 		return fromKey(key, 0);
 	}
 
+	@Override
+	public boolean supportsClientKeys() {
+		return true;
+	}
+
+	@Override
+	public String createKey(String tableName) {
+		return fromKey(new Key(namespace, tableName, new Value.StringValue(UUID.randomUUID().toString())), 0);
+	}
+
 	@Override
 	public void put(String tableName, String keyUser, Map<String, Object> fields) {
 		Key key = toKey(keyUser);
@@ -85,14 +347,16 @@ public class Aerospike extends Database {
 	}
 
 	private void put(Key key, Map<String, Object> fields) {
-		WritePolicy writePolicy = new WritePolicy();
-
-		if (threadLocalTransaction.get() != null) {
-			writePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL; // enforces simple transaction
-			AsRecord existingRecord = threadLocalTransaction.get().get(key);
-			writePolicy.generation = existingRecord == null ? 0 : existingRecord.generation;
-		} else {
-			writePolicy.generationPolicy = GenerationPolicy.NONE; // overwrite
+		AsTransaction transaction = threadLocalTransaction.get();
+		if (transaction != null) {
+			// buffered until commit, bins of repeated writes are merged like on the server
+			Map<String, Object> buffered = transaction.writes.get(key);
+			if (buffered == null) {
+				buffered = new HashMap<>(fields.size());
+				transaction.writes.put(key, buffered);
+			}
+			buffered.putAll(fields);
+			return;
 		}
 
 		Bin[] bins = toBins(fields);
@@ -102,13 +366,31 @@ public class Aerospike extends Database {
 	@Override
 	public Map<String, Object> get(String userKey) {
 
-		boolean isTransaction = threadLocalTransaction.get() != null;
+		AsTransaction transaction = threadLocalTransaction.get();
 
 		Key dbKey = toKey(userKey);
-		Record record = db.get(null, dbKey);
+		if (transaction != null && transaction.writes.containsKey(dbKey)) {
+			Map<String, Object> buffered = transaction.writes.get(dbKey);
+			if (buffered == null) {
+				return null; // deleted in this transaction
+			}
+			AsRecord read = transaction.reads.get(dbKey);
+			Map<String, Object> fields = read == null || read.fields == null ? new HashMap<String, Object>() : new HashMap<>(read.fields);
+			for (Map.Entry<String, Object> bin : buffered.entrySet()) {
+				// null bins are removed by a patch
+				if (bin.getValue() == null) {
+					fields.remove(bin.getKey());
+				} else {
+					fields.put(bin.getKey(), bin.getValue());
+				}
+			}
+			return fields;
+		}
+
+		Record record = db.get(readPolicy, dbKey);
 
-		if (record != null && isTransaction) {
-			threadLocalTransaction.get().put(dbKey, AsRecord.from(record));
+		if (transaction != null) {
+			transaction.read(dbKey, record);
 		}
 
 		return record == null ? null : record.bins;
@@ -117,15 +399,86 @@ public class Aerospike extends Database {
 	@Override
 	public void delete(String tableName, String keyUser) {
 		Key key = toKey(keyUser);
-		WritePolicy writePolicy = new WritePolicy();
-		if (threadLocalTransaction.get() != null) {
-			writePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL; // enforces simple transaction
-		} else {
-			writePolicy.generationPolicy = GenerationPolicy.NONE; // overwrite
+		AsTransaction transaction = threadLocalTransaction.get();
+		if (transaction != null) {
+			transaction.writes.put(key, null);
+			return;
 		}
 		db.delete(writePolicy, key);
 	}
 
+	/**
+	 * Writes only the touched bins, removed fields are written as null bins which deletes them.
+	 */
+	@Override
+	public boolean patch(String tableName, String userKey, Map<String, Object> set, Collection<String> unset) {
+		Key key = toKey(userKey);
+		Map<String, Object> bins = new HashMap<>(set);
+		for (String fieldName : unset) {
+			bins.put(fieldName, null);
+		}
+
+		AsTransaction transaction = threadLocalTransaction.get();
+		if (transaction != null) {
+			// the first read puts the record's generation into the read set, so the patch is validated at commit
+			AsRecord read = transaction.reads.get(key);
+			if (read != null && !transaction.writes.containsKey(key)) {
+				if (read.fields == null) {
+					return false;
+				}
+			} else if (get(userKey) == null) {
+				return false;
+			}
+			put(key, bins);
+			return true;
+		}
+
+		try {
+			db.put(updateOnlyPolicy, key, toBins(bins));
+			return true;
+		} catch (AerospikeException ae) {
+			if (ae.getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR) {
+				return false;
+			}
+			throw ae;
+		}
+	}
+
+	/**
+	 * Outside of a transaction all bins are added and read back with a single operate() call.
+	 */
+	@Override
+	public Map<String, Long> increment(String tableName, String userKey, Map<String, Long> deltas) {
+		if (threadLocalTransaction.get() != null) {
+			// buffered and validated at commit like any other write of the transaction
+			return super.increment(tableName, userKey, deltas);
+		}
+
+		Operation[] operations = new Operation[2 * deltas.size()];
+		int i = 0;
+		for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+			operations[i++] = Operation.add(new Bin(delta.getKey(), delta.getValue().longValue()));
+		}
+		for (String fieldName : deltas.keySet()) {
+			operations[i++] = Operation.get(fieldName);
+		}
+
+		Record record;
+		try {
+			record = db.operate(updateOnlyPolicy, toKey(userKey), operations);
+		} catch (AerospikeException ae) {
+			if (ae.getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR) {
+				return null;
+			}
+			throw ae;
+		}
+		Map<String, Long> values = new HashMap<>(deltas.size());
+		for (String fieldName : deltas.keySet()) {
+			values.put(fieldName, record.getLong(fieldName));
+		}
+		return values;
+	}
+
 	@Override
 	public Map<String, Map<String, Object>> querySimple(String tableName, List<QueryPredicate> predicates, int skip, int limit) {
 		Statement stmt = new Statement();
@@ -134,82 +487,254 @@ public class Aerospike extends Database {
 
 		boolean isTransaction = threadLocalTransaction.get() != null;
 
-		Set<Filter> filters = new HashSet<>();
+		// Aerospike supports a single index filter per query: the most selective predicate is pushed down,
+		// all predicates are then evaluated on the record stream
+		Filter filter = toIndexFilter(tableName, predicates);
+		if (filter != null) {
+			stmt.setFilters(filter);
+		}
+		RecordSet results = db.query(queryPolicy, stmt);
+
+		Map<String, Map<String, Object>> out = new HashMap<>();
+		try {
+			while ((limit == 0 || out.size() < limit) && results.next()) {
+				Record record = results.getRecord();
+				if (!matches(record, predicates)) {
+					continue;
+				}
+				if (skip > 0) {
+					skip--;
+					continue;
+				}
+
+				Key key = results.getKey();
+				out.put(fromKey(key, record.generation), record.bins);
+
+				if (isTransaction) {
+					threadLocalTransaction.get().read(key, record);
+				}
+			}
+		} finally {
+			// terminates the query on all nodes if we stopped reading early
+			results.close();
+		}
+
+		return out;
+	}
+
+	/**
+	 * Query results are not ordered, so the page is selected on the client: 'sortField' &gt;= the continuation's value
+	 * is pushed down to the index when possible and the 'limit' smallest records are kept in a bounded heap.
+	 * With an index on the sort field the records before the continuation are not read at all, while skip in
+	 * {@link #querySimple(String, List, int, int)} reads and discards them.
+	 */
+	@Override
+	public Page queryPage(String tableName, List<QueryPredicate> predicates, String sortField, int limit, String continuation) {
+		Page.Cursor after = Page.Cursor.decode(continuation);
+		List<QueryPredicate> indexPredicates = new ArrayList<>(predicates);
+		if (after != null && (after.value instanceof Integer || after.value instanceof Long)) {
+			indexPredicates.add(new QueryPredicate(sortField, QueryPredicate.OPERATOR.GREATER_EQUALS, after.value));
+		}
+
+		Statement stmt = new Statement();
+		stmt.setNamespace(namespace);
+		stmt.setSetName(tableName);
+		Filter filter = toIndexFilter(tableName, indexPredicates);
+		if (filter != null) {
+			stmt.setFilters(filter);
+		}
+		RecordSet results = db.query(queryPolicy, stmt);
+
+		// largest record on top, so it is the one dropped when a smaller one arrives
+		PriorityQueue<PageEntry> heap = new PriorityQueue<>(limit + 1, new Comparator<PageEntry>() {
+			@Override
+			public int compare(PageEntry a, PageEntry b) {
+				return b.cursor.compareTo(a.cursor);
+			}
+		});
+		try {
+			while (results.next()) {
+				Record record = results.getRecord();
+				if (!matches(record, predicates)) {
+					continue;
+				}
+				Key key = results.getKey();
+				Page.Cursor cursor = new Page.Cursor(record.bins.get(sortField), key.userKey.toString());
+				if (after != null && cursor.compareTo(after) <= 0) {
+					continue;
+				}
+				heap.add(new PageEntry(cursor, key, record));
+				if (heap.size() > limit) {
+					heap.poll();
+				}
+			}
+		} finally {
+			results.close();
+		}
+
+		PageEntry[] entries = heap.toArray(new PageEntry[heap.size()]);
+		Arrays.sort(entries, Collections.reverseOrder(heap.comparator()));
+		AsTransaction transaction = threadLocalTransaction.get();
+		Map<String, Map<String, Object>> records = new LinkedHashMap<>();
+		for (PageEntry entry : entries) {
+			records.put(fromKey(entry.key, entry.record.generation), entry.record.bins);
+			if (transaction != null) {
+				transaction.read(entry.key, entry.record);
+			}
+		}
+		boolean full = entries.length == limit && limit > 0;
+		return new Page(records, full ? entries[entries.length - 1].cursor.encode() : null);
+	}
+
+	/**
+	 * Picks the index filter: an equality if there is one, otherwise the range of a field bounded from both sides,
+	 * otherwise any one-sided range. All range predicates on the chosen field are merged into a single range.
+	 * Only bins with a secondary index registered by {@link #register(String, List)} are considered.
+	 *
+	 * @return the filter or null if no predicate can be served by a secondary index (the query becomes a scan)
+	 */
+	private Filter toIndexFilter(String tableName, List<QueryPredicate> predicates) {
+		QueryPredicate chosen = null;
 		for (QueryPredicate predicate : predicates) {
-			Value value = Value.get(predicate.value);
-			switch (predicate.operator) {
-				case EQUALS:
-					if (value.getType() == ParticleType.INTEGER) {
-						filters.add(Filter.equal(predicate.fieldName, value.toLong()));
-					} else if (value.getType() == ParticleType.STRING) {
-						filters.add(Filter.equal(predicate.fieldName, value.toString()));
-					} else {
-						throw new IllegalStateException("Unsupported query value type: " + value.getType() + ". Must be ParticleType.INTEGER or ParticleType.STRING.");
-					}
-					break;
-				case NOT_EQUALS:
-					if (value.getType() == ParticleType.INTEGER) {
-						filters.add(Filter.range(predicate.fieldName, Long.MIN_VALUE, value.toLong()));
-						filters.add(Filter.range(predicate.fieldName, value.toLong(), Long.MAX_VALUE));
-					} else {
-						throw new IllegalStateException("Unsupported query value type: " + value.getType() + ". Must be ParticleType.INTEGER.");
-					}
+			if (!isIndexable(tableName, predicate)) {
+				continue;
+			}
+			if (predicate.operator == QueryPredicate.OPERATOR.EQUALS) {
+				Value value = Value.get(predicate.value);
+				if (value.getType() == ParticleType.STRING) {
+					return Filter.equal(predicate.fieldName, value.toString());
+				}
+				return Filter.equal(predicate.fieldName, value.toLong());
+			}
+			if (chosen == null || (!isBounded(tableName, chosen.fieldName, predicates) && isBounded(tableName, predicate.fieldName, predicates))) {
+				chosen = predicate;
+			}
+		}
+		if (chosen == null) {
+			return null;
+		}
 
-				case CONTAINS:
-					throw new IllegalStateException("Unsupported query operator: " + predicate.operator);
-				case LIKE:
-					throw new IllegalStateException("Unsupported query operator: " + predicate.operator);
+		long low = Long.MIN_VALUE;
+		long high = Long.MAX_VALUE;
+		for (QueryPredicate predicate : predicates) {
+			if (!isIndexable(tableName, predicate) || !predicate.fieldName.equals(chosen.fieldName)) {
+				continue;
+			}
+			long value = ((Number) predicate.value).longValue();
+			switch (predicate.operator) {
 				case GREATER:
-					if (value.getType() == ParticleType.INTEGER) {
-						filters.add(Filter.range(predicate.fieldName, value.toLong(), Long.MAX_VALUE));
-					} else {
-						throw new IllegalStateException("Unsupported query value type: " + value.getType() + ". Must be ParticleType.INTEGER.");
-					}
+					low = Math.max(low, value == Long.MAX_VALUE ? value : value + 1);
 					break;
 				case GREATER_EQUALS:
-					if (value.getType() == ParticleType.INTEGER) {
-						filters.add(Filter.equal(predicate.fieldName, value.toLong()));
-						filters.add(Filter.range(predicate.fieldName, value.toLong(), Long.MAX_VALUE));
-					} else {
-						throw new IllegalStateException("Unsupported query value type: " + value.getType() + ". Must be ParticleType.INTEGER.");
-					}
+					low = Math.max(low, value);
 					break;
 				case LESSER:
-					if (value.getType() == ParticleType.INTEGER) {
-						filters.add(Filter.range(predicate.fieldName, Long.MIN_VALUE, value.toLong()));
-					} else {
-						throw new IllegalStateException("Unsupported query value type: " + value.getType() + ". Must be ParticleType.INTEGER.");
-					}
+					high = Math.min(high, value == Long.MIN_VALUE ? value : value - 1);
 					break;
 				case LESSER_EQUALS:
-					if (value.getType() == ParticleType.INTEGER) {
-						filters.add(Filter.equal(predicate.fieldName, value.toLong()));
-						filters.add(Filter.range(predicate.fieldName, Long.MIN_VALUE, value.toLong()));
-					} else {
-						throw new IllegalStateException("Unsupported query value type: " + value.getType() + ". Must be ParticleType.INTEGER.");
-					}
+					high = Math.min(high, value);
 					break;
-				default:
-					throw new IllegalStateException("Unknown query operator: " + predicate.operator);
 			}
-
 		}
-		stmt.setFilters(filters.toArray(new Filter[filters.size()]));
-		RecordSet results = db.query(db.queryPolicyDefault, stmt);
+		return Filter.range(chosen.fieldName, low, high);
+	}
 
-		Map<String, Map<String, Object>> out = new HashMap<>();
+	private boolean isIndexable(String tableName, QueryPredicate predicate) {
+		Map<String, IndexType> indexed = indexes.get(tableName);
+		IndexType index = indexed == null ? null : indexed.get(predicate.fieldName);
+		if (index == null) {
+			return false;
+		}
+		if (index == IndexType.STRING) {
+			return predicate.operator == QueryPredicate.OPERATOR.EQUALS && predicate.value instanceof String;
+		}
+		boolean integer = predicate.value instanceof Integer || predicate.value instanceof Long
+				|| predicate.value instanceof Short || predicate.value instanceof Byte;
+		switch (predicate.operator) {
+			case EQUALS:
+				return integer;
+			case GREATER:
+			case GREATER_EQUALS:
+			case LESSER:
+			case LESSER_EQUALS:
+				return integer;
+			default:
+				return false;
+		}
+	}
 
-		while (results.next()) {
-			Key key = results.getKey();
-			Record record = results.getRecord();
-			out.put(fromKey(key, record.generation), record.bins);
+	private boolean isBounded(String tableName, String fieldName, List<QueryPredicate> predicates) {
+		boolean lower = false;
+		boolean upper = false;
+		for (QueryPredicate predicate : predicates) {
+			if (isIndexable(tableName, predicate) && predicate.fieldName.equals(fieldName)) {
+				lower |= predicate.operator == QueryPredicate.OPERATOR.GREATER || predicate.operator == QueryPredicate.OPERATOR.GREATER_EQUALS;
+				upper |= predicate.operator == QueryPredicate.OPERATOR.LESSER || predicate.operator == QueryPredicate.OPERATOR.LESSER_EQUALS;
+			}
+		}
+		return lower && upper;
+	}
 
-			if (record != null && isTransaction) {
-				threadLocalTransaction.get().put(key, AsRecord.from(record));
+	private boolean matches(Record record, List<QueryPredicate> predicates) {
+		for (QueryPredicate predicate : predicates) {
+			Object fieldVal = record.bins == null ? null : record.bins.get(predicate.fieldName);
+			if (!matches(fieldVal, predicate)) {
+				return false;
 			}
 		}
+		return true;
+	}
 
-		return out;
+	private boolean matches(Object fieldVal, QueryPredicate predicate) {
+		Object value = predicate.value;
+		switch (predicate.operator) {
+			case EQUALS:
+				return valueEquals(fieldVal, value);
+			case NOT_EQUALS:
+				return !valueEquals(fieldVal, value);
+			case GREATER:
+				return isNumeric(fieldVal, value) && compare((Number) fieldVal, (Number) value) > 0;
+			case GREATER_EQUALS:
+				return isNumeric(fieldVal, value) && compare((Number) fieldVal, (Number) value) >= 0;
+			case LESSER:
+				return isNumeric(fieldVal, value) && compare((Number) fieldVal, (Number) value) < 0;
+			case LESSER_EQUALS:
+				return isNumeric(fieldVal, value) && compare((Number) fieldVal, (Number) value) <= 0;
+			case LIKE:
+				return fieldVal instanceof String && value instanceof String && ((String) fieldVal).contains((String) value);
+			case CONTAINS:
+				if (fieldVal instanceof Collection) {
+					for (Object element : (Collection) fieldVal) {
+						if (valueEquals(element, value)) {
+							return true;
+						}
+					}
+				}
+				return false;
+			case CONTAINS_TEXT:
+				return QueryPredicate.containsText(fieldVal, value);
+			default:
+				throw new IllegalStateException("Unknown query operator: " + predicate.operator);
+		}
+	}
+
+	// integer bins are returned as Long, so numbers are compared by value, not by type
+	private boolean valueEquals(Object fieldVal, Object value) {
+		if (isNumeric(fieldVal, value)) {
+			return compare((Number) fieldVal, (Number) value) == 0;
+		}
+		return value.equals(fieldVal);
+	}
+
+	private boolean isNumeric(Object fieldVal, Object value) {
+		return fieldVal instanceof Number && value instanceof Number;
+	}
+
+	private int compare(Number fieldVal, Number value) {
+		if (fieldVal instanceof Double || fieldVal instanceof Float || value instanceof Double || value instanceof Float) {
+			return Double.compare(fieldVal.doubleValue(), value.doubleValue());
+		}
+		return Long.compare(fieldVal.longValue(), value.longValue());
 	}
 
 	private IndexType translateIndexType(FieldDefinition fieldDefinition) {
@@ -235,7 +760,7 @@ public class Aerospike extends Database {
 		int i = 0;
 		for (String fieldName : fields.keySet()) {
 			Object fieldVal = fields.get(fieldName);
-			bins[i] = new Bin(fieldName, fieldVal);
+			bins[i] = fieldVal == null ? Bin.asNull(fieldName) : new Bin(fieldName, fieldVal);
 			i++;
 		}
 		return bins;
@@ -258,6 +783,18 @@ public class Aerospike extends Database {
 		return key.setName + "#" + key.userKey.toString() + "#" + generation;
 	}
 
+	private static class PageEntry {
+		final Page.Cursor cursor;
+		final Key key;
+		final Record record;
+
+		PageEntry(Page.Cursor cursor, Key key, Record record) {
+			this.cursor = cursor;
+			this.key = key;
+			this.record = record;
+		}
+	}
+
 	public static class AsRecord {
 		int generation;
 		Map<String, Object> fields;
@@ -267,8 +804,31 @@ public class Aerospike extends Database {
 			this.fields = fields;
 		}
 
+		/**
+		 * @return a copy of the record, or an AsRecord with generation 0 and no fields for a missing record
+		 */
 		public static AsRecord from(Record record) {
-			return new AsRecord(record.generation, record.bins);
+			if (record == null) {
+				return new AsRecord(0, null);
+			}
+			return new AsRecord(record.generation, record.bins == null ? new HashMap<String, Object>() : new HashMap<>(record.bins));
+		}
+	}
+
+	/**
+	 * Read set with the generations seen by the transaction, and the write set buffered until commit.
+	 */
+	public static class AsTransaction {
+		final Map<Key, AsRecord> reads = new HashMap<>();
+		// null fields mark a delete
+		final Map<Key, Map<String, Object>> writes = new LinkedHashMap<>();
+		final Set<Key> inserts = new HashSet<>();
+
+		// the first read of a record is the one the transaction's decisions are based on
+		void read(Key key, Record record) {
+			if (!reads.containsKey(key)) {
+				reads.put(key, AsRecord.from(record));
+			}
 		}
 	}
 }
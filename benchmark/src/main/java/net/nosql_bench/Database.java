@@ -1,8 +1,6 @@
 package net.nosql_bench;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Properties;
+import java.util.*;
 
 public abstract class Database {
 
@@ -16,6 +14,61 @@ public abstract class Database {
 
 	public abstract void finish();
 
+	/**
+	 * Named statistics of a table for reports, e.g. number of records and index sizes.
+	 * Default implementation has none.
+	 */
+	public Map<String, Long> getStats(String tableName) {
+		return new LinkedHashMap<>();
+	}
+
+	/**
+	 * Announces a bulk load: called after {@link #init(Properties)} and before {@link #register(String, List)}.
+	 * Loading threads call {@link #finish()} when done. Default implementation does nothing.
+	 */
+	public void startBulkLoad() {
+	}
+
+	/**
+	 * Ends a bulk load after all loading threads have finished, building any index that was deferred
+	 * during the load. Default implementation does nothing.
+	 */
+	public void endBulkLoad() {
+	}
+
+	/**
+	 * @return False if keys returned by {@link #insert(String, Map)} during a bulk load are temporary until the load
+	 * is committed, so they must not be recorded for later use. Default implementation returns true.
+	 */
+	public boolean returnsFinalKeysInBulkLoad() {
+		return true;
+	}
+
+	/**
+	 * Waits until all writes acknowledged so far are durable. Default implementation does nothing, as writes are
+	 * durable once acknowledged unless a database buffers them.
+	 */
+	public void flush() {
+	}
+
+	/**
+	 * @return True if {@link #createKey(String)} is supported. Default implementation returns false.
+	 */
+	public boolean supportsClientKeys() {
+		return false;
+	}
+
+	/**
+	 * Returns a new unique key, so a record's key can be known before the record is written with
+	 * {@link #put(String, String, Map)}. Only databases whose keys are not assigned by the server support it,
+	 * see {@link #supportsClientKeys()}.
+	 *
+	 * @throws UnsupportedOperationException If the database assigns keys itself on insert.
+	 */
+	public String createKey(String tableName) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support client side keys.");
+	}
+
 	public abstract void startTransaction();
 
 	public abstract void commitTransaction();
@@ -30,6 +83,105 @@ public abstract class Database {
 
 	public abstract void delete(String tableName, String key);
 
+	/**
+	 * Changes only some fields of an existing record: fields in 'set' are written, fields in 'unset' are removed,
+	 * all other fields stay as they are. Unlike {@link #put(String, String, Map)} the record does not have to be
+	 * read first and only the changed fields are sent.
+	 * <p/>
+	 * Default implementation reads the record and writes it back whole.
+	 *
+	 * @return False if the record does not exist.
+	 */
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		Map<String, Object> fields = get(key);
+		if (fields == null) {
+			return false;
+		}
+		fields.putAll(set);
+		fields.keySet().removeAll(unset);
+		put(tableName, key, fields);
+		return true;
+	}
+
+	/**
+	 * Atomically adds deltas to numeric fields of an existing record, so a counter needs no read-modify-write
+	 * transaction. A missing field counts as 0. Within a transaction the increment is part of the transaction.
+	 * <p/>
+	 * Default implementation reads the record and writes it back, which is only atomic within a transaction.
+	 *
+	 * @return New values of the incremented fields, or null if the record does not exist.
+	 */
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		Map<String, Object> fields = get(key);
+		if (fields == null) {
+			return null;
+		}
+		Map<String, Long> values = addDeltas(fields, deltas);
+		put(tableName, key, fields);
+		return values;
+	}
+
+	/**
+	 * Atomically adds delta to a single numeric field, see {@link #increment(String, String, Map)}.
+	 *
+	 * @return New value of the field.
+	 */
+	public long increment(String tableName, String key, String fieldName, long delta) {
+		Map<String, Long> values = increment(tableName, key, Collections.singletonMap(fieldName, delta));
+		if (values == null) {
+			throw new IllegalArgumentException("Record does not exist: " + key);
+		}
+		return values.get(fieldName);
+	}
+
+	/**
+	 * Adds deltas to given fields in place. Integer fields stay Integer, so records keep their field types.
+	 *
+	 * @return New values of the incremented fields.
+	 */
+	protected static Map<String, Long> addDeltas(Map<String, Object> fields, Map<String, Long> deltas) {
+		Map<String, Long> values = new HashMap<>(deltas.size());
+		for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+			Object current = fields.get(delta.getKey());
+			long value = (current == null ? 0 : ((Number) current).longValue()) + delta.getValue();
+			fields.put(delta.getKey(), current instanceof Integer ? (Object) (int) value : (Object) value);
+			values.put(delta.getKey(), value);
+		}
+		return values;
+	}
+
 	public abstract Map<String /*key*/, Map<String, Object> /*fields*/> querySimple(String tableName, List<QueryPredicate> predicates, int skip, int limit);
 
+	/**
+	 * Keyset pagination: returns up to 'limit' records matching predicates, ordered by 'sortField' and then by key,
+	 * that come after the record the continuation points to. Unlike skip in
+	 * {@link #querySimple(String, List, int, int)}, deep pages cost no more than the first one if the sort field
+	 * is indexed. The last page may be empty.
+	 * <p/>
+	 * Default implementation queries all matching records and sorts them on the client.
+	 *
+	 * @param continuation {@link Page#continuation} of the previous page, null for the first page.
+	 */
+	public Page queryPage(String tableName, List<QueryPredicate> predicates, String sortField, int limit, String continuation) {
+		Page.Cursor after = Page.Cursor.decode(continuation);
+		TreeMap<Page.Cursor, Map.Entry<String, Map<String, Object>>> sorted = new TreeMap<>();
+		for (Map.Entry<String, Map<String, Object>> record : querySimple(tableName, predicates, 0, 0).entrySet()) {
+			Page.Cursor cursor = new Page.Cursor(record.getValue().get(sortField), record.getKey());
+			if (after == null || cursor.compareTo(after) > 0) {
+				sorted.put(cursor, record);
+			}
+		}
+
+		Map<String, Map<String, Object>> records = new LinkedHashMap<>();
+		Page.Cursor last = null;
+		for (Map.Entry<Page.Cursor, Map.Entry<String, Map<String, Object>>> entry : sorted.entrySet()) {
+			if (records.size() == limit) {
+				break;
+			}
+			records.put(entry.getValue().getKey(), entry.getValue().getValue());
+			last = entry.getKey();
+		}
+		return new Page(records, records.size() == limit && last != null ? last.encode() : null);
+	}
+
 }
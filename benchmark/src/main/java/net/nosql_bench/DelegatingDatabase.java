@@ -0,0 +1,151 @@
+package net.nosql_bench;
+
+import java.util.*;
+
+/**
+ * Base of databases that decorate another one, e.g. with a cache. Forwards every call to the delegate.
+ * <p/>
+ * The delegate is created in {@link #init(Properties)} from the 'delegate' property: a class name, or a comma
+ * separated chain of class names to stack several decorators. The first class in the chain is the delegate of
+ * this database, it gets the same properties with the rest of the chain as its 'delegate'. For example:
+ * <pre>
+ * class=net.nosql_bench.cache.CachingDatabase
+ * delegate=net.nosql_bench.cache.QueryCachingDatabase,net.nosql_bench.TestDatabase
+ * </pre>
+ */
+public abstract class DelegatingDatabase extends Database {
+
+	protected Database delegate;
+
+	@Override
+	public void init(Properties props) {
+		this.properties = props;
+		String chain = props.getProperty("delegate");
+		if (chain == null) {
+			throw new IllegalArgumentException("Property 'delegate' not defined for " + getClass().getName());
+		}
+		String[] classes = chain.split(",", 2);
+		Properties delegateProps = new Properties();
+		delegateProps.putAll(props);
+		if (classes.length > 1) {
+			delegateProps.setProperty("delegate", classes[1].trim());
+		} else {
+			delegateProps.remove("delegate");
+		}
+		try {
+			delegate = (Database) DelegatingDatabase.class.getClassLoader().loadClass(classes[0].trim()).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Could not create delegate database: " + classes[0], e);
+		}
+		delegate.init(delegateProps);
+	}
+
+	public Database getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public void register(String tableName, List<FieldDefinition> fields) {
+		delegate.register(tableName, fields);
+	}
+
+	@Override
+	public void cleanup(String tableName) {
+		delegate.cleanup(tableName);
+	}
+
+	@Override
+	public void finish() {
+		delegate.finish();
+	}
+
+	@Override
+	public Map<String, Long> getStats(String tableName) {
+		return delegate.getStats(tableName);
+	}
+
+	@Override
+	public void startBulkLoad() {
+		delegate.startBulkLoad();
+	}
+
+	@Override
+	public void endBulkLoad() {
+		delegate.endBulkLoad();
+	}
+
+	@Override
+	public boolean returnsFinalKeysInBulkLoad() {
+		return delegate.returnsFinalKeysInBulkLoad();
+	}
+
+	@Override
+	public void flush() {
+		delegate.flush();
+	}
+
+	@Override
+	public boolean supportsClientKeys() {
+		return delegate.supportsClientKeys();
+	}
+
+	@Override
+	public String createKey(String tableName) {
+		return delegate.createKey(tableName);
+	}
+
+	@Override
+	public void startTransaction() {
+		delegate.startTransaction();
+	}
+
+	@Override
+	public void commitTransaction() {
+		delegate.commitTransaction();
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		delegate.rollbackTransaction();
+	}
+
+	@Override
+	public String insert(String tableName, Map<String, Object> fields) {
+		return delegate.insert(tableName, fields);
+	}
+
+	@Override
+	public Map<String, Object> get(String key) {
+		return delegate.get(key);
+	}
+
+	@Override
+	public void put(String tableName, String key, Map<String, Object> fields) {
+		delegate.put(tableName, key, fields);
+	}
+
+	@Override
+	public void delete(String tableName, String key) {
+		delegate.delete(tableName, key);
+	}
+
+	@Override
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		return delegate.patch(tableName, key, set, unset);
+	}
+
+	@Override
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		return delegate.increment(tableName, key, deltas);
+	}
+
+	@Override
+	public Map<String, Map<String, Object>> querySimple(String tableName, List<QueryPredicate> predicates, int skip, int limit) {
+		return delegate.querySimple(tableName, predicates, skip, limit);
+	}
+
+	@Override
+	public Page queryPage(String tableName, List<QueryPredicate> predicates, String sortField, int limit, String continuation) {
+		return delegate.queryPage(tableName, predicates, sortField, limit, continuation);
+	}
+}
@@ -0,0 +1,257 @@
+package net.nosql_bench;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged reads in front of another database, see {@link DelegatingDatabase}: if a {@link #get(String)} or
+ * {@link #querySimple(String, List, int, int)} has not answered within the hedge delay, the same request is sent
+ * a second time and whichever answers first is returned. The other one is not interrupted, which would close the
+ * delegate's connection on some clients, its response is ignored. This trades a little extra
+ * load for a shorter tail when slow responses are caused by the server or network, not by the request itself.
+ * <p/>
+ * The delay is the 'hedge.percentile' percentile of the latencies of the last 'hedge.window' requests of the same
+ * kind, or a fixed 'hedge.delay' in microseconds. No more than 'hedge.budget' percent of requests are hedged, so a
+ * general slowdown can not double the load. Requests run on a pool of 'hedge.threads' threads; within a
+ * transaction they run directly on the caller's thread and are not hedged. Pool threads call the delegate's
+ * {@link #finish()} when the pool is shut down, by {@link #cleanup(String)} or the next {@link #init(Properties)}.
+ * <p/>
+ * Properties:
+ * <ul>
+ * <li>hedge.percentile - percentile of recent latencies after which a request is hedged (default 95)</li>
+ * <li>hedge.delay - fixed hedge delay in microseconds, overrides hedge.percentile (default none)</li>
+ * <li>hedge.window - number of requests the percentile is computed from (default 1000)</li>
+ * <li>hedge.budget - maximum percentage of requests that are hedged (default 5)</li>
+ * <li>hedge.threads - number of threads sending requests (default 32)</li>
+ * </ul>
+ */
+public class HedgingDatabase extends DelegatingDatabase {
+
+	private ExecutorService executor;
+	private double percentile;
+	private int window;
+	private double budget;
+
+	private HedgeDelay getDelay;
+	private HedgeDelay queryDelay;
+
+	private final ThreadLocal<Boolean> transactionStarted = new ThreadLocal<>();
+
+	private final AtomicLong requests = new AtomicLong(0);
+	private final AtomicLong hedges = new AtomicLong(0);
+	private final AtomicLong hedgeWins = new AtomicLong(0);
+	private final AtomicLong overBudget = new AtomicLong(0);
+
+	private int threads;
+
+	@Override
+	public void init(Properties props) {
+		stopExecutor();
+		super.init(props);
+		percentile = Double.valueOf(props.getProperty("hedge.percentile", "95"));
+		window = PropsUtil.expandInt(props.getProperty("hedge.window", "1000"));
+		budget = Double.valueOf(props.getProperty("hedge.budget", "5")) / 100;
+		String fixedDelay = props.getProperty("hedge.delay");
+		long fixedNanos = fixedDelay == null ? -1 : TimeUnit.MICROSECONDS.toNanos(PropsUtil.expandInt(fixedDelay));
+		getDelay = new HedgeDelay(fixedNanos);
+		queryDelay = new HedgeDelay(fixedNanos);
+
+		threads = PropsUtil.expandInt(props.getProperty("hedge.threads", "32"));
+		startExecutor();
+	}
+
+	private void startExecutor() {
+		final Database pooled = delegate;
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable worker) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							worker.run();
+						} finally {
+							// releases what the delegate holds for this thread, e.g. its connection
+							pooled.finish();
+						}
+					}
+				}, "hedge-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Shuts down the pool and waits for requests still running, so its threads finish with the delegate.
+	 */
+	private void stopExecutor() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+	}
+
+	/**
+	 * Also restarts the pool, so its threads release their connections.
+	 */
+	@Override
+	public void cleanup(String tableName) {
+		stopExecutor();
+		delegate.cleanup(tableName);
+		startExecutor();
+	}
+
+	@Override
+	public Map<String, Object> get(final String key) {
+		if (transactionStarted.get() != null) {
+			return delegate.get(key);
+		}
+		return hedged(getDelay, new Callable<Map<String, Object>>() {
+			@Override
+			public Map<String, Object> call() throws Exception {
+				return delegate.get(key);
+			}
+		});
+	}
+
+	@Override
+	public Map<String, Map<String, Object>> querySimple(final String tableName, final List<QueryPredicate> predicates, final int skip, final int limit) {
+		if (transactionStarted.get() != null) {
+			return delegate.querySimple(tableName, predicates, skip, limit);
+		}
+		return hedged(queryDelay, new Callable<Map<String, Map<String, Object>>>() {
+			@Override
+			public Map<String, Map<String, Object>> call() throws Exception {
+				return delegate.querySimple(tableName, predicates, skip, limit);
+			}
+		});
+	}
+
+	/**
+	 * Sends the request, and once more if it has not answered within the delay and the budget allows it.
+	 *
+	 * @return The first successful response.
+	 */
+	private <T> T hedged(HedgeDelay delay, Callable<T> request) {
+		long start = System.nanoTime();
+		long requestCount = requests.incrementAndGet();
+		CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+		List<Future<T>> sent = new ArrayList<>(2);
+		sent.add(completion.submit(request));
+		try {
+			Future<T> first = completion.poll(delay.get(), TimeUnit.NANOSECONDS);
+			if (first == null) {
+				if (hedges.get() < budget * requestCount) {
+					hedges.incrementAndGet();
+					sent.add(completion.submit(request));
+				} else {
+					overBudget.incrementAndGet();
+				}
+				first = completion.take();
+			}
+			T result;
+			try {
+				result = first.get();
+			} catch (ExecutionException e) {
+				if (sent.size() == 1) {
+					throw e;
+				}
+				// the other request might still succeed
+				first = completion.take();
+				result = first.get();
+			}
+			if (sent.size() > 1 && first == sent.get(1)) {
+				hedgeWins.incrementAndGet();
+			}
+			delay.record(System.nanoTime() - start);
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a response.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			// the loser is not interrupted, that would close interruptible channels of the delegate
+			for (Future<T> future : sent) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	@Override
+	public void startTransaction() {
+		delegate.startTransaction();
+		transactionStarted.set(Boolean.TRUE);
+	}
+
+	@Override
+	public void commitTransaction() {
+		transactionStarted.remove();
+		delegate.commitTransaction();
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		transactionStarted.remove();
+		delegate.rollbackTransaction();
+	}
+
+	/**
+	 * Delegate's statistics followed by the hedging's, prefixed with 'hedge.': requests, hedged requests, hedges
+	 * that answered first, requests not hedged because of the budget, and the current get and query delays.
+	 */
+	@Override
+	public Map<String, Long> getStats(String tableName) {
+		Map<String, Long> stats = new LinkedHashMap<>(delegate.getStats(tableName));
+		stats.put("hedge.requests", requests.get());
+		stats.put("hedge.sent", hedges.get());
+		stats.put("hedge.wins", hedgeWins.get());
+		stats.put("hedge.over.budget", overBudget.get());
+		stats.put("hedge.get.delay.micros", getDelay.get() == Long.MAX_VALUE ? -1 : getDelay.get() / 1000);
+		stats.put("hedge.query.delay.micros", queryDelay.get() == Long.MAX_VALUE ? -1 : queryDelay.get() / 1000);
+		return stats;
+	}
+
+	/**
+	 * Hedge delay of one kind of request: fixed, or the percentile of the latencies of the previous window of
+	 * requests. Until the first window is complete requests are not hedged.
+	 */
+	private class HedgeDelay {
+
+		private final long fixedNanos;
+		private volatile long delayNanos = Long.MAX_VALUE;
+		private LatencyHistogram current = new LatencyHistogram();
+
+		HedgeDelay(long fixedNanos) {
+			this.fixedNanos = fixedNanos;
+		}
+
+		long get() {
+			return fixedNanos >= 0 ? fixedNanos : delayNanos;
+		}
+
+		synchronized void record(long nanos) {
+			if (fixedNanos >= 0) {
+				return;
+			}
+			current.record(nanos);
+			if (current.getCount() >= window) {
+				delayNanos = current.getPercentile(percentile);
+				current = new LatencyHistogram();
+			}
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package net.nosql_bench;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only, memory-mapped list of the keys returned by {@link Database#insert(String, java.util.Map)}, written during a load
+ * phase and sampled during a later run phase, so the keys of hundreds of millions of records never have to be on heap.
+ * <p/>
+ * The manifest consists of two files:
+ * <ul>
+ * <li>path.keys - keys as UTF-8 bytes, each prefixed with its length as a short</li>
+ * <li>path.index - number of keys followed by the offset of each key in path.keys, as longs</li>
+ * </ul>
+ * Writers reserve space with atomic operations only, so any number of loading threads can append concurrently.
+ * Keys are numbered in order of reservation.
+ */
+public class KeyManifest {
+
+	private static final int SEGMENT_SIZE = 1 << 26; // 64MB
+	private static final int HEADER_SIZE = 8;
+
+	private final MappedFile keys;
+	private final MappedFile index;
+	private final boolean readOnly;
+
+	private final AtomicLong keysEnd = new AtomicLong(0);
+	private final AtomicInteger count = new AtomicInteger(0);
+
+	private KeyManifest(String path, boolean readOnly) throws IOException {
+		this.readOnly = readOnly;
+		this.keys = new MappedFile(Paths.get(path + ".keys"), readOnly);
+		this.index = new MappedFile(Paths.get(path + ".index"), readOnly);
+		if (readOnly) {
+			count.set((int) index.segment(0).getLong(0));
+		}
+	}
+
+	/**
+	 * Creates a new, empty manifest, replacing any existing manifest at given path.
+	 */
+	public static KeyManifest create(String path) {
+		try {
+			Files.deleteIfExists(Paths.get(path + ".keys"));
+			Files.deleteIfExists(Paths.get(path + ".index"));
+			return new KeyManifest(path, false);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not create key manifest: " + path, e);
+		}
+	}
+
+	/**
+	 * Maps an existing manifest for reading.
+	 */
+	public static KeyManifest open(String path) {
+		try {
+			return new KeyManifest(path, true);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open key manifest: " + path, e);
+		}
+	}
+
+	/**
+	 * Appends a key. Thread safe.
+	 */
+	public void append(String key) {
+		if (readOnly) {
+			throw new IllegalStateException("Key manifest is read only.");
+		}
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Key is too long for the manifest: " + bytes.length + " bytes.");
+		}
+		int length = 2 + bytes.length;
+
+		// reserve space, a key never spans two segments
+		long current;
+		long offset;
+		do {
+			current = keysEnd.get();
+			offset = current;
+			if (offset / SEGMENT_SIZE != (offset + length - 1) / SEGMENT_SIZE) {
+				offset = (offset / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+			}
+		} while (!keysEnd.compareAndSet(current, offset + length));
+
+		MappedByteBuffer segment = keys.segment((int) (offset / SEGMENT_SIZE));
+		int position = (int) (offset % SEGMENT_SIZE);
+		segment.putShort(position, (short) bytes.length);
+		for (int i = 0; i < bytes.length; i++) {
+			segment.put(position + 2 + i, bytes[i]);
+		}
+
+		long slot = HEADER_SIZE + 8L * count.getAndIncrement();
+		index.segment((int) (slot / SEGMENT_SIZE)).putLong((int) (slot % SEGMENT_SIZE), offset);
+	}
+
+	/**
+	 * @param i Index in range [0, size())
+	 */
+	public String get(int i) {
+		long slot = HEADER_SIZE + 8L * i;
+		long offset = index.segment((int) (slot / SEGMENT_SIZE)).getLong((int) (slot % SEGMENT_SIZE));
+
+		MappedByteBuffer segment = keys.segment((int) (offset / SEGMENT_SIZE));
+		int position = (int) (offset % SEGMENT_SIZE);
+		byte[] bytes = new byte[segment.getShort(position)];
+		for (int b = 0; b < bytes.length; b++) {
+			bytes[b] = segment.get(position + 2 + b);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public int size() {
+		return count.get();
+	}
+
+	/**
+	 * Writes the number of keys and flushes the manifest to disk. Must be called after all writers are done.
+	 */
+	public void close() {
+		if (!readOnly) {
+			index.segment(0).putLong(0, count.get());
+			keys.force();
+			index.force();
+			// segments are mapped at full size, drop the unused tails
+			keys.truncate(keysEnd.get());
+			index.truncate(HEADER_SIZE + 8L * count.get());
+		}
+		keys.close();
+		index.close();
+	}
+
+	/**
+	 * A file mapped in segments of {@link #SEGMENT_SIZE}, mapped on first use.
+	 */
+	private static class MappedFile {
+
+		private final FileChannel channel;
+		private final boolean readOnly;
+		private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+		MappedFile(Path path, boolean readOnly) throws IOException {
+			this.readOnly = readOnly;
+			if (readOnly) {
+				channel = FileChannel.open(path, StandardOpenOption.READ);
+			} else {
+				channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+		}
+
+		MappedByteBuffer segment(int n) {
+			MappedByteBuffer[] current = segments;
+			if (n < current.length && current[n] != null) {
+				return current[n];
+			}
+			return map(n);
+		}
+
+		/**
+		 * Maps a segment into a copy of the array, which is published once complete, so readers that see the
+		 * array also see its segments.
+		 */
+		private synchronized MappedByteBuffer map(int n) {
+			MappedByteBuffer[] current = segments;
+			if (n < current.length && current[n] != null) {
+				return current[n];
+			}
+			MappedByteBuffer segment;
+			try {
+				long position = (long) n * SEGMENT_SIZE;
+				if (readOnly) {
+					long size = Math.min(SEGMENT_SIZE, channel.size() - position);
+					segment = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+				} else {
+					segment = channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Could not map key manifest segment " + n, e);
+			}
+			MappedByteBuffer[] updated = Arrays.copyOf(current, Math.max(n + 1, current.length));
+			updated[n] = segment;
+			segments = updated;
+			return segment;
+		}
+
+		void force() {
+			for (MappedByteBuffer segment : segments) {
+				if (segment != null) {
+					segment.force();
+				}
+			}
+		}
+
+		void truncate(long size) {
+			try {
+				channel.truncate(size);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package net.nosql_bench;
+
+/**
+ * A log-linear histogram of latencies in nanoseconds, with a relative error of at most 1/16 (~6%).
+ * <p/>
+ * Not thread safe: each thread records into its own histogram and the histograms are merged
+ * with {@link #add(LatencyHistogram)} after the threads are done, so recording needs no synchronization.
+ */
+public class LatencyHistogram {
+
+	// 16 linear sub-buckets per power of two
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long sum;
+	private long max;
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[index(nanos)]++;
+		count++;
+		sum += nanos;
+		if (nanos > max) {
+			max = nanos;
+		}
+	}
+
+	/**
+	 * Adds all values recorded in other histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public long getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * @param percentile Percentile in range 0 - 100, e.g. 99.9
+	 * @return The highest value in the bucket containing the percentile, never more than the recorded maximum.
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	static int index(long value) {
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = Math.max(0, magnitude - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	static long highestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		long mantissa = index - ((long) shift << SUB_BUCKET_BITS);
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return Summary in microseconds: count, mean, p50, p95, p99, p99.9 and max.
+	 */
+	@Override
+	public String toString() {
+		return "count=" + count
+				+ " mean=" + micros(getMean())
+				+ " p50=" + micros(getPercentile(50))
+				+ " p95=" + micros(getPercentile(95))
+				+ " p99=" + micros(getPercentile(99))
+				+ " p99.9=" + micros(getPercentile(99.9))
+				+ " max=" + micros(max);
+	}
+
+	private static String micros(long nanos) {
+		return (nanos / 1000) + "us";
+	}
+}
@@ -42,6 +42,15 @@ public class Main {
 			return;
 		}
 
+		// one run seed for the data, the Tester streams and random choices of the database, e.g. injected latency
+		if (workloadProperties.getProperty("seed") == null) {
+			workloadProperties.setProperty("seed", String.valueOf(System.nanoTime()));
+		}
+		Tester.seed(Long.valueOf(workloadProperties.getProperty("seed")));
+		if (dbProperties.getProperty("seed") == null) {
+			dbProperties.setProperty("seed", workloadProperties.getProperty("seed"));
+		}
+
 		Workload workload;
 		try {
 			String className = workloadProperties.getProperty("class");
@@ -49,9 +58,9 @@ public class Main {
 				System.out.println("Error: property 'class' not defined in workload.properties ");
 				return;
 			}
-			workload = (Workload) Main.class.getClassLoader().loadClass(className).newInstance();
+			workload = (Workload) Main.class.getClassLoader().loadClass(className).getDeclaredConstructor().newInstance();
 
-		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+		} catch (ReflectiveOperationException e) {
 			System.out.println(e.getMessage());
 			return;
 		}
@@ -63,8 +72,8 @@ public class Main {
 				System.out.println("Error: property 'class' not defined in database properties: " + dbPropertiesPath);
 				return;
 			}
-			test = (Database) Main.class.getClassLoader().loadClass(className).newInstance();
-		} catch (InstantiationException | ClassNotFoundException | IllegalAccessException e) {
+			test = (Database) Main.class.getClassLoader().loadClass(className).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
 			System.out.println(e.getMessage());
 			return;
 		}
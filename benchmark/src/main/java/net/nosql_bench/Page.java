@@ -0,0 +1,110 @@
+package net.nosql_bench;
+
+import java.util.*;
+
+/**
+ * One page of query results returned by {@link Database#queryPage(String, List, String, int, String)}: records in
+ * ascending order of the sort field, with ties ordered by key, and the continuation to request the next page.
+ */
+public class Page {
+
+	// in sort order
+	public final Map<String /*key*/, Map<String, Object> /*fields*/> records;
+
+	// null if there are no more records
+	public final String continuation;
+
+	public Page(Map<String, Map<String, Object>> records, String continuation) {
+		this.records = records;
+		this.continuation = continuation;
+	}
+
+	/**
+	 * Orders sort field values: null first, numbers by value, strings lexicographically, other types by class name.
+	 */
+	public static int compareValues(Object a, Object b) {
+		if (a == null || b == null) {
+			return a == null ? (b == null ? 0 : -1) : 1;
+		}
+		if (a instanceof Number && b instanceof Number) {
+			if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+				return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+			}
+			return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+		}
+		if (a instanceof String && b instanceof String) {
+			return ((String) a).compareTo((String) b);
+		}
+		return a.getClass().getName().compareTo(b.getClass().getName());
+	}
+
+	/**
+	 * The last record of a page: its sort field value and key. Encoded into the continuation so the next page
+	 * starts right after it, no matter how many records came before.
+	 */
+	public static class Cursor implements Comparable<Cursor> {
+
+		public final Object value;
+		public final String key;
+
+		public Cursor(Object value, String key) {
+			this.value = value;
+			this.key = key;
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			int result = compareValues(value, other.value);
+			return result != 0 ? result : key.compareTo(other.key);
+		}
+
+		/**
+		 * Format: type of value (N, I, L, D or S), length of value, ':', value, key.
+		 */
+		public String encode() {
+			String type;
+			if (value == null) {
+				type = "N";
+			} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				type = "I";
+			} else if (value instanceof Long) {
+				type = "L";
+			} else if (value instanceof Double || value instanceof Float) {
+				type = "D";
+			} else if (value instanceof String) {
+				type = "S";
+			} else {
+				throw new IllegalArgumentException("Unsupported sort field type: " + value.getClass());
+			}
+			String string = value == null ? "" : value.toString();
+			return type + string.length() + ":" + string + key;
+		}
+
+		/**
+		 * @return The cursor, or null for a null continuation.
+		 */
+		public static Cursor decode(String continuation) {
+			if (continuation == null) {
+				return null;
+			}
+			int colon = continuation.indexOf(':');
+			int length = Integer.valueOf(continuation.substring(1, colon));
+			String string = continuation.substring(colon + 1, colon + 1 + length);
+			String key = continuation.substring(colon + 1 + length);
+			switch (continuation.charAt(0)) {
+				case 'N':
+					return new Cursor(null, key);
+				case 'I':
+					return new Cursor(Integer.valueOf(string), key);
+				case 'L':
+					return new Cursor(Long.valueOf(string), key);
+				case 'D':
+					return new Cursor(Double.valueOf(string), key);
+				case 'S':
+					return new Cursor(string, key);
+				default:
+					throw new IllegalArgumentException("Invalid continuation: " + continuation);
+			}
+		}
+	}
+}
@@ -12,4 +12,33 @@ public class PropsUtil {
 			return Integer.valueOf(strInt);
 		}
 	}
+
+	/**
+	 * Expands a long, e.g. a size in bytes like "64M" or "2G".
+	 */
+	public static long expandLong(String strLong) {
+
+		if (strLong.endsWith("k")) {
+			return 1000L * Long.valueOf(strLong.substring(0, strLong.length()-1));
+		} else if (strLong.endsWith("M")) {
+			return 1_000_000L * Long.valueOf(strLong.substring(0, strLong.length()-1));
+		} else if (strLong.endsWith("G")) {
+			return 1_000_000_000L * Long.valueOf(strLong.substring(0, strLong.length()-1));
+		} else {
+			return Long.valueOf(strLong);
+		}
+	}
+
+	/**
+	 * Expands a comma separated list of integers, e.g. "1,10,1k".
+	 */
+	public static int[] expandIntList(String strInts) {
+
+		String[] parts = strInts.split(",");
+		int[] ints = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			ints[i] = expandInt(parts[i].trim());
+		}
+		return ints;
+	}
 }
@@ -1,7 +1,14 @@
 package net.nosql_bench;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class QueryPredicate {
-	public enum OPERATOR {EQUALS, NOT_EQUALS, GREATER_EQUALS, LESSER_EQUALS, GREATER, LESSER, LIKE, CONTAINS}
+	/**
+	 * LIKE matches a substring of a String field, CONTAINS an element of a Collection field and CONTAINS_TEXT
+	 * a whole word of a String field, ignoring case. CONTAINS_TEXT is the operator served by FULLTEXT indexes.
+	 */
+	public enum OPERATOR {EQUALS, NOT_EQUALS, GREATER_EQUALS, LESSER_EQUALS, GREATER, LESSER, LIKE, CONTAINS, CONTAINS_TEXT}
 
 	public String fieldName;
 	public OPERATOR operator;
@@ -12,4 +19,30 @@ public class QueryPredicate {
 		this.operator = operator;
 		this.value = value;
 	}
+
+	/**
+	 * Splits text into the lower case words that CONTAINS_TEXT matches and FULLTEXT indexes hold.
+	 */
+	public static List<String> terms(String text) {
+		List<String> terms = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				terms.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * @return True if field value is a String containing given word, for databases that match CONTAINS_TEXT themselves.
+	 */
+	public static boolean containsText(Object fieldVal, Object word) {
+		return fieldVal instanceof String && word instanceof String
+				&& terms((String) fieldVal).contains(((String) word).toLowerCase());
+	}
 }
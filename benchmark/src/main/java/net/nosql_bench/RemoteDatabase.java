@@ -0,0 +1,434 @@
+package net.nosql_bench;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client of a {@link RemoteServer}: a {@link TestDatabase} behind {@link WireProtocol}, for comparing the cost of the
+ * protocol and loopback network with the in-process TestDatabase.
+ * <p/>
+ * Client threads share 'remote.connections' connections and pipeline their requests on them: a thread writes its
+ * request and waits for the response, which the connection's reader thread matches by request id. Each thread is
+ * a session on the server, so transactions work as with TestDatabase.
+ * <p/>
+ * Properties:
+ * <ul>
+ * <li>remote.host, remote.port - address of a running RemoteServer (default 127.0.0.1:7777)</li>
+ * <li>remote.embedded - if true, starts a RemoteServer on a free local port instead (default false)</li>
+ * <li>remote.server.workers - worker threads of the embedded server (default number of processors)</li>
+ * <li>remote.connections - number of connections (default 4)</li>
+ * <li>remote.timeout - milliseconds to wait for a response before the request fails (default 30000)</li>
+ * </ul>
+ */
+public class RemoteDatabase extends Database {
+
+	private RemoteServer server;
+	private Connection[] connections;
+
+	private final AtomicLong requestIds = new AtomicLong(0);
+	private final AtomicLong sessionIds = new AtomicLong(0);
+	private final ThreadLocal<Long> session = new ThreadLocal<Long>() {
+		@Override
+		protected Long initialValue() {
+			return sessionIds.incrementAndGet();
+		}
+	};
+
+	private final AtomicLong bytesSent = new AtomicLong(0);
+	private final AtomicLong bytesReceived = new AtomicLong(0);
+
+	@Override
+	public void init(Properties props) {
+		this.properties = props;
+		String host = props.getProperty("remote.host", "127.0.0.1");
+		int port = PropsUtil.expandInt(props.getProperty("remote.port", "7777"));
+		int connectionCount = PropsUtil.expandInt(props.getProperty("remote.connections", "4"));
+		long timeoutMillis = PropsUtil.expandInt(props.getProperty("remote.timeout", "30000"));
+		try {
+			if (connections != null) {
+				for (Connection connection : connections) {
+					connection.close();
+				}
+			}
+			if (server != null) {
+				server.stop();
+			}
+			if (Boolean.valueOf(props.getProperty("remote.embedded", "false"))) {
+				int workers = PropsUtil.expandInt(props.getProperty("remote.server.workers", String.valueOf(Runtime.getRuntime().availableProcessors())));
+				server = new RemoteServer(props, 0, workers);
+				server.start();
+				port = server.getPort();
+			}
+			connections = new Connection[connectionCount];
+			for (int i = 0; i < connectionCount; i++) {
+				connections[i] = new Connection(new InetSocketAddress(host, port), i, timeoutMillis);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not connect to remote server " + host + ":" + port, e);
+		}
+	}
+
+	/**
+	 * Sends a request on the current thread's connection and waits for the response.
+	 *
+	 * @return Response, positioned after the status.
+	 */
+	private DataInputStream call(WireProtocol.FrameOutput request) {
+		byte[] frame = request.toByteArray();
+		long requestId = readRequestId(frame);
+		long sessionId = session.get();
+		Connection connection = connections[(int) (sessionId % connections.length)];
+		byte[] response = connection.call(requestId, frame);
+		bytesSent.addAndGet(frame.length);
+		bytesReceived.addAndGet(response.length + WireProtocol.HEADER_SIZE);
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(response));
+			in.readLong();
+			if (in.readByte() == WireProtocol.ERROR) {
+				throw new IllegalStateException("Remote: " + WireProtocol.readString(in));
+			}
+			return in;
+		} catch (IOException e) {
+			throw new RuntimeException("Malformed response.", e);
+		}
+	}
+
+	private static long readRequestId(byte[] frame) {
+		long id = 0;
+		for (int i = 0; i < 8; i++) {
+			id = (id << 8) | (frame[WireProtocol.HEADER_SIZE + i] & 0xff);
+		}
+		return id;
+	}
+
+	private WireProtocol.FrameOutput request(WireProtocol.Operation operation) {
+		WireProtocol.FrameOutput out = new WireProtocol.FrameOutput();
+		try {
+			out.writeLong(requestIds.incrementAndGet());
+			out.writeLong(session.get());
+			out.writeByte(operation.ordinal());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return out;
+	}
+
+	@Override
+	public void register(String tableName, List<FieldDefinition> fields) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.REGISTER);
+		try {
+			WireProtocol.writeString(out, tableName);
+			WireProtocol.writeFields(out, fields);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		call(out);
+	}
+
+	@Override
+	public void cleanup(String tableName) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.CLEANUP);
+		try {
+			WireProtocol.writeString(out, tableName);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		call(out);
+	}
+
+	@Override
+	public void finish() {
+	}
+
+	/**
+	 * Server's statistics of the table, followed by requests and bytes sent and received by this client.
+	 */
+	@Override
+	public Map<String, Long> getStats(String tableName) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.STATS);
+		try {
+			WireProtocol.writeString(out, tableName);
+			Map<String, Long> stats = WireProtocol.readLongs(call(out));
+			stats.put("client.requests", requestIds.get());
+			stats.put("client.bytes.sent", bytesSent.get());
+			stats.put("client.bytes.received", bytesReceived.get());
+			return stats;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void startBulkLoad() {
+		call(request(WireProtocol.Operation.START_BULK_LOAD));
+	}
+
+	@Override
+	public void endBulkLoad() {
+		call(request(WireProtocol.Operation.END_BULK_LOAD));
+	}
+
+	@Override
+	public void startTransaction() {
+		call(request(WireProtocol.Operation.START_TRANSACTION));
+	}
+
+	@Override
+	public void commitTransaction() {
+		call(request(WireProtocol.Operation.COMMIT));
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		call(request(WireProtocol.Operation.ROLLBACK));
+	}
+
+	@Override
+	public boolean supportsClientKeys() {
+		return true;
+	}
+
+	@Override
+	public String createKey(String tableName) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.CREATE_KEY);
+		try {
+			WireProtocol.writeString(out, tableName);
+			return WireProtocol.readString(call(out));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public String insert(String tableName, Map<String, Object> fields) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.INSERT);
+		try {
+			WireProtocol.writeString(out, tableName);
+			WireProtocol.writeRecord(out, fields);
+			return WireProtocol.readString(call(out));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Map<String, Object> get(String key) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.GET);
+		try {
+			WireProtocol.writeString(out, key);
+			return WireProtocol.readRecord(call(out));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void put(String tableName, String key, Map<String, Object> fields) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.PUT);
+		try {
+			WireProtocol.writeString(out, tableName);
+			WireProtocol.writeString(out, key);
+			WireProtocol.writeRecord(out, fields);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		call(out);
+	}
+
+	@Override
+	public void delete(String tableName, String key) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.DELETE);
+		try {
+			WireProtocol.writeString(out, tableName);
+			WireProtocol.writeString(out, key);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		call(out);
+	}
+
+	@Override
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.PATCH);
+		try {
+			WireProtocol.writeString(out, tableName);
+			WireProtocol.writeString(out, key);
+			WireProtocol.writeRecord(out, set);
+			WireProtocol.writeStrings(out, unset);
+			return call(out).readBoolean();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.INCREMENT);
+		try {
+			WireProtocol.writeString(out, tableName);
+			WireProtocol.writeString(out, key);
+			WireProtocol.writeLongs(out, deltas);
+			return WireProtocol.readLongs(call(out));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Map<String, Map<String, Object>> querySimple(String tableName, List<QueryPredicate> predicates, int skip, int limit) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.QUERY);
+		try {
+			WireProtocol.writeString(out, tableName);
+			WireProtocol.writePredicates(out, predicates);
+			out.writeInt(skip);
+			out.writeInt(limit);
+			return WireProtocol.readRecords(call(out));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Page queryPage(String tableName, List<QueryPredicate> predicates, String sortField, int limit, String continuation) {
+		WireProtocol.FrameOutput out = request(WireProtocol.Operation.QUERY_PAGE);
+		try {
+			WireProtocol.writeString(out, tableName);
+			WireProtocol.writePredicates(out, predicates);
+			WireProtocol.writeString(out, sortField);
+			out.writeInt(limit);
+			WireProtocol.writeString(out, continuation);
+			DataInputStream in = call(out);
+			Map<String, Map<String, Object>> records = WireProtocol.readRecords(in);
+			return new Page(records, WireProtocol.readString(in));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * A connection shared by many client threads. Writes are serialized, a reader thread hands each response to
+	 * the thread waiting for it.
+	 */
+	private static class Connection implements Runnable {
+
+		private final SocketChannel channel;
+		private final long timeoutMillis;
+		private final ConcurrentHashMap<Long, Response> pending = new ConcurrentHashMap<>();
+		private volatile IOException failure;
+
+		Connection(InetSocketAddress address, int n, long timeoutMillis) throws IOException {
+			this.timeoutMillis = timeoutMillis;
+			channel = SocketChannel.open(address);
+			channel.socket().setTcpNoDelay(true);
+			Thread reader = new Thread(this, "remote-client-reader-" + n);
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		byte[] call(long requestId, byte[] frame) {
+			Response response = new Response();
+			pending.put(requestId, response);
+			if (failure != null) {
+				pending.remove(requestId);
+				throw new RuntimeException("Connection failed.", failure);
+			}
+			try {
+				synchronized (this) {
+					ByteBuffer buffer = ByteBuffer.wrap(frame);
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				}
+			} catch (IOException e) {
+				pending.remove(requestId);
+				throw new RuntimeException("Could not send request.", e);
+			}
+			try {
+				return response.await(this, timeoutMillis);
+			} finally {
+				pending.remove(requestId);
+			}
+		}
+
+		/**
+		 * Closes the channel, which ends the reader thread and fails pending requests.
+		 */
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+
+		@Override
+		public void run() {
+			ByteBuffer header = ByteBuffer.allocate(WireProtocol.HEADER_SIZE + 8);
+			try {
+				while (true) {
+					header.clear();
+					readFully(header);
+					int length = header.getInt(0);
+					long requestId = header.getLong(WireProtocol.HEADER_SIZE);
+					ByteBuffer body = ByteBuffer.allocate(length);
+					body.putLong(requestId);
+					readFully(body);
+					Response response = pending.remove(requestId);
+					if (response != null) {
+						response.complete(body.array());
+					}
+				}
+			} catch (IOException e) {
+				failure = e;
+				for (Response response : pending.values()) {
+					response.complete(null);
+				}
+			}
+		}
+
+		private void readFully(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("Remote server closed the connection.");
+				}
+			}
+		}
+	}
+
+	private static class Response {
+		private byte[] bytes;
+		private boolean done;
+
+		synchronized void complete(byte[] bytes) {
+			this.bytes = bytes;
+			done = true;
+			notifyAll();
+		}
+
+		synchronized byte[] await(Connection connection, long timeoutMillis) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			while (!done) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					throw new IllegalStateException("No response within " + timeoutMillis + "ms.");
+				}
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting for a response.", e);
+				}
+			}
+			if (bytes == null) {
+				throw new RuntimeException("Connection failed.", connection.failure);
+			}
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package net.nosql_bench;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves a {@link TestDatabase} over {@link WireProtocol} on a local port, so {@link RemoteDatabase} can measure
+ * serialization, system calls and connection handling on top of the storage engine.
+ * <p/>
+ * A selector thread accepts connections, reads request frames and writes response frames. Requests are executed
+ * by a pool of worker threads, so requests pipelined on one connection, or sent on several, run in parallel.
+ * TestDatabase keeps a transaction per thread; the server keeps it per client session instead and hands it to
+ * whichever worker executes the session's next request.
+ * <p/>
+ * Run standalone with: RemoteServer port [db_properties_path]
+ */
+public class RemoteServer implements Runnable {
+
+	private final TestDatabase db;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final ExecutorService workers;
+
+	// connections with responses to write, registered for OP_WRITE by the selector thread
+	private final ConcurrentLinkedQueue<Connection> writable = new ConcurrentLinkedQueue<>();
+	private final ConcurrentHashMap<Long, Map<TestDatabase.Key, TestDatabase.Transaction>> sessions = new ConcurrentHashMap<>();
+
+	private final AtomicLong requests = new AtomicLong(0);
+	private final AtomicInteger connections = new AtomicInteger(0);
+	private volatile boolean running = true;
+
+	/**
+	 * @param port Port to listen on, 0 for any free port.
+	 */
+	public RemoteServer(Properties props, int port, int workerCount) throws IOException {
+		db = new TestDatabase();
+		db.init(props);
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress("127.0.0.1", port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "remote-server-worker-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Starts the selector thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "remote-server-selector");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				Connection connection;
+				while ((connection = writable.poll()) != null) {
+					if (connection.key.isValid()) {
+						connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isAcceptable()) {
+							accept();
+						} else {
+							if (key.isReadable()) {
+								((Connection) key.attachment()).read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								((Connection) key.attachment()).write();
+							}
+						}
+					} catch (IOException | CancelledKeyException e) {
+						close(key);
+					}
+				}
+			}
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			selector.close();
+			serverChannel.close();
+			workers.shutdown();
+		} catch (IOException e) {
+			throw new RuntimeException("Remote server failed.", e);
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		connections.incrementAndGet();
+	}
+
+	private void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		if (key.attachment() instanceof Connection) {
+			((Connection) key.attachment()).dropSessions();
+			connections.decrementAndGet();
+		}
+	}
+
+	private class Connection {
+		final SocketChannel channel;
+		SelectionKey key;
+		ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+		final ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+		// sessions that sent requests on this connection
+		final Set<Long> connectionSessions = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Ends the transactions of this connection's sessions.
+		 */
+		void dropSessions() {
+			for (Long session : connectionSessions) {
+				sessions.remove(session);
+			}
+			connectionSessions.clear();
+		}
+
+		/**
+		 * Reads what is available and submits every complete request frame.
+		 */
+		void read() throws IOException {
+			if (channel.read(in) < 0) {
+				throw new EOFException();
+			}
+			in.flip();
+			while (in.remaining() >= WireProtocol.HEADER_SIZE) {
+				int length = in.getInt(in.position());
+				if (length < 0 || length > WireProtocol.MAX_FRAME) {
+					throw new IOException("Invalid frame length: " + length);
+				}
+				if (in.remaining() < WireProtocol.HEADER_SIZE + length) {
+					break;
+				}
+				final byte[] frame = new byte[length];
+				in.position(in.position() + WireProtocol.HEADER_SIZE);
+				in.get(frame);
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						respond(frame);
+					}
+				});
+			}
+			in.compact();
+			if (!in.hasRemaining()) {
+				ByteBuffer grown = ByteBuffer.allocate(in.capacity() * 2);
+				in.flip();
+				grown.put(in);
+				in = grown;
+			}
+		}
+
+		void send(byte[] response) {
+			out.offer(ByteBuffer.wrap(response));
+			writable.offer(this);
+			selector.wakeup();
+		}
+
+		void write() throws IOException {
+			ByteBuffer buffer;
+			while ((buffer = out.peek()) != null) {
+				channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					return;
+				}
+				out.poll();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			// a response queued after the queue was found empty registers the connection again
+		}
+
+		/**
+		 * Executes a request and always sends a response, an ERROR if the request is malformed or fails, so the
+		 * client never waits for a response that does not come.
+		 */
+		private void respond(byte[] frame) {
+			long requestId = -1;
+			byte[] response;
+			try {
+				DataInputStream request = new DataInputStream(new ByteArrayInputStream(frame));
+				requestId = request.readLong();
+				long session = request.readLong();
+				int ordinal = request.readByte();
+				if (ordinal < 0 || ordinal >= WireProtocol.Operation.values().length) {
+					throw new IOException("Unknown operation: " + ordinal);
+				}
+				WireProtocol.Operation operation = WireProtocol.Operation.values()[ordinal];
+				connectionSessions.add(session);
+				// the session's transaction, if it has one, becomes this worker's
+				db.setTransaction(sessions.get(session));
+				try {
+					ByteArrayOutputStream result = new ByteArrayOutputStream();
+					execute(this, operation, request, new DataOutputStream(result));
+					WireProtocol.FrameOutput ok = new WireProtocol.FrameOutput();
+					ok.writeLong(requestId);
+					ok.writeByte(WireProtocol.OK);
+					ok.write(result.toByteArray());
+					response = ok.toByteArray();
+				} finally {
+					Map<TestDatabase.Key, TestDatabase.Transaction> transaction = db.getTransaction();
+					if (transaction != null) {
+						sessions.put(session, transaction);
+					} else {
+						sessions.remove(session);
+					}
+					db.setTransaction(null);
+				}
+			} catch (IOException | RuntimeException e) {
+				response = error(requestId, e);
+			}
+			requests.incrementAndGet();
+			send(response);
+		}
+	}
+
+	private static byte[] error(long requestId, Exception e) {
+		WireProtocol.FrameOutput response = new WireProtocol.FrameOutput();
+		try {
+			response.writeLong(requestId);
+			response.writeByte(WireProtocol.ERROR);
+			WireProtocol.writeString(response, e.getClass().getSimpleName() + ": " + e.getMessage());
+		} catch (IOException ioe) {
+			throw new IllegalStateException(ioe);
+		}
+		return response.toByteArray();
+	}
+
+	private void execute(Connection connection, WireProtocol.Operation operation, DataInputStream in, DataOutputStream out) throws IOException {
+		switch (operation) {
+			case REGISTER:
+				db.register(WireProtocol.readString(in), WireProtocol.readFields(in));
+				break;
+			case CLEANUP:
+				db.cleanup(WireProtocol.readString(in));
+				// transactions of other connections are theirs to end
+				connection.dropSessions();
+				break;
+			case STATS:
+				Map<String, Long> stats = db.getStats(WireProtocol.readString(in));
+				stats.put("server.requests", requests.get());
+				stats.put("server.connections", (long) connections.get());
+				WireProtocol.writeLongs(out, stats);
+				break;
+			case START_BULK_LOAD:
+				db.startBulkLoad();
+				break;
+			case END_BULK_LOAD:
+				db.endBulkLoad();
+				break;
+			case START_TRANSACTION:
+				db.startTransaction();
+				break;
+			case COMMIT:
+				db.commitTransaction();
+				break;
+			case ROLLBACK:
+				db.rollbackTransaction();
+				break;
+			case INSERT:
+				WireProtocol.writeString(out, db.insert(WireProtocol.readString(in), WireProtocol.readRecord(in)));
+				break;
+			case GET:
+				WireProtocol.writeRecord(out, db.get(WireProtocol.readString(in)));
+				break;
+			case PUT:
+				db.put(WireProtocol.readString(in), WireProtocol.readString(in), WireProtocol.readRecord(in));
+				break;
+			case DELETE:
+				db.delete(WireProtocol.readString(in), WireProtocol.readString(in));
+				break;
+			case PATCH:
+				out.writeBoolean(db.patch(WireProtocol.readString(in), WireProtocol.readString(in),
+						WireProtocol.readRecord(in), WireProtocol.readStrings(in)));
+				break;
+			case INCREMENT:
+				String tableName = WireProtocol.readString(in);
+				String key = WireProtocol.readString(in);
+				WireProtocol.writeLongs(out, db.increment(tableName, key, WireProtocol.readLongs(in)));
+				break;
+			case QUERY:
+				WireProtocol.writeRecords(out, db.querySimple(WireProtocol.readString(in), WireProtocol.readPredicates(in),
+						in.readInt(), in.readInt()));
+				break;
+			case QUERY_PAGE:
+				Page page = db.queryPage(WireProtocol.readString(in), WireProtocol.readPredicates(in),
+						WireProtocol.readString(in), in.readInt(), WireProtocol.readString(in));
+				WireProtocol.writeRecords(out, page.records);
+				WireProtocol.writeString(out, page.continuation);
+				break;
+			case CREATE_KEY:
+				WireProtocol.writeString(out, db.createKey(WireProtocol.readString(in)));
+				break;
+			default:
+				throw new IllegalStateException("Unknown operation: " + operation);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Wrong arguments, must be: port [db_properties_path]");
+			return;
+		}
+		Properties props = new Properties();
+		if (args.length > 1) {
+			try (InputStream in = new FileInputStream(args[1])) {
+				props.load(in);
+			}
+		}
+		int workers = PropsUtil.expandInt(props.getProperty("remote.server.workers", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		RemoteServer server = new RemoteServer(props, Integer.valueOf(args[0]), workers);
+		System.out.println("Remote server: port=" + server.getPort() + " workers=" + workers);
+		server.run();
+	}
+}
@@ -0,0 +1,351 @@
+package net.nosql_bench;
+
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for a primary with asynchronous read replicas: a primary {@link TestDatabase} takes all writes
+ * and streams every committed write set to 'replication.replicas' replica TestDatabases. Each replica has a thread
+ * applying write sets in commit order, 'replication.delay' microseconds after their commit at the earliest, which
+ * simulates shipping them over the network. Commits do not wait for replicas.
+ * <p/>
+ * Reads outside of transactions are routed by 'replication.reads':
+ * <ul>
+ * <li>primary - all reads go to the primary</li>
+ * <li>round-robin - reads go to the replicas in turn</li>
+ * <li>least-loaded - reads go to the replica with the fewest reads in progress</li>
+ * </ul>
+ * A read from a replica may miss writes that were already committed, stats report how far behind replicas were.
+ * Transactions run on the primary only. {@link #flush()} waits for the replicas to apply all committed write sets.
+ * <p/>
+ * Other properties are passed to the primary and the replicas, e.g. to inject latency.
+ */
+public class ReplicatedDatabase extends Database {
+
+	public enum ReadRouting {PRIMARY, ROUND_ROBIN, LEAST_LOADED}
+
+	private TestDatabase primary;
+	private Replica[] replicas;
+	private ReadRouting routing;
+	private long delayNanos;
+
+	private final AtomicLong nextReplica = new AtomicLong(0);
+	private final ThreadLocal<Boolean> transaction = new ThreadLocal<>();
+
+	// write sets committed by the primary, assigned while it is locked
+	private volatile long committed;
+
+	// statistics, reset by init
+	private AtomicLong primaryReads;
+	private AtomicLongArray replicaReads;
+	private AtomicLongArray staleReads;
+	private AtomicIntegerArray inProgress;
+	// time from commit to apply on a replica, guarded by itself
+	private LatencyHistogram lag;
+
+	private static class WriteSet {
+		final List<TestDatabase.Entity> entities;
+		final long sequence;
+		final long commitNanos;
+
+		WriteSet(List<TestDatabase.Entity> entities, long sequence, long commitNanos) {
+			this.entities = entities;
+			this.sequence = sequence;
+			this.commitNanos = commitNanos;
+		}
+	}
+
+	private class Replica implements Runnable {
+		final TestDatabase db = new TestDatabase();
+		final LinkedBlockingQueue<WriteSet> queue = new LinkedBlockingQueue<>();
+		volatile long applied;
+		volatile boolean running = true;
+		long maxBacklog;
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					WriteSet writeSet = queue.take();
+					// parkNanos may return early
+					for (long remaining = writeSet.commitNanos + delayNanos - System.nanoTime(); remaining > 0;
+						 remaining = writeSet.commitNanos + delayNanos - System.nanoTime()) {
+						LockSupport.parkNanos(remaining);
+					}
+					db.applyWriteSet(writeSet.entities);
+					applied = writeSet.sequence;
+					long nanos = System.nanoTime() - writeSet.commitNanos;
+					synchronized (lag) {
+						lag.record(nanos);
+					}
+				}
+			} catch (InterruptedException e) {
+				// stopped by init
+			}
+		}
+	}
+
+	@Override
+	public void init(Properties props) {
+		this.properties = props;
+		int count = PropsUtil.expandInt(props.getProperty("replication.replicas", "2"));
+		delayNanos = TimeUnit.MICROSECONDS.toNanos(PropsUtil.expandInt(props.getProperty("replication.delay", "0")));
+		String reads = props.getProperty("replication.reads", "round-robin");
+		try {
+			routing = ReadRouting.valueOf(reads.toUpperCase().replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown replication.reads: " + reads);
+		}
+
+		stopReplicas();
+		primary = new TestDatabase();
+		primary.init(props);
+		committed = 0;
+		replicas = new Replica[count];
+		for (int i = 0; i < count; i++) {
+			replicas[i] = new Replica();
+			replicas[i].db.init(props);
+			Thread thread = new Thread(replicas[i], "replica-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		primary.setCommitListener(new TestDatabase.CommitListener() {
+			@Override
+			public void committed(List<TestDatabase.Entity> entities) {
+				WriteSet writeSet = new WriteSet(entities, committed + 1, System.nanoTime());
+				for (Replica replica : replicas) {
+					replica.queue.offer(writeSet);
+				}
+				committed = writeSet.sequence;
+			}
+		});
+
+		primaryReads = new AtomicLong(0);
+		replicaReads = new AtomicLongArray(count);
+		staleReads = new AtomicLongArray(count);
+		inProgress = new AtomicIntegerArray(count);
+		lag = new LatencyHistogram();
+	}
+
+	private void stopReplicas() {
+		if (replicas == null) {
+			return;
+		}
+		for (Replica replica : replicas) {
+			replica.running = false;
+			// an empty write set wakes up an idle replica
+			replica.queue.offer(new WriteSet(Collections.<TestDatabase.Entity>emptyList(), replica.applied, System.nanoTime()));
+		}
+	}
+
+	public int getReplicaCount() {
+		return replicas.length;
+	}
+
+	/**
+	 * @return Index of the replica to read from, or -1 for the primary.
+	 */
+	private int route() {
+		if (replicas.length == 0 || routing == ReadRouting.PRIMARY || transaction.get() != null) {
+			return -1;
+		}
+		int first = (int) (nextReplica.getAndIncrement() % replicas.length);
+		if (routing == ReadRouting.ROUND_ROBIN) {
+			return first;
+		}
+		// least loaded, ties go to the next replica in turn
+		int best = first;
+		for (int i = 1; i < replicas.length; i++) {
+			int replica = (first + i) % replicas.length;
+			if (inProgress.get(replica) < inProgress.get(best)) {
+				best = replica;
+			}
+		}
+		return best;
+	}
+
+	private TestDatabase startRead(int replica) {
+		if (replica < 0) {
+			primaryReads.incrementAndGet();
+			return primary;
+		}
+		inProgress.incrementAndGet(replica);
+		replicaReads.incrementAndGet(replica);
+		if (replicas[replica].applied < committed) {
+			staleReads.incrementAndGet(replica);
+		}
+		return replicas[replica].db;
+	}
+
+	private void endRead(int replica) {
+		if (replica >= 0) {
+			inProgress.decrementAndGet(replica);
+			long backlog = replicas[replica].queue.size();
+			if (backlog > replicas[replica].maxBacklog) {
+				// a lost update only loses a sample
+				replicas[replica].maxBacklog = backlog;
+			}
+		}
+	}
+
+	@Override
+	public void register(String tableName, List<FieldDefinition> fields) {
+		primary.register(tableName, fields);
+		for (Replica replica : replicas) {
+			replica.db.register(tableName, fields);
+		}
+	}
+
+	/**
+	 * Waits for the replicas to apply pending write sets, then cleans up all copies.
+	 */
+	@Override
+	public void cleanup(String tableName) {
+		flush();
+		primary.cleanup(tableName);
+		for (Replica replica : replicas) {
+			replica.db.cleanup(tableName);
+		}
+	}
+
+	@Override
+	public void finish() {
+	}
+
+	@Override
+	public void flush() {
+		long target = committed;
+		for (Replica replica : replicas) {
+			while (replica.applied < target) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+			}
+		}
+	}
+
+	@Override
+	public void startBulkLoad() {
+		primary.startBulkLoad();
+		for (Replica replica : replicas) {
+			replica.db.startBulkLoad();
+		}
+	}
+
+	@Override
+	public void endBulkLoad() {
+		primary.endBulkLoad();
+		for (Replica replica : replicas) {
+			replica.db.endBulkLoad();
+		}
+	}
+
+	/**
+	 * Primary's stats, then write sets committed, replication lag percentiles, reads served by the primary and per
+	 * replica: reads, reads served while behind the primary, and the largest backlog of write sets seen by a read.
+	 */
+	@Override
+	public Map<String, Long> getStats(String tableName) {
+		Map<String, Long> stats = new LinkedHashMap<>(primary.getStats(tableName));
+		stats.put("replication.writesets", committed);
+		synchronized (lag) {
+			stats.put("replication.lag.p50.micros", lag.getPercentile(50) / 1000);
+			stats.put("replication.lag.p99.micros", lag.getPercentile(99) / 1000);
+			stats.put("replication.lag.p999.micros", lag.getPercentile(99.9) / 1000);
+			stats.put("replication.lag.max.micros", lag.getMax() / 1000);
+		}
+		stats.put("primary.reads", primaryReads.get());
+		for (int i = 0; i < replicas.length; i++) {
+			stats.put("replica." + i + ".reads", replicaReads.get(i));
+			stats.put("replica." + i + ".stale.reads", staleReads.get(i));
+			stats.put("replica." + i + ".backlog.max", replicas[i].maxBacklog);
+		}
+		return stats;
+	}
+
+	@Override
+	public void startTransaction() {
+		primary.startTransaction();
+		transaction.set(Boolean.TRUE);
+	}
+
+	@Override
+	public void commitTransaction() {
+		transaction.remove();
+		primary.commitTransaction();
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		transaction.remove();
+		primary.rollbackTransaction();
+	}
+
+	@Override
+	public boolean supportsClientKeys() {
+		return true;
+	}
+
+	@Override
+	public String createKey(String tableName) {
+		return primary.createKey(tableName);
+	}
+
+	@Override
+	public String insert(String tableName, Map<String, Object> fields) {
+		return primary.insert(tableName, fields);
+	}
+
+	@Override
+	public Map<String, Object> get(String key) {
+		int replica = route();
+		try {
+			return startRead(replica).get(key);
+		} finally {
+			endRead(replica);
+		}
+	}
+
+	@Override
+	public void put(String tableName, String key, Map<String, Object> fields) {
+		primary.put(tableName, key, fields);
+	}
+
+	@Override
+	public void delete(String tableName, String key) {
+		primary.delete(tableName, key);
+	}
+
+	@Override
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		return primary.patch(tableName, key, set, unset);
+	}
+
+	@Override
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		return primary.increment(tableName, key, deltas);
+	}
+
+	@Override
+	public Map<String, Map<String, Object>> querySimple(String tableName, List<QueryPredicate> predicates, int skip, int limit) {
+		int replica = route();
+		try {
+			return startRead(replica).querySimple(tableName, predicates, skip, limit);
+		} finally {
+			endRead(replica);
+		}
+	}
+
+	@Override
+	public Page queryPage(String tableName, List<QueryPredicate> predicates, String sortField, int limit, String continuation) {
+		int replica = route();
+		try {
+			return startRead(replica).queryPage(tableName, predicates, sortField, limit, continuation);
+		} finally {
+			endRead(replica);
+		}
+	}
+}
@@ -0,0 +1,435 @@
+package net.nosql_bench;
+
+import net.nosql_bench.cache.SizeEstimator;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for a database cluster: 'shard.count' {@link TestDatabase} shards, with records partitioned by
+ * the hash of their key, behind a simulated network. Every request to a shard waits for a round trip of two hops,
+ * each costing 'shard.latency' microseconds plus the transfer time of the estimated request or response size at
+ * 'shard.bandwidth' MB/s.
+ * <p/>
+ * Gets and writes go to the record's shard. Queries are sent to all shards in parallel and their results merged.
+ * A transaction starts a transaction on each shard it touches. If that is one shard it commits in one round trip,
+ * otherwise with a two-phase commit: all shards prepare, locking the written records, and only if all succeed do
+ * they commit, which costs a second round trip and holds locks in between.
+ * <p/>
+ * Other properties are passed to the shards, e.g. to inject latency.
+ * <ul>
+ * <li>shard.count - number of shards (default 4)</li>
+ * <li>shard.latency - one way network latency in microseconds, 0 for none (default 100)</li>
+ * <li>shard.bandwidth - network bandwidth in MB/s, 0 for unlimited (default 1000)</li>
+ * </ul>
+ */
+public class ShardedDatabase extends Database {
+
+	private TestDatabase[] shards;
+	private long hopNanos;
+	private long bandwidth;
+	private ExecutorService executor;
+
+	private final AtomicLong keyCounter = new AtomicLong(0);
+	private final ThreadLocal<Set<Integer>> transactionShards = new ThreadLocal<>();
+
+	// statistics, reset by init
+	private AtomicLongArray requests;
+	private AtomicLong singleShardCommits;
+	private AtomicLong crossShardCommits;
+	private AtomicLong prepareFailures;
+	// commit latencies, guarded by themselves
+	private LatencyHistogram singleShardCommitLatency;
+	private LatencyHistogram crossShardCommitLatency;
+
+	@Override
+	public void init(Properties props) {
+		this.properties = props;
+		int count = PropsUtil.expandInt(props.getProperty("shard.count", "4"));
+		hopNanos = TimeUnit.MICROSECONDS.toNanos(PropsUtil.expandInt(props.getProperty("shard.latency", "100")));
+		bandwidth = PropsUtil.expandInt(props.getProperty("shard.bandwidth", "1000")) * 1000000L;
+
+		shards = new TestDatabase[count];
+		for (int i = 0; i < count; i++) {
+			shards[i] = new TestDatabase();
+			shards[i].init(props);
+		}
+		requests = new AtomicLongArray(count);
+		singleShardCommits = new AtomicLong(0);
+		crossShardCommits = new AtomicLong(0);
+		prepareFailures = new AtomicLong(0);
+		singleShardCommitLatency = new LatencyHistogram();
+		crossShardCommitLatency = new LatencyHistogram();
+
+		if (executor != null) {
+			executor.shutdown();
+		}
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "shard-request-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @return Index of the shard holding given key.
+	 */
+	public int shardOf(String key) {
+		int hash = key.hashCode();
+		return ((hash ^ (hash >>> 16)) & 0x7fffffff) % shards.length;
+	}
+
+	/**
+	 * Waits for a request to a shard and its response to cross the simulated network.
+	 */
+	private void roundTrip(int shard, long requestBytes, long responseBytes) {
+		requests.incrementAndGet(shard);
+		transfer(requestBytes, responseBytes);
+	}
+
+	/**
+	 * Waits for one round trip to all given shards, which are contacted in parallel.
+	 */
+	private void roundTrip(Collection<Integer> shardIndexes, long requestBytes, long responseBytes) {
+		for (int shard : shardIndexes) {
+			requests.incrementAndGet(shard);
+		}
+		transfer(requestBytes, responseBytes);
+	}
+
+	private void transfer(long requestBytes, long responseBytes) {
+		long nanos = 2 * hopNanos;
+		if (bandwidth > 0) {
+			nanos += (requestBytes + responseBytes) * 1000000000L / bandwidth;
+		}
+		long deadline = System.nanoTime() + nanos;
+		// parkNanos may return early
+		for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+			LockSupport.parkNanos(remaining);
+		}
+	}
+
+	/**
+	 * @return The shard of the key, having started a transaction on it if the current thread is in a transaction.
+	 */
+	private TestDatabase shard(String key) {
+		int shard = shardOf(key);
+		Set<Integer> touched = transactionShards.get();
+		if (touched != null && touched.add(shard)) {
+			shards[shard].startTransaction();
+		}
+		return shards[shard];
+	}
+
+	@Override
+	public void register(String tableName, List<FieldDefinition> fields) {
+		for (int i = 0; i < shards.length; i++) {
+			roundTrip(i, 0, 0);
+			shards[i].register(tableName, fields);
+		}
+	}
+
+	@Override
+	public void cleanup(String tableName) {
+		for (int i = 0; i < shards.length; i++) {
+			roundTrip(i, 0, 0);
+			shards[i].cleanup(tableName);
+		}
+	}
+
+	@Override
+	public void finish() {
+	}
+
+	@Override
+	public void startBulkLoad() {
+		for (TestDatabase shard : shards) {
+			shard.startBulkLoad();
+		}
+	}
+
+	@Override
+	public void endBulkLoad() {
+		for (TestDatabase shard : shards) {
+			shard.endBulkLoad();
+		}
+	}
+
+	/**
+	 * Records summed over all shards, then per shard: records and requests, then commits of single and cross-shard
+	 * transactions with their latency percentiles, and failed prepares of two-phase commits.
+	 */
+	@Override
+	public Map<String, Long> getStats(String tableName) {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		long records = 0;
+		for (int i = 0; i < shards.length; i++) {
+			long shardRecords = shards[i].getStats(tableName).get("records");
+			records += shardRecords;
+			stats.put("shard." + i + ".records", shardRecords);
+			stats.put("shard." + i + ".requests", requests.get(i));
+		}
+		stats.put("records", records);
+		stats.put("commits.single", singleShardCommits.get());
+		stats.put("commits.cross", crossShardCommits.get());
+		stats.put("prepare.failures", prepareFailures.get());
+		synchronized (singleShardCommitLatency) {
+			stats.put("commit.single.p50.micros", singleShardCommitLatency.getPercentile(50) / 1000);
+			stats.put("commit.single.p99.micros", singleShardCommitLatency.getPercentile(99) / 1000);
+		}
+		synchronized (crossShardCommitLatency) {
+			stats.put("commit.cross.p50.micros", crossShardCommitLatency.getPercentile(50) / 1000);
+			stats.put("commit.cross.p99.micros", crossShardCommitLatency.getPercentile(99) / 1000);
+		}
+		return stats;
+	}
+
+	@Override
+	public void startTransaction() {
+		if (transactionShards.get() != null) {
+			throw new IllegalStateException("Transaction already started");
+		}
+		// shard transactions are started by the first request to each shard
+		transactionShards.set(new LinkedHashSet<Integer>());
+	}
+
+	@Override
+	public void commitTransaction() {
+		Set<Integer> touched = transactionShards.get();
+		transactionShards.remove();
+		if (touched == null || touched.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		if (touched.size() == 1) {
+			int shard = touched.iterator().next();
+			roundTrip(shard, 0, 0);
+			try {
+				shards[shard].commitTransaction();
+			} catch (RuntimeException e) {
+				shards[shard].rollbackTransaction();
+				throw e;
+			}
+			singleShardCommits.incrementAndGet();
+			synchronized (singleShardCommitLatency) {
+				singleShardCommitLatency.record(System.nanoTime() - start);
+			}
+			return;
+		}
+
+		// phase one, shards prepare in parallel: one round trip
+		roundTrip(touched, 0, 0);
+		List<Integer> prepared = new ArrayList<>(touched.size());
+		boolean failed = false;
+		for (int shard : touched) {
+			if (failed) {
+				shards[shard].rollbackTransaction();
+			} else if (shards[shard].prepareTransaction()) {
+				prepared.add(shard);
+			} else {
+				// the shard rolled back its transaction
+				failed = true;
+			}
+		}
+
+		// phase two, commit or abort: another round trip
+		roundTrip(touched, 0, 0);
+		if (failed) {
+			for (int shard : prepared) {
+				shards[shard].abortPreparedTransaction();
+			}
+			prepareFailures.incrementAndGet();
+			throw new IllegalStateException("Two-phase commit aborted: a shard failed to prepare.");
+		}
+		for (int shard : prepared) {
+			shards[shard].commitPreparedTransaction();
+		}
+		crossShardCommits.incrementAndGet();
+		synchronized (crossShardCommitLatency) {
+			crossShardCommitLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		Set<Integer> touched = transactionShards.get();
+		transactionShards.remove();
+		if (touched != null) {
+			for (int shard : touched) {
+				shards[shard].rollbackTransaction();
+			}
+		}
+	}
+
+	@Override
+	public boolean supportsClientKeys() {
+		return true;
+	}
+
+	@Override
+	public String createKey(String tableName) {
+		return tableName + ":" + keyCounter.incrementAndGet();
+	}
+
+	@Override
+	public String insert(String tableName, Map<String, Object> fields) {
+		String key = createKey(tableName);
+		put(tableName, key, fields);
+		return key;
+	}
+
+	@Override
+	public Map<String, Object> get(String key) {
+		TestDatabase shard = shard(key);
+		Map<String, Object> fields = shard.get(key);
+		roundTrip(shardOf(key), SizeEstimator.string(key), SizeEstimator.record(key, fields));
+		return fields;
+	}
+
+	@Override
+	public void put(String tableName, String key, Map<String, Object> fields) {
+		roundTrip(shardOf(key), SizeEstimator.record(key, fields), 0);
+		shard(key).put(tableName, key, fields);
+	}
+
+	@Override
+	public void delete(String tableName, String key) {
+		roundTrip(shardOf(key), SizeEstimator.string(key), 0);
+		shard(key).delete(tableName, key);
+	}
+
+	@Override
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		roundTrip(shardOf(key), SizeEstimator.record(key, set), 0);
+		return shard(key).patch(tableName, key, set, unset);
+	}
+
+	@Override
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		roundTrip(shardOf(key), SizeEstimator.string(key) + 32 * deltas.size(), 32 * deltas.size());
+		return shard(key).increment(tableName, key, deltas);
+	}
+
+	/**
+	 * Scatter-gather: every shard returns up to skip + limit records, skip and limit are applied to the merged results.
+	 */
+	@Override
+	public Map<String, Map<String, Object>> querySimple(final String tableName, final List<QueryPredicate> predicates, int skip, int limit) {
+		final int shardLimit = limit == 0 ? 0 : skip + limit;
+		List<Map<String, Map<String, Object>>> responses = scatter(new ShardRequest<Map<String, Map<String, Object>>>() {
+			@Override
+			public Map<String, Map<String, Object>> call(TestDatabase shard) {
+				return shard.querySimple(tableName, predicates, 0, shardLimit);
+			}
+
+			@Override
+			public Map<String, Map<String, Object>> records(Map<String, Map<String, Object>> response) {
+				return response;
+			}
+		});
+
+		Map<String, Map<String, Object>> results = new HashMap<>();
+		int skipped = 0;
+		for (Map<String, Map<String, Object>> response : responses) {
+			for (Map.Entry<String, Map<String, Object>> record : response.entrySet()) {
+				if (skipped < skip) {
+					skipped++;
+				} else if (limit == 0 || results.size() < limit) {
+					results.put(record.getKey(), record.getValue());
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Scatter-gather: every shard returns its next page, the pages are merged in sort order.
+	 */
+	@Override
+	public Page queryPage(final String tableName, final List<QueryPredicate> predicates, final String sortField, final int limit, final String continuation) {
+		List<Page> pages = scatter(new ShardRequest<Page>() {
+			@Override
+			public Page call(TestDatabase shard) {
+				return shard.queryPage(tableName, predicates, sortField, limit, continuation);
+			}
+
+			@Override
+			public Map<String, Map<String, Object>> records(Page response) {
+				return response.records;
+			}
+		});
+
+		TreeMap<Page.Cursor, Map.Entry<String, Map<String, Object>>> sorted = new TreeMap<>();
+		for (Page page : pages) {
+			for (Map.Entry<String, Map<String, Object>> record : page.records.entrySet()) {
+				sorted.put(new Page.Cursor(record.getValue().get(sortField), record.getKey()), record);
+			}
+		}
+		Map<String, Map<String, Object>> records = new LinkedHashMap<>();
+		Page.Cursor last = null;
+		for (Map.Entry<Page.Cursor, Map.Entry<String, Map<String, Object>>> entry : sorted.entrySet()) {
+			if (records.size() == limit) {
+				break;
+			}
+			records.put(entry.getValue().getKey(), entry.getValue().getValue());
+			last = entry.getKey();
+		}
+		return new Page(records, records.size() == limit && last != null ? last.encode() : null);
+	}
+
+	private interface ShardRequest<T> {
+		T call(TestDatabase shard);
+
+		// records of the response, to estimate its size
+		Map<String, Map<String, Object>> records(T response);
+	}
+
+	/**
+	 * Sends a request to all shards in parallel and waits for all responses.
+	 */
+	private <T> List<T> scatter(final ShardRequest<T> request) {
+		List<Future<T>> futures = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			final int shard = i;
+			futures.add(executor.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					T response = request.call(shards[shard]);
+					long bytes = 0;
+					for (Map.Entry<String, Map<String, Object>> record : request.records(response).entrySet()) {
+						bytes += SizeEstimator.record(record.getKey(), record.getValue());
+					}
+					roundTrip(shard, 64, bytes);
+					return response;
+				}
+			}));
+		}
+		List<T> responses = new ArrayList<>(shards.length);
+		try {
+			for (Future<T> future : futures) {
+				responses.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for shards.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return responses;
+	}
+}
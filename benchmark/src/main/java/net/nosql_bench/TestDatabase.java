@@ -1,6 +1,15 @@
 package net.nosql_bench;
 
+import net.nosql_bench.cache.BoundedCache;
+import net.nosql_bench.cache.SizeEstimator;
+import net.nosql_bench.generator.RandomStream;
+import net.nosql_bench.tier.SpillFile;
+import net.nosql_bench.tier.TieredMap;
+
+import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestDatabase extends Database {
@@ -9,7 +18,51 @@ public class TestDatabase extends Database {
 
 	private ThreadLocal<Map<Key, Transaction>> threadLocalTransaction = new ThreadLocal<>();
 
-	private Map<Key, Entity> db;
+	// records and indexes of each table, by table name
+	private Map<String, Partition> partitions = new HashMap<>();
+
+	// tiering of each partition, entities on heap are unbounded if 0
+	private int tierHeapEntries;
+	private BoundedCache.Policy tierPolicy;
+	private String tierSpillPath;
+
+	// latency injection: a request is slowed down with this probability, by a delay drawn from the distribution
+	private double slowProbability;
+	private long slowDelayMicros;
+	private String slowDistribution;
+	private volatile long latencySeed;
+	private final AtomicInteger randomStreams = new AtomicInteger(0);
+	private final ThreadLocal<RandomStream> random = new ThreadLocal<RandomStream>() {
+		@Override
+		protected RandomStream initialValue() {
+			return new RandomStream(RandomStream.seed(latencySeed, randomStreams.getAndIncrement()));
+		}
+	};
+
+	// entities written by transactions prepared for two-phase commit, locked until the transaction ends
+	private Set<Key> preparedKeys = new HashSet<>();
+
+	// in bulk load mode indexes are created by endBulkLoad()
+	private boolean bulkLoad;
+
+	// receives every committed write set, in commit order
+	private volatile CommitListener commitListener;
+
+	/**
+	 * Receives write sets as they are committed, e.g. to replicate them, see {@link ReplicatedDatabase}.
+	 */
+	interface CommitListener {
+
+		/**
+		 * Called while the database is locked, so write sets arrive in commit order. Entities are copies, those of
+		 * deleted entities have no fields.
+		 */
+		void committed(List<Entity> writeSet);
+	}
+
+	void setCommitListener(CommitListener listener) {
+		commitListener = listener;
+	}
 
 	/**
 	 * For test purposes only!
@@ -56,11 +109,117 @@ public class TestDatabase extends Database {
 		if (key.id == null) {
 			key = new Key(key.kind, createId());
 		}
-		threadLocalTransaction.get().put(key, new Transaction("delete", key));
+		Transaction delete = new Transaction("delete", key);
+		Transaction existing = threadLocalTransaction.get().get(key);
+		if (existing != null) {
+			delete.entity.version = existing.entity.version;
+		}
+		threadLocalTransaction.get().put(key, delete);
 	}
 
 	private synchronized Entity getEntity(Key key) {
-		return db.get(key);
+		return peek(key);
+	}
+
+	/**
+	 * Gets an entity that will not be changed in place, so a tiered store need not write it again. Stored entities
+	 * are never changed, writes store new ones, so callers may read the entity after releasing the lock.
+	 */
+	private Entity peek(Key key) {
+		Partition partition = partitions.get(key.kind);
+		if (partition == null) {
+			return null;
+		}
+		return partition.entities instanceof TieredMap ? ((TieredMap<Key, Entity>) partition.entities).read(key) : partition.entities.get(key);
+	}
+
+	/**
+	 * @return Partition of the table, created if the table was written to without being registered.
+	 */
+	private Partition partition(String tableName) {
+		Partition partition = partitions.get(tableName);
+		if (partition == null) {
+			partition = newPartition(tableName);
+			partitions.put(tableName, partition);
+		}
+		return partition;
+	}
+
+	private Partition newPartition(String tableName) {
+		if (tierHeapEntries <= 0) {
+			return new Partition(new HashMap<Key, Entity>(1000), null);
+		}
+		SpillFile spillFile = new SpillFile(Paths.get(tierSpillPath + "-" + tableName));
+		return new Partition(new TieredMap<>(tierHeapEntries, tierPolicy, spillFile, new EntityCodec()), spillFile);
+	}
+
+	private void store(Entity entity) {
+		Partition partition = partition(entity.key.kind);
+		Entity original = partition.entities.put(entity.key, entity);
+		if (original != null) {
+			unindex(partition, original);
+			partition.bytes -= size(original);
+		}
+		index(partition, entity);
+		partition.bytes += size(entity);
+	}
+
+	private void remove(Key key) {
+		Partition partition = partitions.get(key.kind);
+		Entity original = partition == null ? null : partition.entities.remove(key);
+		if (original != null) {
+			unindex(partition, original);
+			partition.bytes -= size(original);
+		}
+	}
+
+	private static long size(Entity entity) {
+		return SizeEstimator.record(entity.key.toString(), entity.fields);
+	}
+
+	private void index(Partition partition, Entity entity) {
+		for (Map.Entry<String, TreeSet<IndexEntry>> index : partition.rangeIndexes.entrySet()) {
+			Object value = entity.fields.get(index.getKey());
+			if (value != null) {
+				index.getValue().add(new IndexEntry(value, entity.key));
+			}
+		}
+		for (Map.Entry<String, Map<String, Set<Key>>> index : partition.fulltextIndexes.entrySet()) {
+			Object value = entity.fields.get(index.getKey());
+			if (value instanceof String) {
+				for (String term : QueryPredicate.terms((String) value)) {
+					Set<Key> keys = index.getValue().get(term);
+					if (keys == null) {
+						keys = new HashSet<>();
+						index.getValue().put(term, keys);
+					}
+					keys.add(entity.key);
+				}
+			}
+		}
+	}
+
+	private void unindex(Partition partition, Entity entity) {
+		for (Map.Entry<String, TreeSet<IndexEntry>> index : partition.rangeIndexes.entrySet()) {
+			Object value = entity.fields.get(index.getKey());
+			if (value != null) {
+				index.getValue().remove(new IndexEntry(value, entity.key));
+			}
+		}
+		for (Map.Entry<String, Map<String, Set<Key>>> index : partition.fulltextIndexes.entrySet()) {
+			Object value = entity.fields.get(index.getKey());
+			if (value instanceof String) {
+				for (String term : QueryPredicate.terms((String) value)) {
+					Set<Key> keys = index.getValue().get(term);
+					if (keys != null) {
+						keys.remove(entity.key);
+						if (keys.isEmpty()) {
+							index.getValue().remove(term);
+						}
+					}
+				}
+			}
+		}
 	}
 
 	private synchronized void transactionallyUpdateDB(Collection<Transaction> transactions, boolean enforceVersioning) throws IllegalStateException {
@@ -71,7 +230,8 @@ public class TestDatabase extends Database {
 		for (Transaction trans : transactions) {
 			Entity changed = trans.entity;
 			if (changed.key.id != null) {
-				Entity original = db.get(changed.key);
+				checkNotPrepared(changed.key);
+				Entity original = peek(changed.key);
 				if (original != null && !enforceVersioning) {
 					changed.version = original.version;
 				}
@@ -87,17 +247,19 @@ public class TestDatabase extends Database {
 		for (Transaction trans : transactions) {
 			if (trans.operation.equals("update")) {
 				trans.entity.version++;
-				db.put(trans.entity.key, trans.entity);
-			} else if (trans.operation.equals("update")) {
-				db.remove(trans.entity.key);
+				store(trans.entity);
+			} else if (trans.operation.equals("delete")) {
+				remove(trans.entity.key);
 			}
 		}
+		publish(transactions);
 	}
 
 	private synchronized Key transactionallyUpdateDB(Transaction trans, boolean enforceVersioning) throws IllegalStateException {
 		Entity changed = trans.entity;
 		if (changed.key.id != null) {
-			Entity original = db.get(changed.key);
+			checkNotPrepared(changed.key);
+			Entity original = peek(changed.key);
 			if (original != null && !enforceVersioning) {
 				changed.version = original.version;
 			}
@@ -112,30 +274,247 @@ public class TestDatabase extends Database {
 
 		if (trans.operation.equals("update")) {
 			trans.entity.version++;
-			db.put(trans.entity.key, trans.entity);
-		} else if (trans.operation.equals("update")) {
-			db.remove(trans.entity.key);
+			store(trans.entity);
+		} else if (trans.operation.equals("delete")) {
+			remove(trans.entity.key);
 		}
+		publish(trans);
 		return trans.entity.key;
 	}
 
+	private void publish(Transaction... transactions) {
+		CommitListener listener = commitListener;
+		if (listener == null) {
+			return;
+		}
+		List<Entity> writeSet = new ArrayList<>(transactions.length);
+		for (Transaction trans : transactions) {
+			writeSet.add(Entity.copy(trans.entity));
+		}
+		listener.committed(writeSet);
+	}
+
+	/**
+	 * Applies a write set committed by another database, keeping the versions of its entities.
+	 */
+	synchronized void applyWriteSet(List<Entity> writeSet) {
+		for (Entity entity : writeSet) {
+			if (entity.fields == null) {
+				remove(entity.key);
+			} else {
+				store(Entity.copy(entity));
+			}
+		}
+	}
+
+	private void checkNotPrepared(Key key) {
+		if (!preparedKeys.isEmpty() && preparedKeys.contains(key)) {
+			throw new IllegalStateException("Entity(" + key + ") is locked by a prepared transaction.");
+		}
+	}
+
+	/**
+	 * First phase of a two-phase commit: verifies the current thread's transaction like a commit would and locks its
+	 * entities, so no other write can make the commit fail. Ends the transaction if verification fails.
+	 *
+	 * @return False if the transaction collided and was rolled back.
+	 */
+	synchronized boolean prepareTransaction() {
+		Map<Key, Transaction> transaction = threadLocalTransaction.get();
+		if (transaction == null) {
+			throw new IllegalStateException("Transaction not started");
+		}
+		for (Transaction trans : transaction.values()) {
+			Entity changed = trans.entity;
+			Entity original = peek(changed.key);
+			if (preparedKeys.contains(changed.key)
+					|| (original == null && changed.version != 0)
+					|| (original != null && changed.version != original.version)) {
+				threadLocalTransaction.remove();
+				return false;
+			}
+		}
+		preparedKeys.addAll(transaction.keySet());
+		return true;
+	}
+
+	/**
+	 * Second phase of a two-phase commit: applies the transaction prepared by {@link #prepareTransaction()}.
+	 */
+	synchronized void commitPreparedTransaction() {
+		Map<Key, Transaction> transaction = threadLocalTransaction.get();
+		preparedKeys.removeAll(transaction.keySet());
+		transactionallyUpdateDB(transaction.values(), true);
+		threadLocalTransaction.remove();
+	}
+
+	/**
+	 * Rolls back a transaction prepared by {@link #prepareTransaction()}, releasing its locks.
+	 */
+	synchronized void abortPreparedTransaction() {
+		Map<Key, Transaction> transaction = threadLocalTransaction.get();
+		preparedKeys.removeAll(transaction.keySet());
+		threadLocalTransaction.remove();
+	}
+
 	private boolean isTransaction() {
 		return threadLocalTransaction.get() != null;
 	}
 
+	/**
+	 * Each table is stored in its own partition. With 'tier.heap.entries' above 0 at most that many entities of a
+	 * table are kept on heap, by 'tier.policy' LRU or TINYLFU, and the rest spilled to a memory-mapped file at
+	 * 'tier.spill.path' followed by '-' and the table name, see {@link TieredMap}.
+	 */
 	@Override
-	public void init(Properties props) {
-		db = new HashMap<>(1000);
+	public synchronized void init(Properties props) {
+		for (Partition partition : partitions.values()) {
+			partition.close();
+		}
+		partitions = new HashMap<>();
+		tierHeapEntries = PropsUtil.expandInt(props.getProperty("tier.heap.entries", "0"));
+		tierPolicy = BoundedCache.Policy.valueOf(props.getProperty("tier.policy", "lru").toUpperCase());
+		tierSpillPath = props.getProperty("tier.spill.path", "./target/testdb-spill");
+		slowProbability = Double.valueOf(props.getProperty("latency.slow.probability", "0"));
+		slowDelayMicros = PropsUtil.expandInt(props.getProperty("latency.slow.delay", "10000"));
+		slowDistribution = props.getProperty("latency.slow.distribution", "constant");
+		String seed = props.getProperty("seed");
+		latencySeed = seed == null ? System.nanoTime() : Long.valueOf(seed);
+		if (!Arrays.asList("constant", "uniform", "exponential").contains(slowDistribution)) {
+			throw new IllegalArgumentException("Unknown latency.slow.distribution: " + slowDistribution);
+		}
+	}
+
+	/**
+	 * Simulates the occasional slow response of a real database: with probability 'latency.slow.probability'
+	 * sleeps for 'latency.slow.delay' microseconds, or a delay drawn uniformly from [0, 2 * delay) or exponentially
+	 * with that mean, by 'latency.slow.distribution'. Called outside of any lock, so a slow request does not delay
+	 * others. Each thread draws from its own stream, derived from the run seed 'seed' if set.
+	 * <p/>
+	 * Affects inserts, gets, puts, deletes, patches, increments and queries, paged or not. Operations composed of
+	 * others, like a patch within a transaction or a page without a range index, are delayed by their parts.
+	 */
+	private void injectLatency() {
+		if (slowProbability <= 0) {
+			return;
+		}
+		RandomStream stream = random.get();
+		if (stream.nextDouble() >= slowProbability) {
+			return;
+		}
+		long delay;
+		if (slowDistribution.equals("uniform")) {
+			delay = (long) (stream.nextDouble() * 2 * slowDelayMicros);
+		} else if (slowDistribution.equals("exponential")) {
+			delay = (long) (-Math.log(1 - stream.nextDouble()) * slowDelayMicros);
+		} else {
+			delay = slowDelayMicros;
+		}
+		try {
+			TimeUnit.MICROSECONDS.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while injecting latency.", e);
+		}
 	}
 
 	@Override
-	public void register(String tableName, List<FieldDefinition> fields) {
-		// no op
+	public synchronized void register(String tableName, List<FieldDefinition> fields) {
+		Partition partition = partition(tableName);
+		for (FieldDefinition field : fields) {
+			if (bulkLoad) {
+				partition.deferredIndexes.add(field);
+			} else {
+				createIndex(partition, field);
+			}
+		}
+	}
+
+	private void createIndex(Partition partition, FieldDefinition field) {
+		boolean created = false;
+		if (field.indexType == FieldDefinition.INDEX_TYPE.RANGE && !partition.rangeIndexes.containsKey(field.fieldName)) {
+			partition.rangeIndexes.put(field.fieldName, new TreeSet<IndexEntry>());
+			created = true;
+		} else if (field.indexType == FieldDefinition.INDEX_TYPE.FULLTEXT && !partition.fulltextIndexes.containsKey(field.fieldName)) {
+			partition.fulltextIndexes.put(field.fieldName, new HashMap<String, Set<Key>>());
+			created = true;
+		}
+		if (created) {
+			// adding to existing entries of other indexes has no effect, they are sets
+			for (Entity entity : partition.entities.values()) {
+				index(partition, entity);
+			}
+		}
 	}
 
 	@Override
-	public void cleanup(String tableName) {
-		db = new HashMap<>(1000);
+	public synchronized void startBulkLoad() {
+		bulkLoad = true;
+	}
+
+	@Override
+	public synchronized void endBulkLoad() {
+		bulkLoad = false;
+		for (Partition partition : partitions.values()) {
+			for (FieldDefinition field : partition.deferredIndexes) {
+				createIndex(partition, field);
+			}
+			partition.deferredIndexes.clear();
+		}
+	}
+
+	/**
+	 * Of the table only: number of records and their estimated heap size, entries of range indexes, terms and
+	 * postings of fulltext indexes, and stats of the tiered store if tiering is on. The size is the logical size
+	 * of the data, as if all records were on heap: with tiering it includes the spilled ones, whose size in the
+	 * file is 'tier.file.bytes'.
+	 */
+	@Override
+	public synchronized Map<String, Long> getStats(String tableName) {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		Partition partition = partitions.get(tableName);
+		if (partition == null) {
+			stats.put("records", 0L);
+			stats.put("bytes", 0L);
+			return stats;
+		}
+		stats.put("records", (long) partition.entities.size());
+		stats.put("bytes", partition.bytes);
+		for (Map.Entry<String, TreeSet<IndexEntry>> index : partition.rangeIndexes.entrySet()) {
+			stats.put("index." + index.getKey() + ".entries", (long) index.getValue().size());
+		}
+		for (Map.Entry<String, Map<String, Set<Key>>> index : partition.fulltextIndexes.entrySet()) {
+			long postings = 0;
+			for (Set<Key> keys : index.getValue().values()) {
+				postings += keys.size();
+			}
+			stats.put("index." + index.getKey() + ".terms", (long) index.getValue().size());
+			stats.put("index." + index.getKey() + ".postings", postings);
+		}
+		if (partition.entities instanceof TieredMap) {
+			stats.putAll(((TieredMap<Key, Entity>) partition.entities).getStats());
+		}
+		return stats;
+	}
+
+	/**
+	 * Drops the table's partition and replaces it with an empty one with the same indexes, other tables are kept.
+	 */
+	@Override
+	public synchronized void cleanup(String tableName) {
+		Partition dropped = partitions.remove(tableName);
+		if (dropped == null) {
+			return;
+		}
+		dropped.close();
+		Partition partition = partition(tableName);
+		for (String field : dropped.rangeIndexes.keySet()) {
+			partition.rangeIndexes.put(field, new TreeSet<IndexEntry>());
+		}
+		for (String field : dropped.fulltextIndexes.keySet()) {
+			partition.fulltextIndexes.put(field, new HashMap<String, Set<Key>>());
+		}
+		partition.deferredIndexes.addAll(dropped.deferredIndexes);
 	}
 
 	@Override
@@ -169,6 +548,7 @@ public class TestDatabase extends Database {
 
 	@Override
 	public String insert(String tableName, Map<String, Object> fields) {
+		injectLatency();
 
 		Entity entity = new Entity(tableName, fields);
 
@@ -180,12 +560,26 @@ public class TestDatabase extends Database {
 		}
 	}
 
+	@Override
+	public boolean supportsClientKeys() {
+		return true;
+	}
+
+	@Override
+	public String createKey(String tableName) {
+		return new Key(tableName, createId()).toString();
+	}
+
 	@Override
 	public Map<String, Object> get(String stringKey) {
+		injectLatency();
 		Entity entity = null;
 		Key key = Key.fromString(stringKey);
 		if (isTransaction()) {
 			Transaction transaction = threadLocalTransaction.get().get(key);
+			if (transaction != null && transaction.operation.equals("delete")) {
+				return null;
+			}
 			entity = transaction != null ? transaction.entity : null;
 		}
 
@@ -194,7 +588,7 @@ public class TestDatabase extends Database {
 		}
 
 		// we need to remember all entities within the transaction
-		if (isTransaction()) {
+		if (isTransaction() && entity != null) {
 			updateLocalTransaction(entity);
 		}
 		return entity == null ? null : new HashMap<>(entity.fields);
@@ -202,6 +596,7 @@ public class TestDatabase extends Database {
 
 	@Override
 	public void put(String tableName, String stringKey, Map<String, Object> fields) {
+		injectLatency();
 		Key key = Key.fromString(stringKey);
 		Entity entity = new Entity(key, fields);
 		if (isTransaction()) {
@@ -213,20 +608,72 @@ public class TestDatabase extends Database {
 
 	@Override
 	public void delete(String tableName, String stringKey) {
+		injectLatency();
 		Key key = Key.fromString(stringKey);
 		if (isTransaction()) {
 			removeFromLocalTransaction(key);
 		} else {
-			transactionallyUpdateDB(new Transaction("delete", key), true);
+			transactionallyUpdateDB(new Transaction("delete", key), false);
 		}
 	}
 
+	@Override
+	public boolean patch(String tableName, String stringKey, Map<String, Object> set, Collection<String> unset) {
+		if (isTransaction()) {
+			return super.patch(tableName, stringKey, set, unset);
+		}
+		injectLatency();
+		return patchInPlace(Key.fromString(stringKey), set, unset);
+	}
+
+	private synchronized boolean patchInPlace(Key key, Map<String, Object> set, Collection<String> unset) {
+		checkNotPrepared(key);
+		Entity original = peek(key);
+		if (original == null) {
+			return false;
+		}
+		// a new entity, readers copy the stored one outside of the lock
+		Entity entity = Entity.copy(original);
+		entity.version++;
+		entity.fields.putAll(set);
+		entity.fields.keySet().removeAll(unset);
+		store(entity);
+		publish(new Transaction("update", entity));
+		return true;
+	}
+
+	@Override
+	public Map<String, Long> increment(String tableName, String stringKey, Map<String, Long> deltas) {
+		if (isTransaction()) {
+			return super.increment(tableName, stringKey, deltas);
+		}
+		injectLatency();
+		return incrementInPlace(Key.fromString(stringKey), deltas);
+	}
+
+	private synchronized Map<String, Long> incrementInPlace(Key key, Map<String, Long> deltas) {
+		checkNotPrepared(key);
+		Entity original = peek(key);
+		if (original == null) {
+			return null;
+		}
+		// a new entity, readers copy the stored one outside of the lock
+		Entity entity = Entity.copy(original);
+		// transactions only hold copies, the new version makes those that read this entity collide
+		entity.version++;
+		Map<String, Long> values = addDeltas(entity.fields, deltas);
+		store(entity);
+		publish(new Transaction("update", entity));
+		return values;
+	}
+
 	@Override
 	public Map<String, Map<String, Object>> querySimple(String tableName, List<QueryPredicate> predicates, int skip, int limit) {
+		injectLatency();
 		Map<String, Map<String, Object>> results = new HashMap<String, Map<String, Object>>();
 
 		synchronized (this) {
-			for (Entity entity : db.values()) {
+			for (Entity entity : candidates(partitions.get(tableName), predicates)) {
 				boolean matched = true;
 				for (QueryPredicate predicate : predicates) {
 					matched = matched && matchedField(entity, predicate);
@@ -234,8 +681,7 @@ public class TestDatabase extends Database {
 				if (matched) {
 					if (skip > 0) {
 						skip--;
-					} else if (limit > 0) {
-						limit--;
+					} else if (limit == 0 || results.size() < limit) {
 						// we need to remember all entities within the transaction
 						if (isTransaction()) {
 							updateLocalTransaction(entity);
@@ -251,6 +697,88 @@ public class TestDatabase extends Database {
 		return results;
 	}
 
+	/**
+	 * @return Entities of the partition that can match predicates: those with the rarest term of CONTAINS_TEXT
+	 * predicates on fields with a fulltext index, otherwise all entities.
+	 */
+	private Collection<Entity> candidates(Partition partition, List<QueryPredicate> predicates) {
+		if (partition == null) {
+			return Collections.emptyList();
+		}
+		Set<Key> rarest = null;
+		for (QueryPredicate predicate : predicates) {
+			Map<String, Set<Key>> index = partition.fulltextIndexes.get(predicate.fieldName);
+			if (predicate.operator == QueryPredicate.OPERATOR.CONTAINS_TEXT && index != null && predicate.value instanceof String) {
+				Set<Key> keys = index.get(((String) predicate.value).toLowerCase());
+				if (keys == null) {
+					return Collections.emptyList();
+				}
+				if (rarest == null || keys.size() < rarest.size()) {
+					rarest = keys;
+				}
+			}
+		}
+		if (rarest == null) {
+			return partition.entities.values();
+		}
+		List<Entity> entities = new ArrayList<>(rarest.size());
+		for (Key key : rarest) {
+			entities.add(peek(key));
+		}
+		return entities;
+	}
+
+	/**
+	 * With a range index on the sort field the page starts with a seek right after the continuation's record,
+	 * otherwise all records are sorted.
+	 */
+	@Override
+	public Page queryPage(String tableName, List<QueryPredicate> predicates, String sortField, int limit, String continuation) {
+		if (rangeIndex(tableName, sortField) == null) {
+			return super.queryPage(tableName, predicates, sortField, limit, continuation);
+		}
+		injectLatency();
+		Page page = indexedPage(tableName, predicates, sortField, limit, continuation);
+		// null if the index was dropped meanwhile by init()
+		return page != null ? page : super.queryPage(tableName, predicates, sortField, limit, continuation);
+	}
+
+	private synchronized TreeSet<IndexEntry> rangeIndex(String tableName, String fieldName) {
+		Partition partition = partitions.get(tableName);
+		return partition == null ? null : partition.rangeIndexes.get(fieldName);
+	}
+
+	private synchronized Page indexedPage(String tableName, List<QueryPredicate> predicates, String sortField, int limit, String continuation) {
+		TreeSet<IndexEntry> index = rangeIndex(tableName, sortField);
+		if (index == null) {
+			return null;
+		}
+
+		Page.Cursor after = Page.Cursor.decode(continuation);
+		SortedSet<IndexEntry> entries = after == null ? index : index.tailSet(new IndexEntry(after.value, Key.fromString(after.key)), false);
+
+		Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+		IndexEntry last = null;
+		for (IndexEntry entry : entries) {
+			if (results.size() == limit) {
+				break;
+			}
+			Entity entity = peek(entry.key);
+			boolean matched = true;
+			for (QueryPredicate predicate : predicates) {
+				matched = matched && matchedField(entity, predicate);
+			}
+			if (matched) {
+				if (isTransaction()) {
+					updateLocalTransaction(entity);
+				}
+				results.put(entity.key.toString(), new HashMap<>(entity.fields));
+				last = entry;
+			}
+		}
+		return new Page(results, results.size() == limit && last != null ? new Page.Cursor(last.value, last.key.toString()).encode() : null);
+	}
+
 	private boolean matchedField(Entity entity, QueryPredicate predicate) {
 		Object fieldVal = entity.fields == null ? null : entity.fields.get(predicate.fieldName);
 		Object value = predicate.value;
@@ -280,6 +808,8 @@ public class TestDatabase extends Database {
 				} else {
 					throw new IllegalArgumentException("Query operator CONTAINS can only be used on fields of Collection types");
 				}
+			case CONTAINS_TEXT:
+				return QueryPredicate.containsText(fieldVal, value);
 		}
 		return false;
 	}
@@ -412,7 +942,7 @@ public class TestDatabase extends Database {
 
 		public Entity(Key key, Map<String, Object> fields) {
 			this.key = key;
-			this.fields = new HashMap<>(fields);
+			this.fields = fields == null ? null : new HashMap<>(fields);  // deleted entities have no fields
 		}
 
 		public Entity(String kind, Map<String, Object> fields) {
@@ -423,11 +953,98 @@ public class TestDatabase extends Database {
 		public Entity(Key copy, int version, HashMap<String, Object> fields) {
 			key = copy;
 			this.version = version;
-			this.fields = new HashMap<>(fields);;
+			this.fields = fields == null ? null : new HashMap<>(fields);
 		}
 
 		public static Entity copy(Entity entity) {
-			return new Entity(Key.copy(entity.key), entity.version, new HashMap<>(entity.fields));
+			return new Entity(Key.copy(entity.key), entity.version, entity.fields == null ? null : new HashMap<>(entity.fields));
+		}
+	}
+
+	/**
+	 * Records and indexes of one table, dropped as a whole when the table is cleaned up.
+	 */
+	private static class Partition {
+		// a HashMap, or a TieredMap if the number of entities on heap is bounded
+		final Map<Key, Entity> entities;
+		final SpillFile spillFile;
+
+		// sorted index of every field registered with INDEX_TYPE.RANGE, used by keyset pagination
+		final Map<String, TreeSet<IndexEntry>> rangeIndexes = new HashMap<>();
+
+		// inverted index of every field registered with INDEX_TYPE.FULLTEXT: keys of the entities containing each term
+		final Map<String, Map<String, Set<Key>>> fulltextIndexes = new HashMap<>();
+
+		// fields registered in bulk load mode, indexed by endBulkLoad()
+		final List<FieldDefinition> deferredIndexes = new ArrayList<>();
+
+		// estimated heap size of the entities, see SizeEstimator, counting spilled ones as if they were on heap
+		long bytes;
+
+		Partition(Map<Key, Entity> entities, SpillFile spillFile) {
+			this.entities = entities;
+			this.spillFile = spillFile;
+		}
+
+		void close() {
+			if (spillFile != null) {
+				spillFile.close();
+			}
+		}
+	}
+
+	/**
+	 * Encodes an entity's version and fields for the cold tier.
+	 */
+	private static class EntityCodec implements TieredMap.Codec<Key, Entity> {
+
+		@Override
+		public byte[] encode(Entity entity) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			try {
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(entity.version);
+				WireProtocol.writeRecord(out, entity.fields);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return bytes.toByteArray();
+		}
+
+		@Override
+		public Entity decode(Key key, byte[] bytes) {
+			try {
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+				int version = in.readInt();
+				Entity entity = new Entity(key, null);
+				entity.version = version;
+				entity.fields = WireProtocol.readRecord(in);
+				return entity;
+			} catch (IOException e) {
+				throw new IllegalStateException("Corrupt spilled entity: " + key, e);
+			}
+		}
+	}
+
+	/**
+	 * Entry of a range index, ordered like {@link Page.Cursor}: by value and then by key.
+	 */
+	private static class IndexEntry implements Comparable<IndexEntry> {
+		final Object value;
+		final Key key;
+
+		IndexEntry(Object value, Key key) {
+			this.value = value;
+			this.key = key;
+		}
+
+		@Override
+		public int compareTo(IndexEntry other) {
+			int result = Page.compareValues(value, other.value);
+			if (result == 0) {
+				result = key.kind.compareTo(other.key.kind);
+			}
+			return result != 0 ? result : key.id.compareTo(other.key.id);
 		}
 	}
 
@@ -1,27 +1,68 @@
 package net.nosql_bench;
 
+import net.nosql_bench.generator.RandomStream;
+
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class Tester {
 
+	// the vocabulary is the same in every run, so words inserted by one run can be queried by another
+	private static final long WORDS_SEED = 20150301L;
+
 	static String[] words;
-	static Random random = new Random();
+
+	// a stream per thread instead of one shared java.util.Random, whose seed update all threads contend on;
+	// threads that did not call useStream() get one in order of first use, only reproducible with a single thread
+	private static volatile long seed = System.nanoTime();
+	private static final AtomicInteger streams = new AtomicInteger(0);
+	private static final ThreadLocal<RandomStream> random = new ThreadLocal<RandomStream>() {
+		@Override
+		protected RandomStream initialValue() {
+			return new RandomStream(RandomStream.seed(seed, -1 - streams.getAndIncrement()));
+		}
+	};
 
 	static {
 		words = generateRandomWords(10000);
 	}
 
+	/**
+	 * Sets the run seed the streams are derived from.
+	 */
+	public static void seed(long runSeed) {
+		seed = runSeed;
+		streams.set(0);
+	}
+
+	/**
+	 * Gives the calling thread the stream of task 'index' for {@link #randomInt()} and {@link #randomWord()}. Like
+	 * {@link net.nosql_bench.generator.DataGenerator#stream(int)}, a task that passes a stable index draws the same
+	 * values whenever the run seed is reused, whichever thread it runs on.
+	 */
+	public static void useStream(int index) {
+		random.set(new RandomStream(RandomStream.seed(seed, index)));
+	}
+
 	public static int randomInt(){
-		return random.nextInt();
+		return random.get().nextInt();
 	}
 
 	public static String randomWord(){
-		return words[random.nextInt(Tester.words.length)];
+		return words[random.get().nextInt(Tester.words.length)];
+	}
+
+	public static String word(int index){
+		return words[index];
+	}
+
+	public static int wordCount(){
+		return words.length;
 	}
 
 	public static String[] generateRandomWords(int numberOfWords) {
 		String[] randomStrings = new String[numberOfWords];
-		Random random = new Random();
+		Random random = new Random(WORDS_SEED);
 		for (int i = 0; i < numberOfWords; i++) {
 			char[] word = new char[random.nextInt(6) + 5]; // words of length 5 through 10. (1 and 2 letter words are boring.)
 			for (int j = 0; j < word.length; j++) {
@@ -0,0 +1,283 @@
+package net.nosql_bench;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary protocol between {@link RemoteDatabase} and {@link RemoteServer}. Every message is a frame: its length as an
+ * int, followed by
+ * <ul>
+ * <li>request: request id (long), session id (long), operation (byte), arguments</li>
+ * <li>response: request id (long), status (byte, {@link #OK} or {@link #ERROR}), result or error message</li>
+ * </ul>
+ * Requests are pipelined: a client may send any number of requests on a connection before reading responses, which
+ * are matched to requests by id. The session id identifies the client thread, whose transaction the server keeps.
+ * <p/>
+ * Values are tagged with their type; strings are UTF-8 with an int length.
+ */
+public class WireProtocol {
+
+	public static final int HEADER_SIZE = 4;
+	public static final int MAX_FRAME = 64 << 20;
+
+	public static final byte OK = 0;
+	public static final byte ERROR = 1;
+
+	public enum Operation {
+		REGISTER, CLEANUP, STATS, START_BULK_LOAD, END_BULK_LOAD, START_TRANSACTION, COMMIT, ROLLBACK,
+		INSERT, GET, PUT, DELETE, PATCH, INCREMENT, QUERY, QUERY_PAGE, CREATE_KEY
+	}
+
+	private static final byte NULL = 0, INTEGER = 1, LONG = 2, DOUBLE = 3, STRING = 4, BOOLEAN = 5, LIST = 6,
+			SHORT = 7, BYTE = 8, FLOAT = 9;
+
+	/**
+	 * Collects a frame, which starts with a placeholder for its length that {@link #toByteArray()} fills in.
+	 */
+	public static class FrameOutput extends DataOutputStream {
+
+		public FrameOutput() {
+			super(new Bytes());
+			try {
+				writeInt(0);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public byte[] toByteArray() {
+			byte[] bytes = ((Bytes) out).toByteArray();
+			int length = bytes.length - HEADER_SIZE;
+			bytes[0] = (byte) (length >>> 24);
+			bytes[1] = (byte) (length >>> 16);
+			bytes[2] = (byte) (length >>> 8);
+			bytes[3] = (byte) length;
+			return bytes;
+		}
+
+		private static class Bytes extends ByteArrayOutputStream {
+			Bytes() {
+				super(256);
+			}
+		}
+	}
+
+	public static void writeString(DataOutput out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static void writeValue(DataOutput out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Collection) {
+			out.writeByte(LIST);
+			out.writeInt(((Collection) value).size());
+			for (Object element : (Collection) value) {
+				writeValue(out, element);
+			}
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		} else {
+			throw new IllegalArgumentException("Unsupported value type: " + value.getClass());
+		}
+	}
+
+	public static Object readValue(DataInput in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case NULL:
+				return null;
+			case INTEGER:
+				return in.readInt();
+			case LONG:
+				return in.readLong();
+			case DOUBLE:
+				return in.readDouble();
+			case STRING:
+				return readString(in);
+			case BOOLEAN:
+				return in.readBoolean();
+			case LIST:
+				int size = in.readInt();
+				List<Object> list = new ArrayList<>(size);
+				for (int i = 0; i < size; i++) {
+					list.add(readValue(in));
+				}
+				return list;
+			case SHORT:
+				return in.readShort();
+			case BYTE:
+				return in.readByte();
+			case FLOAT:
+				return in.readFloat();
+			default:
+				throw new IOException("Unknown value type: " + type);
+		}
+	}
+
+	/**
+	 * Writes a record, or -1 for null.
+	 */
+	public static void writeRecord(DataOutput out, Map<String, Object> fields) throws IOException {
+		if (fields == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(fields.size());
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			writeString(out, field.getKey());
+			writeValue(out, field.getValue());
+		}
+	}
+
+	public static Map<String, Object> readRecord(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size < 0) {
+			return null;
+		}
+		Map<String, Object> fields = new HashMap<>((int) (size / 0.75f) + 1);
+		for (int i = 0; i < size; i++) {
+			fields.put(readString(in), readValue(in));
+		}
+		return fields;
+	}
+
+	/**
+	 * Writes records in their iteration order, which {@link #readRecords(DataInput)} keeps.
+	 */
+	public static void writeRecords(DataOutput out, Map<String, Map<String, Object>> records) throws IOException {
+		out.writeInt(records.size());
+		for (Map.Entry<String, Map<String, Object>> record : records.entrySet()) {
+			writeString(out, record.getKey());
+			writeRecord(out, record.getValue());
+		}
+	}
+
+	public static Map<String, Map<String, Object>> readRecords(DataInput in) throws IOException {
+		int size = in.readInt();
+		Map<String, Map<String, Object>> records = new LinkedHashMap<>((int) (size / 0.75f) + 1);
+		for (int i = 0; i < size; i++) {
+			records.put(readString(in), readRecord(in));
+		}
+		return records;
+	}
+
+	public static void writeLongs(DataOutput out, Map<String, Long> values) throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(values.size());
+		for (Map.Entry<String, Long> value : values.entrySet()) {
+			writeString(out, value.getKey());
+			out.writeLong(value.getValue());
+		}
+	}
+
+	public static Map<String, Long> readLongs(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size < 0) {
+			return null;
+		}
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++) {
+			values.put(readString(in), in.readLong());
+		}
+		return values;
+	}
+
+	public static void writeStrings(DataOutput out, Collection<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			writeString(out, s);
+		}
+	}
+
+	public static List<String> readStrings(DataInput in) throws IOException {
+		int size = in.readInt();
+		List<String> strings = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			strings.add(readString(in));
+		}
+		return strings;
+	}
+
+	public static void writePredicates(DataOutput out, List<QueryPredicate> predicates) throws IOException {
+		out.writeInt(predicates.size());
+		for (QueryPredicate predicate : predicates) {
+			writeString(out, predicate.fieldName);
+			out.writeByte(predicate.operator.ordinal());
+			writeValue(out, predicate.value);
+		}
+	}
+
+	public static List<QueryPredicate> readPredicates(DataInput in) throws IOException {
+		int size = in.readInt();
+		List<QueryPredicate> predicates = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			String fieldName = readString(in);
+			QueryPredicate.OPERATOR operator = QueryPredicate.OPERATOR.values()[in.readByte()];
+			predicates.add(new QueryPredicate(fieldName, operator, readValue(in)));
+		}
+		return predicates;
+	}
+
+	public static void writeFields(DataOutput out, List<FieldDefinition> fields) throws IOException {
+		out.writeInt(fields.size());
+		for (FieldDefinition field : fields) {
+			writeString(out, field.fieldName);
+			out.writeByte(field.fieldType.ordinal());
+			out.writeByte(field.indexType.ordinal());
+		}
+	}
+
+	public static List<FieldDefinition> readFields(DataInput in) throws IOException {
+		int size = in.readInt();
+		List<FieldDefinition> fields = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			String fieldName = readString(in);
+			FieldDefinition.FIELD_TYPE type = FieldDefinition.FIELD_TYPE.values()[in.readByte()];
+			fields.add(new FieldDefinition(fieldName, type, FieldDefinition.INDEX_TYPE.values()[in.readByte()]));
+		}
+		return fields;
+	}
+}
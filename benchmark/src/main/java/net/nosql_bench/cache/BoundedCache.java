@@ -0,0 +1,231 @@
+package net.nosql_bench.cache;
+
+import java.util.*;
+
+/**
+ * A concurrent cache bounded by number of entries and by estimated size in bytes, with optional TTL.
+ * <p/>
+ * Keys are spread over segments, each an access ordered LinkedHashMap behind its own lock, so threads working on
+ * different segments never contend. A full segment evicts its least recently used entries. With policy
+ * {@link Policy#TINYLFU} a new entry is only admitted if it has been requested more often than the entry it would
+ * evict, estimated with a {@link FrequencySketch} per segment, so one-off reads of cold keys can not flush hot ones.
+ * <p/>
+ * Values loaded from the database can race with writes that invalidate them. Loaders read {@link #generation(String)}
+ * before loading and pass it to {@link #put(String, Object, long, long)}, which refuses the value if its segment
+ * saw an invalidation in the meantime.
+ */
+public class BoundedCache<V> {
+
+	public enum Policy {LRU, TINYLFU}
+
+	private final Segment<V>[] segments;
+	private final Policy policy;
+	private final long ttlNanos;
+
+	/**
+	 * @param maxEntries Maximum number of entries, 0 for no limit.
+	 * @param maxBytes   Maximum estimated size of all entries, 0 for no limit.
+	 * @param ttlNanos   Time after which an entry expires, 0 for never.
+	 * @param segments   Number of independently locked segments, rounded up to a power of two.
+	 */
+	public BoundedCache(int maxEntries, long maxBytes, Policy policy, long ttlNanos, int segments) {
+		int count = Integer.highestOneBit(Math.max(1, segments - 1)) << 1;
+		if (segments <= 1) {
+			count = 1;
+		}
+		this.segments = newSegments(count);
+		for (int i = 0; i < count; i++) {
+			this.segments[i] = new Segment<>(
+					maxEntries == 0 ? Integer.MAX_VALUE : Math.max(1, maxEntries / count),
+					maxBytes == 0 ? Long.MAX_VALUE : Math.max(1, maxBytes / count),
+					policy == Policy.TINYLFU ? new FrequencySketch(maxEntries == 0 ? 1024 : Math.max(16, maxEntries / count)) : null);
+		}
+		this.policy = policy;
+		this.ttlNanos = ttlNanos;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> Segment<V>[] newSegments(int count) {
+		return (Segment<V>[]) new Segment<?>[count];
+	}
+
+	private Segment<V> segment(String key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[(hash * 0x9E3779B9) >>> 16 & (segments.length - 1)];
+	}
+
+	/**
+	 * @return The cached value, or null if there is none or it has expired.
+	 */
+	public V get(String key) {
+		Segment<V> segment = segment(key);
+		synchronized (segment) {
+			if (segment.sketch != null) {
+				segment.sketch.increment(key.hashCode());
+			}
+			Entry<V> entry = segment.map.get(key);
+			if (entry != null && entry.expiresAt != 0 && entry.expiresAt - System.nanoTime() < 0) {
+				segment.remove(key);
+				segment.expirations++;
+				entry = null;
+			}
+			if (entry == null) {
+				segment.misses++;
+				return null;
+			}
+			segment.hits++;
+			return entry.value;
+		}
+	}
+
+	/**
+	 * @return Invalidation generation of the key's segment, to be passed to {@link #put(String, Object, long, long)}.
+	 */
+	public long generation(String key) {
+		Segment<V> segment = segment(key);
+		synchronized (segment) {
+			return segment.generation;
+		}
+	}
+
+	/**
+	 * Caches a value loaded from the database.
+	 *
+	 * @param bytes      Estimated size of key and value.
+	 * @param generation Result of {@link #generation(String)} taken before the value was loaded.
+	 * @return False if the value was not cached: invalidated while loading, not admitted or larger than a segment.
+	 */
+	public boolean put(String key, V value, long bytes, long generation) {
+		Segment<V> segment = segment(key);
+		synchronized (segment) {
+			if (segment.generation != generation) {
+				return false;
+			}
+			if (bytes > segment.maxBytes) {
+				segment.rejections++;
+				return false;
+			}
+			segment.remove(key);
+			if (segment.isFull(bytes)) {
+				Map.Entry<String, Entry<V>> victim = segment.map.entrySet().iterator().next();
+				if (segment.sketch != null && segment.sketch.frequency(key.hashCode()) <= segment.sketch.frequency(victim.getKey().hashCode())) {
+					segment.rejections++;
+					return false;
+				}
+				while (segment.isFull(bytes)) {
+					segment.remove(segment.map.keySet().iterator().next());
+					segment.evictions++;
+				}
+			}
+			segment.map.put(key, new Entry<>(value, bytes, ttlNanos == 0 ? 0 : System.nanoTime() + ttlNanos));
+			segment.bytes += bytes;
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the key and makes loads of any key of its segment that are in flight fail to cache.
+	 */
+	public void invalidate(String key) {
+		Segment<V> segment = segment(key);
+		synchronized (segment) {
+			segment.generation++;
+			if (segment.remove(key) != null) {
+				segment.invalidations++;
+			}
+		}
+	}
+
+	/**
+	 * Removes a single entry, e.g. one found to be stale by the caller, without affecting loads in flight.
+	 */
+	public void remove(String key) {
+		Segment<V> segment = segment(key);
+		synchronized (segment) {
+			if (segment.remove(key) != null) {
+				segment.invalidations++;
+			}
+		}
+	}
+
+	public void clear() {
+		for (Segment<V> segment : segments) {
+			synchronized (segment) {
+				segment.generation++;
+				segment.map.clear();
+				segment.bytes = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return Counters summed over all segments: entries, bytes, hits, misses, evictions, rejections,
+	 * expirations and invalidations.
+	 */
+	public Map<String, Long> getStats() {
+		long[] totals = new long[8];
+		for (Segment<V> segment : segments) {
+			synchronized (segment) {
+				totals[0] += segment.map.size();
+				totals[1] += segment.bytes;
+				totals[2] += segment.hits;
+				totals[3] += segment.misses;
+				totals[4] += segment.evictions;
+				totals[5] += segment.rejections;
+				totals[6] += segment.expirations;
+				totals[7] += segment.invalidations;
+			}
+		}
+		Map<String, Long> stats = new LinkedHashMap<>();
+		String[] names = {"entries", "bytes", "hits", "misses", "evictions", "rejections", "expirations", "invalidations"};
+		for (int i = 0; i < names.length; i++) {
+			stats.put(names[i], totals[i]);
+		}
+		return stats;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	private static class Entry<V> {
+		final V value;
+		final long bytes;
+		final long expiresAt;
+
+		Entry(V value, long bytes, long expiresAt) {
+			this.value = value;
+			this.bytes = bytes;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static class Segment<V> {
+		final LinkedHashMap<String, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+		final int maxEntries;
+		final long maxBytes;
+		final FrequencySketch sketch;
+		long bytes;
+		long generation;
+		long hits, misses, evictions, rejections, expirations, invalidations;
+
+		Segment(int maxEntries, long maxBytes, FrequencySketch sketch) {
+			this.maxEntries = maxEntries;
+			this.maxBytes = maxBytes;
+			this.sketch = sketch;
+		}
+
+		boolean isFull(long newBytes) {
+			return !map.isEmpty() && (map.size() >= maxEntries || bytes + newBytes > maxBytes);
+		}
+
+		Entry<V> remove(String key) {
+			Entry<V> entry = map.remove(key);
+			if (entry != null) {
+				bytes -= entry.bytes;
+			}
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package net.nosql_bench.cache;
+
+import net.nosql_bench.DelegatingDatabase;
+import net.nosql_bench.PropsUtil;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through near cache of {@link #get(String)} results in front of another database, see {@link DelegatingDatabase}.
+ * <p/>
+ * Writes go to the delegate and then invalidate the cached record. Within a transaction reads bypass the cache, so a
+ * transaction always sees the database's view of a record, and written keys are invalidated only when the
+ * transaction commits. Queries are not cached.
+ * <p/>
+ * Properties:
+ * <ul>
+ * <li>cache.size - maximum number of cached records, 0 for no limit (default 10k)</li>
+ * <li>cache.memory - maximum estimated size of cached records in bytes, 0 for no limit, e.g. 64M (default 0)</li>
+ * <li>cache.policy - lru, or tinylfu to only admit records read more often than the one they evict (default lru)</li>
+ * <li>cache.ttl - milliseconds after which a cached record expires, 0 for never (default 0)</li>
+ * <li>cache.segments - number of independently locked segments (default 16)</li>
+ * </ul>
+ */
+public class CachingDatabase extends DelegatingDatabase {
+
+	private BoundedCache<Map<String, Object>> cache;
+
+	// keys written by the current thread's transaction, null outside of a transaction
+	private final ThreadLocal<Set<String>> transactionWrites = new ThreadLocal<>();
+
+	// time spent in the delegate on cache misses, to estimate the time saved by hits
+	private final AtomicLong missNanos = new AtomicLong(0);
+	private final AtomicLong loads = new AtomicLong(0);
+
+	@Override
+	public void init(Properties props) {
+		super.init(props);
+		int size = PropsUtil.expandInt(props.getProperty("cache.size", "10k"));
+		long memory = PropsUtil.expandLong(props.getProperty("cache.memory", "0"));
+		BoundedCache.Policy policy = BoundedCache.Policy.valueOf(props.getProperty("cache.policy", "lru").toUpperCase());
+		long ttl = Long.valueOf(props.getProperty("cache.ttl", "0"));
+		int segments = PropsUtil.expandInt(props.getProperty("cache.segments", "16"));
+		cache = new BoundedCache<>(size, memory, policy, TimeUnit.MILLISECONDS.toNanos(ttl), segments);
+	}
+
+	@Override
+	public Map<String, Object> get(String key) {
+		if (transactionWrites.get() != null) {
+			return delegate.get(key);
+		}
+		Map<String, Object> cached = cache.get(key);
+		if (cached != null) {
+			// callers are free to change the returned record
+			return new HashMap<>(cached);
+		}
+
+		long generation = cache.generation(key);
+		long start = System.nanoTime();
+		Map<String, Object> fields = delegate.get(key);
+		missNanos.addAndGet(System.nanoTime() - start);
+		loads.incrementAndGet();
+		if (fields != null) {
+			cache.put(key, new HashMap<>(fields), SizeEstimator.record(key, fields), generation);
+		}
+		return fields;
+	}
+
+	@Override
+	public void put(String tableName, String key, Map<String, Object> fields) {
+		delegate.put(tableName, key, fields);
+		written(key);
+	}
+
+	@Override
+	public void delete(String tableName, String key) {
+		delegate.delete(tableName, key);
+		written(key);
+	}
+
+	@Override
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		boolean patched = delegate.patch(tableName, key, set, unset);
+		written(key);
+		return patched;
+	}
+
+	@Override
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		Map<String, Long> values = delegate.increment(tableName, key, deltas);
+		written(key);
+		return values;
+	}
+
+	private void written(String key) {
+		Set<String> writes = transactionWrites.get();
+		if (writes != null) {
+			writes.add(key);
+		} else {
+			cache.invalidate(key);
+		}
+	}
+
+	@Override
+	public void startTransaction() {
+		delegate.startTransaction();
+		transactionWrites.set(new HashSet<String>());
+	}
+
+	@Override
+	public void commitTransaction() {
+		Set<String> writes = transactionWrites.get();
+		transactionWrites.remove();
+		try {
+			delegate.commitTransaction();
+		} finally {
+			// also when the commit fails, the delegate might have applied part of it
+			if (writes != null) {
+				for (String key : writes) {
+					cache.invalidate(key);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		transactionWrites.remove();
+		delegate.rollbackTransaction();
+	}
+
+	@Override
+	public void cleanup(String tableName) {
+		delegate.cleanup(tableName);
+		cache.clear();
+	}
+
+	/**
+	 * Delegate's statistics followed by the cache's, prefixed with 'cache.'. Besides the counters of
+	 * {@link BoundedCache#getStats()} these are hit.permille, eviction.permille (evictions per thousand loads),
+	 * miss.micros (mean delegate latency of a miss) and saved.millis (hits times miss.micros).
+	 */
+	@Override
+	public Map<String, Long> getStats(String tableName) {
+		Map<String, Long> stats = new LinkedHashMap<>(delegate.getStats(tableName));
+		Map<String, Long> cacheStats = cache.getStats();
+		for (Map.Entry<String, Long> entry : cacheStats.entrySet()) {
+			stats.put("cache." + entry.getKey(), entry.getValue());
+		}
+		long hits = cacheStats.get("hits");
+		long lookups = hits + cacheStats.get("misses");
+		long loadCount = loads.get();
+		long missMicros = loadCount == 0 ? 0 : missNanos.get() / loadCount / 1000;
+		stats.put("cache.hit.permille", lookups == 0 ? 0 : 1000 * hits / lookups);
+		stats.put("cache.eviction.permille", loadCount == 0 ? 0 : 1000 * cacheStats.get("evictions") / loadCount);
+		stats.put("cache.miss.micros", missMicros);
+		stats.put("cache.saved.millis", loadCount == 0 ? 0 : hits * (missNanos.get() / loadCount) / 1000000);
+		return stats;
+	}
+}
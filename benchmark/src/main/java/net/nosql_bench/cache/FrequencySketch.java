@@ -0,0 +1,65 @@
+package net.nosql_bench.cache;
+
+/**
+ * Approximate access frequency of keys, as used by TinyLFU admission: a count-min sketch with four rows of
+ * counters saturating at 15. After a number of increments proportional to the cache size all counters are
+ * halved, so the sketch follows changes of the working set. Not thread safe.
+ */
+public class FrequencySketch {
+
+	private static final int ROWS = 4;
+	private static final int MAX_COUNT = 15;
+	private static final int[] SEEDS = {0x97CB3127, 0x0BA1E4F3, 0x7FEB352D, 0x846CA68B};
+
+	private final byte[][] counters;
+	private final int mask;
+	private final int sampleSize;
+	private int increments;
+
+	/**
+	 * @param capacity Number of entries of the cache the sketch serves.
+	 */
+	public FrequencySketch(int capacity) {
+		int width = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+		counters = new byte[ROWS][width];
+		mask = width - 1;
+		sampleSize = 10 * Math.max(16, capacity);
+	}
+
+	public void increment(int hash) {
+		for (int row = 0; row < ROWS; row++) {
+			int index = index(hash, row);
+			if (counters[row][index] < MAX_COUNT) {
+				counters[row][index]++;
+			}
+		}
+		if (++increments >= sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * @return Estimated number of increments of the hash since the last reset, at most 15.
+	 */
+	public int frequency(int hash) {
+		int frequency = MAX_COUNT;
+		for (int row = 0; row < ROWS; row++) {
+			frequency = Math.min(frequency, counters[row][index(hash, row)]);
+		}
+		return frequency;
+	}
+
+	private int index(int hash, int row) {
+		int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+		return (h ^ (h >>> 15)) & mask;
+	}
+
+	private void reset() {
+		for (byte[] row : counters) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] >>= 1;
+			}
+		}
+		increments /= 2;
+	}
+}
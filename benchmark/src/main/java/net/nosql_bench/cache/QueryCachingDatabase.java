@@ -0,0 +1,260 @@
+package net.nosql_bench.cache;
+
+import net.nosql_bench.DelegatingDatabase;
+import net.nosql_bench.LatencyHistogram;
+import net.nosql_bench.PropsUtil;
+import net.nosql_bench.QueryPredicate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of {@link #querySimple(String, List, int, int)} results in front of another database, see
+ * {@link DelegatingDatabase}. Results are keyed by table, predicates in a canonical order, skip and limit, so the
+ * same query written with predicates in a different order is a hit.
+ * <p/>
+ * Every table has a version that is incremented by each write to it, or by the commit of a transaction that wrote
+ * to it. A cached result remembers the version of its table before it was queried and is stale once the version
+ * changed. With 'querycache.invalidation=table' stale results are dropped on lookup, so the cache never returns
+ * a result older than the last write. With 'querycache.invalidation=ttl' writes are ignored and results are served
+ * until they expire, which is how many application level query caches work; the age of stale results served is
+ * then reported as the staleness window.
+ * <p/>
+ * Properties:
+ * <ul>
+ * <li>querycache.size - maximum number of cached results, 0 for no limit (default 1000)</li>
+ * <li>querycache.memory - maximum estimated size of cached results in bytes, 0 for no limit (default 64M)</li>
+ * <li>querycache.policy - lru or tinylfu (default lru)</li>
+ * <li>querycache.invalidation - table or ttl (default table)</li>
+ * <li>querycache.ttl - milliseconds after which a result expires, 0 for never (default 0)</li>
+ * </ul>
+ */
+public class QueryCachingDatabase extends DelegatingDatabase {
+
+	private BoundedCache<CachedResult> cache;
+	private boolean invalidateOnWrite;
+
+	private final ConcurrentHashMap<String, AtomicLong> tableVersions = new ConcurrentHashMap<>();
+
+	// tables written by the current thread's transaction, null outside of a transaction
+	private final ThreadLocal<Set<String>> transactionWrites = new ThreadLocal<>();
+
+	private final AtomicLong staleDropped = new AtomicLong(0);
+	private final AtomicLong missNanos = new AtomicLong(0);
+	private final AtomicLong loads = new AtomicLong(0);
+
+	// age of stale results when served, guarded by itself
+	private final LatencyHistogram staleness = new LatencyHistogram();
+
+	@Override
+	public void init(Properties props) {
+		super.init(props);
+		int size = PropsUtil.expandInt(props.getProperty("querycache.size", "1000"));
+		long memory = PropsUtil.expandLong(props.getProperty("querycache.memory", "64M"));
+		BoundedCache.Policy policy = BoundedCache.Policy.valueOf(props.getProperty("querycache.policy", "lru").toUpperCase());
+		long ttl = Long.valueOf(props.getProperty("querycache.ttl", "0"));
+		String invalidation = props.getProperty("querycache.invalidation", "table");
+		if (!invalidation.equals("table") && !invalidation.equals("ttl")) {
+			throw new IllegalArgumentException("Unknown querycache.invalidation: " + invalidation);
+		}
+		invalidateOnWrite = invalidation.equals("table");
+		cache = new BoundedCache<>(size, memory, policy, TimeUnit.MILLISECONDS.toNanos(ttl), 16);
+	}
+
+	@Override
+	public Map<String, Map<String, Object>> querySimple(String tableName, List<QueryPredicate> predicates, int skip, int limit) {
+		if (transactionWrites.get() != null) {
+			return delegate.querySimple(tableName, predicates, skip, limit);
+		}
+		String queryKey = queryKey(tableName, predicates, skip, limit);
+		AtomicLong version = tableVersion(tableName);
+
+		CachedResult cached = cache.get(queryKey);
+		if (cached != null) {
+			if (cached.version == version.get()) {
+				return copy(cached.records);
+			} else if (invalidateOnWrite) {
+				cache.remove(queryKey);
+				staleDropped.incrementAndGet();
+			} else {
+				synchronized (staleness) {
+					staleness.record(System.nanoTime() - cached.created);
+				}
+				return copy(cached.records);
+			}
+		}
+
+		long generation = cache.generation(queryKey);
+		long currentVersion = version.get();
+		long start = System.nanoTime();
+		Map<String, Map<String, Object>> records = delegate.querySimple(tableName, predicates, skip, limit);
+		missNanos.addAndGet(System.nanoTime() - start);
+		loads.incrementAndGet();
+
+		long bytes = SizeEstimator.string(queryKey) + 64;
+		for (Map.Entry<String, Map<String, Object>> record : records.entrySet()) {
+			bytes += 32 + SizeEstimator.record(record.getKey(), record.getValue());
+		}
+		cache.put(queryKey, new CachedResult(copy(records), currentVersion, start), bytes, generation);
+		return records;
+	}
+
+	/**
+	 * @return Canonical form of a query: predicates sorted, values tagged with their type so 1 and "1" differ.
+	 */
+	static String queryKey(String tableName, List<QueryPredicate> predicates, int skip, int limit) {
+		List<String> terms = new ArrayList<>(predicates.size());
+		for (QueryPredicate predicate : predicates) {
+			Object value = predicate.value;
+			terms.add(predicate.fieldName + '\u0001' + predicate.operator + '\u0001'
+					+ (value == null ? "null" : value.getClass().getSimpleName() + ':' + value));
+		}
+		Collections.sort(terms);
+		StringBuilder key = new StringBuilder(tableName);
+		for (String term : terms) {
+			key.append('\u0000').append(term);
+		}
+		return key.append('\u0000').append(skip).append('\u0000').append(limit).toString();
+	}
+
+	private static Map<String, Map<String, Object>> copy(Map<String, Map<String, Object>> records) {
+		Map<String, Map<String, Object>> copy = new LinkedHashMap<>((int) (records.size() / 0.75f) + 1);
+		for (Map.Entry<String, Map<String, Object>> record : records.entrySet()) {
+			copy.put(record.getKey(), new HashMap<>(record.getValue()));
+		}
+		return copy;
+	}
+
+	private AtomicLong tableVersion(String tableName) {
+		AtomicLong version = tableVersions.get(tableName);
+		if (version == null) {
+			AtomicLong created = new AtomicLong(0);
+			version = tableVersions.putIfAbsent(tableName, created);
+			if (version == null) {
+				version = created;
+			}
+		}
+		return version;
+	}
+
+	private void written(String tableName) {
+		Set<String> writes = transactionWrites.get();
+		if (writes != null) {
+			writes.add(tableName);
+		} else {
+			tableVersion(tableName).incrementAndGet();
+		}
+	}
+
+	@Override
+	public String insert(String tableName, Map<String, Object> fields) {
+		String key = delegate.insert(tableName, fields);
+		written(tableName);
+		return key;
+	}
+
+	@Override
+	public void put(String tableName, String key, Map<String, Object> fields) {
+		delegate.put(tableName, key, fields);
+		written(tableName);
+	}
+
+	@Override
+	public void delete(String tableName, String key) {
+		delegate.delete(tableName, key);
+		written(tableName);
+	}
+
+	@Override
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		boolean patched = delegate.patch(tableName, key, set, unset);
+		written(tableName);
+		return patched;
+	}
+
+	@Override
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		Map<String, Long> values = delegate.increment(tableName, key, deltas);
+		written(tableName);
+		return values;
+	}
+
+	@Override
+	public void startTransaction() {
+		delegate.startTransaction();
+		transactionWrites.set(new HashSet<String>());
+	}
+
+	@Override
+	public void commitTransaction() {
+		Set<String> writes = transactionWrites.get();
+		transactionWrites.remove();
+		try {
+			delegate.commitTransaction();
+		} finally {
+			if (writes != null) {
+				for (String tableName : writes) {
+					tableVersion(tableName).incrementAndGet();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		transactionWrites.remove();
+		delegate.rollbackTransaction();
+	}
+
+	@Override
+	public void cleanup(String tableName) {
+		delegate.cleanup(tableName);
+		tableVersion(tableName).incrementAndGet();
+		cache.clear();
+	}
+
+	/**
+	 * Delegate's statistics followed by the query cache's, prefixed with 'querycache.'. Besides the counters of
+	 * {@link BoundedCache#getStats()} these are stale.dropped (stale results found on lookup), stale.served with
+	 * stale.p50.micros and stale.p99.micros (age of stale results served with invalidation=ttl), hit.permille,
+	 * miss.micros (mean delegate latency of a miss) and saved.millis.
+	 */
+	@Override
+	public Map<String, Long> getStats(String tableName) {
+		Map<String, Long> stats = new LinkedHashMap<>(delegate.getStats(tableName));
+		Map<String, Long> cacheStats = cache.getStats();
+		for (Map.Entry<String, Long> entry : cacheStats.entrySet()) {
+			stats.put("querycache." + entry.getKey(), entry.getValue());
+		}
+		long staleServed;
+		synchronized (staleness) {
+			staleServed = staleness.getCount();
+			stats.put("querycache.stale.dropped", staleDropped.get());
+			stats.put("querycache.stale.served", staleServed);
+			stats.put("querycache.stale.p50.micros", staleness.getPercentile(50) / 1000);
+			stats.put("querycache.stale.p99.micros", staleness.getPercentile(99) / 1000);
+		}
+		// a stale result found on lookup was counted as a hit by the cache, it is a miss to the caller
+		long hits = cacheStats.get("hits") - staleDropped.get();
+		long lookups = cacheStats.get("hits") + cacheStats.get("misses");
+		long loadCount = loads.get();
+		stats.put("querycache.hit.permille", lookups == 0 ? 0 : 1000 * hits / lookups);
+		stats.put("querycache.miss.micros", loadCount == 0 ? 0 : missNanos.get() / loadCount / 1000);
+		stats.put("querycache.saved.millis", loadCount == 0 ? 0 : hits * (missNanos.get() / loadCount) / 1000000);
+		return stats;
+	}
+
+	private static class CachedResult {
+		final Map<String, Map<String, Object>> records;
+		final long version;
+		final long created;
+
+		CachedResult(Map<String, Map<String, Object>> records, long version, long created) {
+			this.records = records;
+			this.version = version;
+			this.created = created;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package net.nosql_bench.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Rough heap size of cached records, for memory budgets and footprint reports. Assumes a 64-bit JVM with compressed
+ * references; strings are counted at two bytes per char.
+ */
+public class SizeEstimator {
+
+	private static final int MAP_OVERHEAD = 64;
+	private static final int MAP_ENTRY = 32;
+	private static final int STRING_OVERHEAD = 40;
+
+	public static long record(String key, Map<String, Object> fields) {
+		long size = string(key) + MAP_OVERHEAD;
+		if (fields != null) {
+			for (Map.Entry<String, Object> field : fields.entrySet()) {
+				size += MAP_ENTRY + string(field.getKey()) + value(field.getValue());
+			}
+		}
+		return size;
+	}
+
+	public static long string(String s) {
+		return STRING_OVERHEAD + 2L * s.length();
+	}
+
+	public static long value(Object value) {
+		if (value == null) {
+			return 0;
+		} else if (value instanceof String) {
+			return string((String) value);
+		} else if (value instanceof Long || value instanceof Double) {
+			return 24;
+		} else if (value instanceof Collection) {
+			long size = MAP_OVERHEAD;
+			for (Object element : (Collection) value) {
+				size += 8 + value(element);
+			}
+			return size;
+		}
+		return 16;
+	}
+}
@@ -0,0 +1,435 @@
+package net.nosql_bench.cache;
+
+import net.nosql_bench.DelegatingDatabase;
+import net.nosql_bench.LatencyHistogram;
+import net.nosql_bench.PropsUtil;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind buffer in front of another database, see {@link DelegatingDatabase}: inserts, puts and deletes are
+ * acknowledged as soon as they are queued and written to the delegate later by background flusher threads. A write
+ * to a key that is still queued replaces the queued write, so a hot key is written once per flush instead of once per
+ * update. Writes are durable after {@link #flush()}.
+ * <p/>
+ * Every key is always handled by the same flusher, so writes to a key reach the delegate in order. A flusher writes
+ * its queue in batches of up to 'writebehind.batch' records, or whatever has been queued 'writebehind.linger'
+ * milliseconds after the first record of a batch. The delegate has no multi-record write, so a batch is written
+ * record by record. When 'writebehind.queue' records are queued, writers block until flushers catch up.
+ * <p/>
+ * Reads of a queued key return the queued write. Queries, patches, increments and transactions are not buffered:
+ * queries do not see queued writes, patches, increments and transactions flush all queued writes first, so a queued
+ * write can not overwrite a committed one later.
+ * Inserts need keys from {@link #createKey(String)}, with a delegate that does not support it they are written through.
+ * <p/>
+ * Flushers are started by the first write and stopped by {@link #cleanup(String)} and the next
+ * {@link #init(Properties)}, after writing what they have queued.
+ * <p/>
+ * Properties:
+ * <ul>
+ * <li>writebehind.queue - maximum number of queued records (default 10k)</li>
+ * <li>writebehind.batch - maximum number of records per batch (default 100)</li>
+ * <li>writebehind.linger - milliseconds a batch waits to fill up (default 10)</li>
+ * <li>writebehind.flushers - number of flusher threads (default 2)</li>
+ * </ul>
+ */
+public class WriteBehindDatabase extends DelegatingDatabase {
+
+	private final ConcurrentHashMap<String, PendingWrite> pending = new ConcurrentHashMap<>();
+	private Semaphore capacity;
+	private volatile Flusher[] flushers;
+	private int batch;
+	private long linger;
+	private int flusherCount;
+	private volatile boolean writeThroughInserts;
+
+	// set while the current thread is in a transaction, which bypasses the buffer
+	private final ThreadLocal<Boolean> transactionStarted = new ThreadLocal<>();
+
+	private final AtomicLong acknowledged = new AtomicLong(0);
+	private final AtomicLong coalesced = new AtomicLong(0);
+	private final AtomicLong backpressureNanos = new AtomicLong(0);
+	private final AtomicLong writtenThrough = new AtomicLong(0);
+
+	@Override
+	public void init(Properties props) {
+		if (flushers != null) {
+			flush();
+			stopFlushers();
+		}
+		super.init(props);
+		int queue = PropsUtil.expandInt(props.getProperty("writebehind.queue", "10k"));
+		batch = PropsUtil.expandInt(props.getProperty("writebehind.batch", "100"));
+		linger = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(props.getProperty("writebehind.linger", "10")));
+		flusherCount = PropsUtil.expandInt(props.getProperty("writebehind.flushers", "2"));
+		capacity = new Semaphore(queue);
+		writeThroughInserts = !delegate.supportsClientKeys();
+	}
+
+	private Flusher[] flushers() {
+		Flusher[] current = flushers;
+		return current != null ? current : startFlushers();
+	}
+
+	private synchronized Flusher[] startFlushers() {
+		if (flushers == null) {
+			Flusher[] started = new Flusher[flusherCount];
+			for (int i = 0; i < flusherCount; i++) {
+				started[i] = new Flusher(batch, linger);
+				Thread thread = new Thread(started[i], "write-behind-" + i);
+				thread.setDaemon(true);
+				started[i].thread = thread;
+				thread.start();
+			}
+			flushers = started;
+		}
+		return flushers;
+	}
+
+	/**
+	 * Stops the flushers once they have written what is queued. Writers must not be running.
+	 */
+	private synchronized void stopFlushers() {
+		if (flushers == null) {
+			return;
+		}
+		for (Flusher flusher : flushers) {
+			flusher.running = false;
+			LockSupport.unpark(flusher.thread);
+		}
+		for (Flusher flusher : flushers) {
+			try {
+				flusher.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while stopping write-behind flushers.", e);
+			}
+		}
+		flushers = null;
+	}
+
+	@Override
+	public String insert(String tableName, Map<String, Object> fields) {
+		if (!writeThroughInserts) {
+			String key = delegate.createKey(tableName);
+			enqueue(tableName, key, fields);
+			return key;
+		}
+		writtenThrough.incrementAndGet();
+		return delegate.insert(tableName, fields);
+	}
+
+	@Override
+	public void put(String tableName, String key, Map<String, Object> fields) {
+		enqueue(tableName, key, fields);
+	}
+
+	@Override
+	public void delete(String tableName, String key) {
+		enqueue(tableName, key, null);
+	}
+
+	/**
+	 * Queues a write, or replaces the queued write of the key if no flusher has taken it yet.
+	 *
+	 * @param fields Record to put, null to delete.
+	 */
+	private void enqueue(String tableName, String key, Map<String, Object> fields) {
+		if (transactionStarted.get() != null) {
+			if (fields != null) {
+				delegate.put(tableName, key, fields);
+			} else {
+				delegate.delete(tableName, key);
+			}
+			return;
+		}
+		Map<String, Object> copy = fields == null ? null : new HashMap<>(fields);
+		acknowledged.incrementAndGet();
+		while (true) {
+			PendingWrite current = pending.get(key);
+			if (current != null && current.replace(tableName, copy)) {
+				coalesced.incrementAndGet();
+				return;
+			}
+			if (!capacity.tryAcquire()) {
+				long start = System.nanoTime();
+				capacity.acquireUninterruptibly();
+				backpressureNanos.addAndGet(System.nanoTime() - start);
+			}
+			PendingWrite write = new PendingWrite(tableName, key, copy);
+			// a taken write stays pending until it is written, so reads see it
+			boolean queued = current == null ? pending.putIfAbsent(key, write) == null : pending.replace(key, current, write);
+			if (queued) {
+				flusher(key).enqueue(write);
+				return;
+			}
+			capacity.release();
+		}
+	}
+
+	private Flusher flusher(String key) {
+		Flusher[] current = flushers();
+		int hash = key.hashCode();
+		return current[((hash ^ (hash >>> 16)) & 0x7fffffff) % current.length];
+	}
+
+	@Override
+	public Map<String, Object> get(String key) {
+		PendingWrite write = transactionStarted.get() == null ? pending.get(key) : null;
+		if (write != null) {
+			Map<String, Object> fields = write.read();
+			return fields == null ? null : new HashMap<>(fields);
+		}
+		return delegate.get(key);
+	}
+
+	@Override
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		if (transactionStarted.get() == null) {
+			flush();
+		}
+		return delegate.patch(tableName, key, set, unset);
+	}
+
+	@Override
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		if (transactionStarted.get() == null) {
+			flush();
+		}
+		return delegate.increment(tableName, key, deltas);
+	}
+
+	@Override
+	public void startTransaction() {
+		flush();
+		delegate.startTransaction();
+		transactionStarted.set(Boolean.TRUE);
+	}
+
+	@Override
+	public void commitTransaction() {
+		transactionStarted.remove();
+		delegate.commitTransaction();
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		transactionStarted.remove();
+		delegate.rollbackTransaction();
+	}
+
+	/**
+	 * Waits until every write acknowledged before the call has been written to the delegate.
+	 */
+	@Override
+	public void flush() {
+		Flusher[] current = flushers;
+		if (current == null) {
+			delegate.flush();
+			return;
+		}
+		CountDownLatch barrier = new CountDownLatch(current.length);
+		for (Flusher flusher : current) {
+			flusher.enqueue(barrier);
+		}
+		try {
+			barrier.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while flushing write-behind buffer.", e);
+		}
+		delegate.flush();
+	}
+
+	@Override
+	public void cleanup(String tableName) {
+		flush();
+		stopFlushers();
+		delegate.cleanup(tableName);
+	}
+
+	/**
+	 * Delegate's statistics followed by the buffer's, prefixed with 'writebehind.': acknowledged writes, coalesced
+	 * writes (replaced while queued), durable records written to the delegate, failed writes, batches, pending
+	 * records, inserts written through because the delegate does not support client side keys, time writers were
+	 * blocked by a full queue, and percentiles of the lag between the first acknowledged write of a record and the
+	 * record becoming durable, since the flushers were started.
+	 */
+	@Override
+	public Map<String, Long> getStats(String tableName) {
+		Map<String, Long> stats = new LinkedHashMap<>(delegate.getStats(tableName));
+		LatencyHistogram lag = new LatencyHistogram();
+		long durable = 0;
+		long failed = 0;
+		long batches = 0;
+		Flusher[] current = flushers;
+		for (Flusher flusher : current == null ? new Flusher[0] : current) {
+			synchronized (flusher.lag) {
+				lag.add(flusher.lag);
+				durable += flusher.durable;
+				failed += flusher.failed;
+				batches += flusher.batches;
+			}
+		}
+		stats.put("writebehind.acknowledged", acknowledged.get());
+		stats.put("writebehind.coalesced", coalesced.get());
+		stats.put("writebehind.durable", durable);
+		stats.put("writebehind.failed", failed);
+		stats.put("writebehind.batches", batches);
+		stats.put("writebehind.pending", (long) pending.size());
+		stats.put("writebehind.written.through", writtenThrough.get());
+		stats.put("writebehind.backpressure.millis", backpressureNanos.get() / 1000000);
+		stats.put("writebehind.lag.p50.micros", lag.getPercentile(50) / 1000);
+		stats.put("writebehind.lag.p99.micros", lag.getPercentile(99) / 1000);
+		stats.put("writebehind.lag.p99.9.micros", lag.getPercentile(99.9) / 1000);
+		stats.put("writebehind.lag.max.micros", lag.getMax() / 1000);
+		return stats;
+	}
+
+	/**
+	 * Latest write of a key that is not yet durable. Once taken by a flusher it can no longer be replaced.
+	 */
+	private static class PendingWrite {
+		final String key;
+		final long acknowledged = System.nanoTime();
+		String tableName;
+		Map<String, Object> fields;
+		boolean taken;
+
+		PendingWrite(String tableName, String key, Map<String, Object> fields) {
+			this.tableName = tableName;
+			this.key = key;
+			this.fields = fields;
+		}
+
+		synchronized boolean replace(String tableName, Map<String, Object> fields) {
+			if (taken) {
+				return false;
+			}
+			this.tableName = tableName;
+			this.fields = fields;
+			return true;
+		}
+
+		synchronized Map<String, Object> read() {
+			return fields;
+		}
+
+		synchronized void take() {
+			taken = true;
+		}
+	}
+
+	/**
+	 * Writes the records queued for its keys in batches. The queue holds {@link PendingWrite}s and the
+	 * {@link CountDownLatch}es of flush barriers.
+	 */
+	private class Flusher implements Runnable {
+
+		final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+		final int batchSize;
+		final long lingerNanos;
+		volatile boolean idle;
+		volatile boolean running = true;
+		Thread thread;
+
+		// guarded by lag
+		final LatencyHistogram lag = new LatencyHistogram();
+		long durable, failed, batches;
+
+		Flusher(int batchSize, long lingerNanos) {
+			this.batchSize = batchSize;
+			this.lingerNanos = lingerNanos;
+		}
+
+		void enqueue(Object item) {
+			queue.offer(item);
+			if (idle) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				drain();
+			} finally {
+				// releases what the delegate holds for this thread, e.g. its connection
+				delegate.finish();
+			}
+		}
+
+		private void drain() {
+			List<PendingWrite> batch = new ArrayList<>(batchSize);
+			long batchStart = 0;
+			while (running || !queue.isEmpty() || !batch.isEmpty()) {
+				Object item = queue.poll();
+				if (item instanceof PendingWrite) {
+					if (batch.isEmpty()) {
+						batchStart = System.nanoTime();
+					}
+					batch.add((PendingWrite) item);
+					if (batch.size() >= batchSize) {
+						write(batch);
+					}
+				} else if (item instanceof CountDownLatch) {
+					write(batch);
+					((CountDownLatch) item).countDown();
+				} else if (!batch.isEmpty() && System.nanoTime() - batchStart >= lingerNanos) {
+					write(batch);
+				} else {
+					idle = true;
+					if (queue.isEmpty() && running) {
+						// writers unpark an idle flusher
+						if (batch.isEmpty()) {
+							LockSupport.park(this);
+						} else {
+							LockSupport.parkNanos(this, lingerNanos - (System.nanoTime() - batchStart));
+						}
+					}
+					idle = false;
+				}
+			}
+		}
+
+		private void write(List<PendingWrite> batch) {
+			if (batch.isEmpty()) {
+				return;
+			}
+			int written = 0;
+			int errors = 0;
+			for (PendingWrite write : batch) {
+				write.take();
+				try {
+					if (write.fields != null) {
+						delegate.put(write.tableName, write.key, write.fields);
+					} else {
+						delegate.delete(write.tableName, write.key);
+					}
+					written++;
+				} catch (RuntimeException e) {
+					errors++;
+				}
+				pending.remove(write.key, write);
+				capacity.release();
+			}
+			long now = System.nanoTime();
+			synchronized (lag) {
+				for (PendingWrite write : batch) {
+					lag.record(now - write.acknowledged);
+				}
+				durable += written;
+				failed += errors;
+				batches++;
+			}
+			batch.clear();
+		}
+	}
+}
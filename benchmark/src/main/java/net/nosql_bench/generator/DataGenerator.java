@@ -0,0 +1,111 @@
+package net.nosql_bench.generator;
+
+import net.nosql_bench.FieldDefinition;
+import net.nosql_bench.PropsUtil;
+
+import java.util.Properties;
+
+/**
+ * Generates field values for records. All values are drawn from pools generated once up front, so creating a record
+ * costs a few random numbers and map puts. The pools are immutable and shared, the random state is not: each thread
+ * gets its own {@link DataStream}, derived from the run seed and the thread index, so a run can be reproduced
+ * exactly by reusing its seed.
+ * <p/>
+ * Properties:
+ * <ul>
+ * <li>seed - run seed (default: current time, printed so it can be reused)</li>
+ * <li>data.pool.size - number of pre-generated values per field type (default 64k)</li>
+ * <li>data.fields - number of fields in records created by {@link DataStream#nextRecord()} (default 10)</li>
+ * <li>data.string.length.min, data.string.length.max - string length range (default 5 - 100)</li>
+ * <li>data.string.length.distribution - constant (always max), uniform (default) or zipfian (short strings are
+ * more common)</li>
+ * </ul>
+ */
+public class DataGenerator {
+
+	private final long seed;
+	private final int fieldCount;
+	private final String[] fieldNames;
+
+	// value pools indexed by FieldDefinition.FIELD_TYPE ordinal
+	private final Object[][] pools;
+
+	public DataGenerator(Properties props) {
+		String seedProperty = props.getProperty("seed");
+		seed = seedProperty == null ? System.nanoTime() : Long.valueOf(seedProperty);
+		int poolSize = PropsUtil.expandInt(props.getProperty("data.pool.size", "64k"));
+		fieldCount = PropsUtil.expandInt(props.getProperty("data.fields", "10"));
+		int minLength = PropsUtil.expandInt(props.getProperty("data.string.length.min", "5"));
+		int maxLength = PropsUtil.expandInt(props.getProperty("data.string.length.max", "100"));
+		String lengthDistribution = props.getProperty("data.string.length.distribution", "uniform");
+		if (minLength < 0 || maxLength < minLength) {
+			throw new IllegalArgumentException("String length range is invalid: " + minLength + " - " + maxLength);
+		}
+
+		fieldNames = new String[fieldCount];
+		for (int i = 0; i < fieldCount; i++) {
+			fieldNames[i] = "field" + i;
+		}
+
+		RandomStream random = new RandomStream(RandomStream.seed(seed, -1));
+		ZipfianKeyChooser zipfian = new ZipfianKeyChooser(random.nextLong(), 0.99, false);
+		pools = new Object[FieldDefinition.FIELD_TYPE.values().length][poolSize];
+		for (int i = 0; i < poolSize; i++) {
+			int length;
+			switch (lengthDistribution) {
+				case "constant":
+					length = maxLength;
+					break;
+				case "uniform":
+					length = minLength + random.nextInt(maxLength - minLength + 1);
+					break;
+				case "zipfian":
+					length = minLength + zipfian.nextRank(maxLength - minLength + 1);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown string length distribution: " + lengthDistribution);
+			}
+			pools[FieldDefinition.FIELD_TYPE.STRING.ordinal()][i] = randomString(random, length);
+			pools[FieldDefinition.FIELD_TYPE.LONG.ordinal()][i] = random.nextLong();
+			pools[FieldDefinition.FIELD_TYPE.INTEGER.ordinal()][i] = random.nextInt();
+			pools[FieldDefinition.FIELD_TYPE.DOUBLE.ordinal()][i] = random.nextDouble();
+			pools[FieldDefinition.FIELD_TYPE.SHORT.ordinal()][i] = (short) random.nextInt();
+			pools[FieldDefinition.FIELD_TYPE.BYTE.ordinal()][i] = (byte) random.nextInt();
+		}
+
+		System.out.println("Data generator: seed=" + seed + " pool=" + poolSize + " fields=" + fieldCount
+				+ " string.length=" + minLength + "-" + maxLength + " (" + lengthDistribution + ")");
+	}
+
+	private static String randomString(RandomStream random, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(chars);
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @param index Index of the thread, or of any other independent consumer.
+	 * @return The stream for given index, always the same sequence for the same run seed and index.
+	 */
+	public DataStream stream(int index) {
+		return new DataStream(this, RandomStream.seed(seed, index));
+	}
+
+	int getFieldCount() {
+		return fieldCount;
+	}
+
+	String getFieldName(int index) {
+		return fieldNames[index];
+	}
+
+	Object[] getPool(FieldDefinition.FIELD_TYPE type) {
+		return pools[type.ordinal()];
+	}
+}
@@ -0,0 +1,65 @@
+package net.nosql_bench.generator;
+
+import net.nosql_bench.FieldDefinition;
+import net.nosql_bench.Tester;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-thread source of random values and records, created by {@link DataGenerator#stream(int)}. Not thread safe.
+ */
+public class DataStream extends RandomStream {
+
+	private final DataGenerator generator;
+	private final Object[] strings;
+
+	DataStream(DataGenerator generator, long seed) {
+		super(seed);
+		this.generator = generator;
+		this.strings = generator.getPool(FieldDefinition.FIELD_TYPE.STRING);
+	}
+
+	/**
+	 * @return A string from the pool, with the configured length distribution.
+	 */
+	public String nextString() {
+		return (String) strings[nextInt(strings.length)];
+	}
+
+	/**
+	 * @return A word from the {@link Tester} vocabulary, which is the same in every run.
+	 */
+	public String nextWord() {
+		return Tester.word(nextInt(Tester.wordCount()));
+	}
+
+	public Object nextValue(FieldDefinition.FIELD_TYPE type) {
+		Object[] pool = generator.getPool(type);
+		return pool[nextInt(pool.length)];
+	}
+
+	/**
+	 * @return Record with a pooled value of the declared type for every field.
+	 */
+	public Map<String, Object> nextRecord(List<FieldDefinition> fields) {
+		Map<String, Object> record = new HashMap<>((int) (fields.size() / 0.75f) + 1);
+		for (FieldDefinition field : fields) {
+			record.put(field.fieldName, nextValue(field.fieldType));
+		}
+		return record;
+	}
+
+	/**
+	 * @return Record with 'data.fields' string fields named field0, field1, ...
+	 */
+	public Map<String, Object> nextRecord() {
+		int fieldCount = generator.getFieldCount();
+		Map<String, Object> record = new HashMap<>((int) (fieldCount / 0.75f) + 2);
+		for (int i = 0; i < fieldCount; i++) {
+			record.put(generator.getFieldName(i), nextString());
+		}
+		return record;
+	}
+}
@@ -0,0 +1,29 @@
+package net.nosql_bench.generator;
+
+/**
+ * A fraction of operations goes to a fraction of keys (e.g. 80% of operations on 20% of keys), uniformly within
+ * the hot and within the cold set. The hot set are the first records loaded.
+ */
+public class HotspotKeyChooser extends KeyChooser {
+
+	private final double hotKeys;
+	private final double hotOperations;
+
+	public HotspotKeyChooser(long seed, double hotKeys, double hotOperations) {
+		super(seed);
+		if (hotKeys < 0 || hotKeys > 1 || hotOperations < 0 || hotOperations > 1) {
+			throw new IllegalArgumentException("Hotspot fractions must be in range 0 - 1.");
+		}
+		this.hotKeys = hotKeys;
+		this.hotOperations = hotOperations;
+	}
+
+	@Override
+	public int next(int count) {
+		int hotCount = Math.max(1, (int) (count * hotKeys));
+		if (hotCount >= count || nextDouble() < hotOperations) {
+			return nextInt(hotCount);
+		}
+		return hotCount + nextInt(count - hotCount);
+	}
+}
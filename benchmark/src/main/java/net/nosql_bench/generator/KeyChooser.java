@@ -0,0 +1,72 @@
+package net.nosql_bench.generator;
+
+import java.util.Properties;
+
+/**
+ * Chooses which of the records loaded so far an operation works on. Records are identified by their insertion
+ * index in range [0, count), the caller maps the index to a key.
+ * <p/>
+ * A chooser is used by a single thread: it owns its {@link RandomStream}, so choosing needs no synchronization and
+ * allocates nothing. Create one chooser per thread with a different seed.
+ * <p/>
+ * Properties:
+ * <ul>
+ * <li>key.distribution - uniform (default), sequential, zipfian, hotspot or latest</li>
+ * <li>key.zipfian.theta - skew of zipfian and latest distributions, 0 &lt; theta &lt; 1 (default 0.99)</li>
+ * <li>key.hotspot.keys - fraction of keys that are hot (default 0.2)</li>
+ * <li>key.hotspot.operations - fraction of operations that go to hot keys (default 0.8)</li>
+ * </ul>
+ */
+public abstract class KeyChooser {
+
+	private final RandomStream random;
+
+	protected KeyChooser(long seed) {
+		this.random = new RandomStream(seed);
+	}
+
+	/**
+	 * @param count Number of records loaded so far, must be at least 1.
+	 * @return Index of the chosen record in range [0, count).
+	 */
+	public abstract int next(int count);
+
+	public static KeyChooser fromProperties(Properties props, long seed) {
+		String distribution = props.getProperty("key.distribution", "uniform");
+		double theta = Double.valueOf(props.getProperty("key.zipfian.theta", "0.99"));
+		switch (distribution) {
+			case "uniform":
+				return new UniformKeyChooser(seed);
+			case "sequential":
+				return new SequentialKeyChooser(seed);
+			case "zipfian":
+				return new ZipfianKeyChooser(seed, theta, true);
+			case "latest":
+				return new LatestKeyChooser(seed, theta);
+			case "hotspot":
+				return new HotspotKeyChooser(seed,
+						Double.valueOf(props.getProperty("key.hotspot.keys", "0.2")),
+						Double.valueOf(props.getProperty("key.hotspot.operations", "0.8")));
+			default:
+				throw new IllegalArgumentException("Unknown key distribution: " + distribution);
+		}
+	}
+
+	protected final long nextLong() {
+		return random.nextLong();
+	}
+
+	/**
+	 * @return Uniformly distributed value in range [0, 1).
+	 */
+	protected final double nextDouble() {
+		return random.nextDouble();
+	}
+
+	/**
+	 * @return Uniformly distributed value in range [0, bound).
+	 */
+	protected final int nextInt(int bound) {
+		return random.nextInt(bound);
+	}
+}
@@ -0,0 +1,19 @@
+package net.nosql_bench.generator;
+
+/**
+ * The most recently inserted records are the most popular, popularity falls off with zipfian distribution.
+ */
+public class LatestKeyChooser extends KeyChooser {
+
+	private final ZipfianKeyChooser zipfian;
+
+	public LatestKeyChooser(long seed, double theta) {
+		super(seed);
+		zipfian = new ZipfianKeyChooser(seed, theta, false);
+	}
+
+	@Override
+	public int next(int count) {
+		return count - 1 - zipfian.nextRank(count);
+	}
+}
@@ -0,0 +1,48 @@
+package net.nosql_bench.generator;
+
+/**
+ * Deterministic stream of pseudo random numbers (SplitMix64) for use by a single thread.
+ * <p/>
+ * Unlike java.util.Random it has no atomic update per call, so threads with their own stream never contend,
+ * and the same seed always gives the same sequence.
+ */
+public class RandomStream {
+
+	private long state;
+
+	public RandomStream(long seed) {
+		this.state = seed;
+	}
+
+	public final long nextLong() {
+		long z = (state += 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public final int nextInt() {
+		return (int) (nextLong() >>> 32);
+	}
+
+	/**
+	 * @return Uniformly distributed value in range [0, bound).
+	 */
+	public final int nextInt(int bound) {
+		return (int) (((nextLong() >>> 33) * bound) >>> 31);
+	}
+
+	/**
+	 * @return Uniformly distributed value in range [0, 1).
+	 */
+	public final double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Derives independent seeds from a single one, e.g. a seed per thread from the run seed.
+	 */
+	public static long seed(long seed, int index) {
+		return new RandomStream(seed ^ (0x632BE59BD9B4E019L * (index + 1))).nextLong();
+	}
+}
@@ -0,0 +1,19 @@
+package net.nosql_bench.generator;
+
+/**
+ * Walks over all records in insertion order, wrapping around at the end. Each thread starts at a random position.
+ */
+public class SequentialKeyChooser extends KeyChooser {
+
+	private long position;
+
+	public SequentialKeyChooser(long seed) {
+		super(seed);
+		position = nextLong() >>> 1;
+	}
+
+	@Override
+	public int next(int count) {
+		return (int) (position++ % count);
+	}
+}
@@ -0,0 +1,16 @@
+package net.nosql_bench.generator;
+
+/**
+ * All records are equally likely.
+ */
+public class UniformKeyChooser extends KeyChooser {
+
+	public UniformKeyChooser(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public int next(int count) {
+		return nextInt(count);
+	}
+}
@@ -0,0 +1,109 @@
+package net.nosql_bench.generator;
+
+/**
+ * Zipfian distribution over record ranks, using the algorithm from Gray et al., "Quickly Generating Billion-Record
+ * Synthetic Databases" (as YCSB does). Rank 0 is the most popular.
+ * <p/>
+ * When scrambled, ranks are hashed over the key space, so popular records are spread out instead of being the first
+ * ones loaded. When the record count grows, the zeta constant is extended incrementally.
+ */
+public class ZipfianKeyChooser extends KeyChooser {
+
+	private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+	private static final long FNV_PRIME = 0x100000001B3L;
+
+	// last computed zeta, so threads starting with the same record count compute it only once
+	private static int cachedCount;
+	private static double cachedTheta;
+	private static double cachedZeta;
+
+	private final double theta;
+	private final double alpha;
+	private final double zeta2;
+	private final double halfPowTheta;
+	private final boolean scrambled;
+
+	private int count;
+	private double zetan;
+	private double eta;
+
+	public ZipfianKeyChooser(long seed, double theta, boolean scrambled) {
+		super(seed);
+		if (theta <= 0 || theta >= 1) {
+			throw new IllegalArgumentException("Zipfian theta must be in range (0, 1), was " + theta);
+		}
+		this.theta = theta;
+		this.scrambled = scrambled;
+		alpha = 1.0 / (1.0 - theta);
+		halfPowTheta = Math.pow(0.5, theta);
+		zeta2 = 1 + halfPowTheta;
+	}
+
+	@Override
+	public int next(int count) {
+		int rank = nextRank(count);
+		return scrambled ? (int) (fnv(rank) % count) : rank;
+	}
+
+	/**
+	 * @return Zipfian distributed rank in range [0, count)
+	 */
+	int nextRank(int count) {
+		if (count != this.count) {
+			resize(count);
+		}
+		if (count == 1) {
+			return 0;
+		}
+		double u = nextDouble();
+		double uz = u * zetan;
+		if (uz < 1.0) {
+			return 0;
+		}
+		if (uz < 1.0 + halfPowTheta) {
+			return 1;
+		}
+		int rank = (int) (count * Math.pow(eta * u - eta + 1, alpha));
+		return Math.min(rank, count - 1);
+	}
+
+	private void resize(int newCount) {
+		if (newCount > count && count > 0) {
+			zetan += zeta(count, newCount, theta);
+		} else {
+			zetan = zeta(newCount, theta);
+		}
+		count = newCount;
+		eta = (1 - Math.pow(2.0 / count, 1 - theta)) / (1 - zeta2 / zetan);
+	}
+
+	private static synchronized double zeta(int count, double theta) {
+		if (count != cachedCount || theta != cachedTheta) {
+			cachedZeta = zeta(0, count, theta);
+			cachedCount = count;
+			cachedTheta = theta;
+		}
+		return cachedZeta;
+	}
+
+	/**
+	 * @return Sum of 1/i^theta for i in range (from, to]
+	 */
+	private static double zeta(int from, int to, double theta) {
+		double sum = 0;
+		for (int i = from + 1; i <= to; i++) {
+			sum += 1 / Math.pow(i, theta);
+		}
+		return sum;
+	}
+
+	private static long fnv(long value) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < 8; i++) {
+			hash ^= value & 0xFF;
+			hash *= FNV_PRIME;
+			value >>>= 8;
+		}
+		return hash & Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,43 @@
+package net.nosql_bench.retry;
+
+/**
+ * Scales the backoff with the contention this thread observes instead of with the attempt number alone.
+ * <p/>
+ * Keeps an exponentially weighted moving average p of the abort rate over recent attempts. With abort rate p
+ * each commit needs p / (1 - p) retries on average, so the jittered backoff ceiling is
+ * base * (1 + attempt * p / (1 - p)), capped at max. Without contention retries are almost immediate,
+ * and the backoff grows quickly once most attempts abort.
+ */
+public class AdaptiveBackoffPolicy extends RetryPolicy {
+
+	// weight of the latest attempt in the moving average
+	private static final double ALPHA = 0.05;
+
+	private final long base;
+	private final long max;
+	private double abortRate;
+
+	public AdaptiveBackoffPolicy(long seed, int maxAttempts, long base, long max) {
+		super(seed, maxAttempts);
+		this.base = base;
+		this.max = max;
+	}
+
+	@Override
+	protected void aborted() {
+		abortRate += ALPHA * (1 - abortRate);
+	}
+
+	@Override
+	public void committed(int attempts) {
+		super.committed(attempts);
+		abortRate -= ALPHA * abortRate;
+	}
+
+	@Override
+	protected long backoff(int attempt) {
+		double retriesPerCommit = abortRate / Math.max(1 - abortRate, 0.001);
+		double ceiling = Math.min(max, base * (1 + attempt * retriesPerCommit));
+		return (long) (nextDouble() * ceiling);
+	}
+}
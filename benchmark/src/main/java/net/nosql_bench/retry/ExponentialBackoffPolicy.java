@@ -0,0 +1,27 @@
+package net.nosql_bench.retry;
+
+/**
+ * Doubles the backoff ceiling with every failed attempt, up to a maximum, and waits a uniformly random time
+ * below the ceiling ("full jitter"), so colliding threads spread out instead of retrying in lockstep.
+ */
+public class ExponentialBackoffPolicy extends RetryPolicy {
+
+	private final long base;
+	private final long max;
+
+	public ExponentialBackoffPolicy(long seed, int maxAttempts, long base, long max) {
+		super(seed, maxAttempts);
+		this.base = base;
+		this.max = max;
+	}
+
+	@Override
+	protected long backoff(int attempt) {
+		long ceiling = base;
+		for (int i = 1; i < attempt && ceiling < max; i++) {
+			ceiling <<= 1;
+		}
+		ceiling = Math.min(ceiling, max);
+		return (long) (nextDouble() * ceiling);
+	}
+}
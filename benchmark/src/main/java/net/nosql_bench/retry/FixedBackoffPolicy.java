@@ -0,0 +1,19 @@
+package net.nosql_bench.retry;
+
+/**
+ * Waits the same time before every retry.
+ */
+public class FixedBackoffPolicy extends RetryPolicy {
+
+	private final long backoff;
+
+	public FixedBackoffPolicy(long seed, int maxAttempts, long backoff) {
+		super(seed, maxAttempts);
+		this.backoff = backoff;
+	}
+
+	@Override
+	protected long backoff(int attempt) {
+		return backoff;
+	}
+}
@@ -0,0 +1,16 @@
+package net.nosql_bench.retry;
+
+/**
+ * Retries right away, the behaviour of the transactional workloads before retry policies were added.
+ */
+public class ImmediateRetryPolicy extends RetryPolicy {
+
+	public ImmediateRetryPolicy(long seed, int maxAttempts) {
+		super(seed, maxAttempts);
+	}
+
+	@Override
+	protected long backoff(int attempt) {
+		return 0;
+	}
+}
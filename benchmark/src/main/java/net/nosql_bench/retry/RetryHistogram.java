@@ -0,0 +1,66 @@
+package net.nosql_bench.retry;
+
+/**
+ * Number of transactions by the number of retries they needed to commit, plus the transactions given up.
+ * <p/>
+ * Not thread safe: each thread records into its own histogram and they are merged with {@link #add(RetryHistogram)}.
+ */
+public class RetryHistogram {
+
+	// transactions with more retries are counted in the last bucket
+	private static final int BUCKETS = 33;
+
+	private final long[] counts = new long[BUCKETS];
+	private long commits;
+	private long retries;
+	private long gaveUp;
+
+	public void record(int retries) {
+		counts[Math.min(retries, BUCKETS - 1)]++;
+		commits++;
+		this.retries += retries;
+	}
+
+	public void gaveUp() {
+		gaveUp++;
+	}
+
+	public void add(RetryHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		commits += other.commits;
+		retries += other.retries;
+		gaveUp += other.gaveUp;
+	}
+
+	public long getCommits() {
+		return commits;
+	}
+
+	public long getGaveUp() {
+		return gaveUp;
+	}
+
+	/**
+	 * @return Retries of committed transactions, divided by their number.
+	 */
+	public double getRetriesPerCommit() {
+		return commits == 0 ? 0 : (double) retries / commits;
+	}
+
+	/**
+	 * @return Summary with the number of commits for each number of retries that occurred, e.g. "0:950 1:45 3:5".
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("commits=").append(commits).append(" gave_up=").append(gaveUp).append(" retries:");
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts[i] > 0) {
+				sb.append(' ').append(i).append(i == BUCKETS - 1 ? "+:" : ":").append(counts[i]);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,120 @@
+package net.nosql_bench.retry;
+
+import net.nosql_bench.generator.RandomStream;
+
+import java.util.Properties;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides whether and after how long a transaction that collided is retried.
+ * <p/>
+ * A policy is used by a single thread, like {@link net.nosql_bench.generator.KeyChooser}: create one per
+ * transactional task with a different seed. Usage:
+ * <pre>
+ * int attempt = 1;
+ * while (!commit()) {
+ *     if (!policy.retry(attempt++)) { give up }
+ * }
+ * policy.committed(attempt);
+ * </pre>
+ * Properties:
+ * <ul>
+ * <li>retry.policy - immediate (default), fixed, exponential or adaptive</li>
+ * <li>retry.max.attempts - attempts per transaction including the first one, 0 for no limit (default 0)</li>
+ * <li>retry.backoff.base - backoff of fixed policy and initial backoff of the others, in microseconds (default 100)</li>
+ * <li>retry.backoff.max - longest backoff, in microseconds (default 100000)</li>
+ * </ul>
+ */
+public abstract class RetryPolicy {
+
+	private final RandomStream random;
+	private final int maxAttempts;
+	private final RetryHistogram histogram = new RetryHistogram();
+
+	protected RetryPolicy(long seed, int maxAttempts) {
+		this.random = new RandomStream(seed);
+		this.maxAttempts = maxAttempts;
+	}
+
+	public static RetryPolicy fromProperties(Properties props, long seed) {
+		String policy = props.getProperty("retry.policy", "immediate");
+		int maxAttempts = Integer.valueOf(props.getProperty("retry.max.attempts", "0"));
+		long base = 1000L * Long.valueOf(props.getProperty("retry.backoff.base", "100"));
+		long max = 1000L * Long.valueOf(props.getProperty("retry.backoff.max", "100000"));
+		switch (policy) {
+			case "immediate":
+				return new ImmediateRetryPolicy(seed, maxAttempts);
+			case "fixed":
+				return new FixedBackoffPolicy(seed, maxAttempts, base);
+			case "exponential":
+				return new ExponentialBackoffPolicy(seed, maxAttempts, base, max);
+			case "adaptive":
+				return new AdaptiveBackoffPolicy(seed, maxAttempts, base, max);
+			default:
+				throw new IllegalArgumentException("Unknown retry policy: " + policy);
+		}
+	}
+
+	/**
+	 * Called after an attempt collided and was rolled back. Waits for the backoff if the transaction is retried.
+	 *
+	 * @param attempt Number of the failed attempt, starting with 1.
+	 * @return False if the transaction should be given up.
+	 */
+	public boolean retry(int attempt) {
+		aborted();
+		if (maxAttempts > 0 && attempt >= maxAttempts) {
+			histogram.gaveUp();
+			return false;
+		}
+		long nanos = backoff(attempt);
+		if (nanos > 0) {
+			LockSupport.parkNanos(nanos);
+		}
+		return true;
+	}
+
+	/**
+	 * Called instead of {@link #retry(int)} when the caller gives up a collided transaction for its own reason,
+	 * e.g. a deadline, so the histogram still counts every transaction given up.
+	 */
+	public void giveUp() {
+		aborted();
+		histogram.gaveUp();
+	}
+
+	/**
+	 * Called after a transaction committed.
+	 *
+	 * @param attempts Number of attempts it took, including the successful one.
+	 */
+	public void committed(int attempts) {
+		histogram.record(attempts - 1);
+	}
+
+	/**
+	 * @return Retries of the transactions committed or given up by this thread.
+	 */
+	public RetryHistogram getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * @param attempt Number of the failed attempt, starting with 1.
+	 * @return Nanoseconds to wait before the next attempt.
+	 */
+	protected abstract long backoff(int attempt);
+
+	/**
+	 * Hook for policies that adapt to the observed abort rate.
+	 */
+	protected void aborted() {
+	}
+
+	/**
+	 * @return Uniformly distributed value in range [0, 1).
+	 */
+	protected final double nextDouble() {
+		return random.nextDouble();
+	}
+}
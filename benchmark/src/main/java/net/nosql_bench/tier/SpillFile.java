@@ -0,0 +1,152 @@
+package net.nosql_bench.tier;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * File of byte arrays, mapped into memory in segments of {@link #SEGMENT_SIZE} as it grows. Each entry is a slot:
+ * its capacity and length as ints followed by its bytes, and never spans two segments. Slots released by
+ * {@link #free(long)} are reused by later writes that fit, the smallest fitting slot first, so the file grows
+ * only with the live data. {@link #clear()} starts at the beginning again. Not thread safe.
+ */
+public class SpillFile {
+
+	public static final int SEGMENT_SIZE = 1 << 26; // 64MB
+
+	private final FileChannel channel;
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	private long end;
+	// offsets of freed slots by capacity
+	private final TreeMap<Integer, ArrayDeque<Long>> free = new TreeMap<>();
+	private long freeBytes;
+
+	/**
+	 * Creates the file, replacing an existing one.
+	 */
+	public SpillFile(Path path) {
+		try {
+			if (path.getParent() != null) {
+				Files.createDirectories(path.getParent());
+			}
+			// deleted rather than truncated, a previous instance may still have it mapped
+			Files.deleteIfExists(path);
+			channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not create spill file: " + path, e);
+		}
+	}
+
+	/**
+	 * Writes the bytes into a free slot they fit in, or appends a new slot.
+	 *
+	 * @return Offset of the entry.
+	 */
+	public long write(byte[] bytes) {
+		if (8 + bytes.length > SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Entry of " + bytes.length + " bytes exceeds the segment size.");
+		}
+		Map.Entry<Integer, ArrayDeque<Long>> fitting = free.ceilingEntry(bytes.length);
+		long offset;
+		int capacity;
+		if (fitting != null) {
+			capacity = fitting.getKey();
+			offset = fitting.getValue().poll();
+			if (fitting.getValue().isEmpty()) {
+				free.remove(capacity);
+			}
+			freeBytes -= 8 + capacity;
+		} else {
+			capacity = bytes.length;
+			offset = end;
+			if (offset / SEGMENT_SIZE != (offset + 8 + capacity - 1) / SEGMENT_SIZE) {
+				offset = (offset / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+			}
+			end = offset + 8 + capacity;
+		}
+		ByteBuffer segment = slot(offset);
+		segment.putInt(capacity);
+		segment.putInt(bytes.length);
+		segment.put(bytes);
+		return offset;
+	}
+
+	public byte[] read(long offset) {
+		ByteBuffer segment = slot(offset);
+		segment.getInt();
+		byte[] bytes = new byte[segment.getInt()];
+		segment.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Releases the entry's slot for reuse. The entry must not be read afterwards.
+	 */
+	public void free(long offset) {
+		int capacity = slot(offset).getInt();
+		ArrayDeque<Long> offsets = free.get(capacity);
+		if (offsets == null) {
+			offsets = new ArrayDeque<>();
+			free.put(capacity, offsets);
+		}
+		offsets.add(offset);
+		freeBytes += 8 + capacity;
+	}
+
+	private ByteBuffer slot(long offset) {
+		ByteBuffer segment = segment((int) (offset / SEGMENT_SIZE)).duplicate();
+		segment.position((int) (offset % SEGMENT_SIZE));
+		return segment;
+	}
+
+	/**
+	 * @return Bytes used by slots since the file was created or cleared, including free ones.
+	 */
+	public long size() {
+		return end;
+	}
+
+	/**
+	 * @return Bytes of free slots, waiting to be reused.
+	 */
+	public long freeSize() {
+		return freeBytes;
+	}
+
+	/**
+	 * Drops all entries. The file keeps its size and mapped segments are reused.
+	 */
+	public void clear() {
+		end = 0;
+		free.clear();
+		freeBytes = 0;
+	}
+
+	private MappedByteBuffer segment(int n) {
+		while (segments.size() <= n) {
+			try {
+				segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+			} catch (IOException e) {
+				throw new RuntimeException("Could not map spill file segment " + segments.size(), e);
+			}
+		}
+		return segments.get(n);
+	}
+
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
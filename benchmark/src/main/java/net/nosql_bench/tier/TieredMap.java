@@ -0,0 +1,357 @@
+package net.nosql_bench.tier;
+
+import net.nosql_bench.LatencyHistogram;
+import net.nosql_bench.cache.BoundedCache;
+import net.nosql_bench.cache.FrequencySketch;
+
+import java.util.*;
+
+/**
+ * Map keeping at most 'maxHeapEntries' values on heap, the hot tier, and the rest encoded in a {@link SpillFile},
+ * the cold tier. Keys of both tiers stay on heap. When the hot tier is full its least recently used value is
+ * spilled; it is written only if it may have changed since it was last read back, otherwise its copy in the file
+ * is still current.
+ * <p/>
+ * Values are read back from the cold tier on demand:
+ * <ul>
+ * <li>{@link #get(Object)} - for values the caller may change in place: always moved to the hot tier</li>
+ * <li>{@link #read(Object)} - for values only read: moved to the hot tier with policy LRU, and with policy
+ * TINYLFU only if requested more often than the value it would evict, so one-off reads do not flush the working set</li>
+ * </ul>
+ * Iterating keys does not read back values, iterating values decodes cold values without moving them.
+ * A value's copy in the file is freed when the value is changed, replaced or removed, and its slot is reused by
+ * later spills. Not thread safe.
+ */
+public class TieredMap<K, V> extends AbstractMap<K, V> {
+
+	/**
+	 * Encodes values for the cold tier.
+	 */
+	public interface Codec<K, V> {
+		byte[] encode(V value);
+
+		V decode(K key, byte[] bytes);
+	}
+
+	private static final long NONE = -1;
+
+	private final int maxHeapEntries;
+	private final FrequencySketch sketch;
+	private final SpillFile file;
+	private final Codec<K, V> codec;
+
+	// access ordered, the eldest entry is spilled first
+	private final LinkedHashMap<K, Hot<V>> hot = new LinkedHashMap<>(16, 0.75f, true);
+	// offsets of cold values in the file
+	private final HashMap<K, Long> cold = new HashMap<>();
+
+	// statistics, reset by clear()
+	private long hits;
+	private long misses;
+	private long rejections;
+	private long readBacks;
+	private long spills;
+	private long spillBytes;
+	private long statsStart;
+	private LatencyHistogram hotLatency;
+	private LatencyHistogram coldLatency;
+
+	private static class Hot<V> {
+		final V value;
+		// offset of the copy in the file, or NONE
+		long offset;
+		// the copy is stale and the value must be written again when spilled
+		boolean changed;
+
+		Hot(V value, long offset, boolean changed) {
+			this.value = value;
+			this.offset = offset;
+			this.changed = changed;
+		}
+	}
+
+	public TieredMap(int maxHeapEntries, BoundedCache.Policy policy, SpillFile file, Codec<K, V> codec) {
+		this.maxHeapEntries = maxHeapEntries;
+		this.sketch = policy == BoundedCache.Policy.TINYLFU ? new FrequencySketch(maxHeapEntries) : null;
+		this.file = file;
+		this.codec = codec;
+		resetStats();
+	}
+
+	private void resetStats() {
+		hits = 0;
+		misses = 0;
+		rejections = 0;
+		readBacks = 0;
+		spills = 0;
+		spillBytes = 0;
+		statsStart = System.nanoTime();
+		hotLatency = new LatencyHistogram();
+		coldLatency = new LatencyHistogram();
+	}
+
+	/**
+	 * Returns a value that the caller will not change, recording the latency of its tier.
+	 */
+	public V read(K key) {
+		long start = System.nanoTime();
+		if (sketch != null) {
+			sketch.increment(key.hashCode());
+		}
+		Hot<V> entry = hot.get(key);
+		if (entry != null) {
+			hits++;
+			hotLatency.record(System.nanoTime() - start);
+			return entry.value;
+		}
+		Long offset = cold.get(key);
+		if (offset == null) {
+			return null;
+		}
+		misses++;
+		readBacks++;
+		V value = codec.decode(key, file.read(offset));
+		if (admit(key)) {
+			cold.remove(key);
+			hot.put(key, new Hot<>(value, offset, false));
+			evict();
+		} else {
+			rejections++;
+		}
+		coldLatency.record(System.nanoTime() - start);
+		return value;
+	}
+
+	private boolean admit(K key) {
+		if (sketch == null || hot.size() < maxHeapEntries) {
+			return true;
+		}
+		K victim = hot.keySet().iterator().next();
+		return sketch.frequency(key.hashCode()) > sketch.frequency(victim.hashCode());
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<K, Hot<V>>> eldest = hot.entrySet().iterator();
+		while (hot.size() > maxHeapEntries) {
+			Map.Entry<K, Hot<V>> entry = eldest.next();
+			long offset = entry.getValue().offset;
+			if (entry.getValue().changed) {
+				byte[] bytes = codec.encode(entry.getValue().value);
+				if (offset != NONE) {
+					// freed first, so a value that still fits is written over its stale copy
+					file.free(offset);
+				}
+				offset = file.write(bytes);
+				spills++;
+				spillBytes += bytes.length;
+			}
+			cold.put(entry.getKey(), offset);
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Returns a value the caller may change in place, so it is moved to the hot tier and written again when spilled.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		Hot<V> entry = hot.get(key);
+		if (entry != null) {
+			entry.changed = true;
+			return entry.value;
+		}
+		Long offset = cold.remove(key);
+		if (offset == null) {
+			return null;
+		}
+		readBacks++;
+		V value = codec.decode((K) key, file.read(offset));
+		hot.put((K) key, new Hot<>(value, offset, true));
+		evict();
+		return value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return hot.containsKey(key) || cold.containsKey(key);
+	}
+
+	@Override
+	public V put(K key, V value) {
+		V previous = remove(key);
+		hot.put(key, new Hot<>(value, NONE, true));
+		evict();
+		return previous;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		Hot<V> entry = hot.remove(key);
+		if (entry != null) {
+			if (entry.offset != NONE) {
+				file.free(entry.offset);
+			}
+			return entry.value;
+		}
+		Long offset = cold.remove(key);
+		if (offset == null) {
+			return null;
+		}
+		V value = codec.decode((K) key, file.read(offset));
+		file.free(offset);
+		return value;
+	}
+
+	@Override
+	public int size() {
+		return hot.size() + cold.size();
+	}
+
+	/**
+	 * Removes all values and starts the file and the statistics anew.
+	 */
+	@Override
+	public void clear() {
+		hot.clear();
+		cold.clear();
+		file.clear();
+		resetStats();
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return new AbstractSet<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				return concat(hot.keySet().iterator(), cold.keySet().iterator());
+			}
+
+			@Override
+			public int size() {
+				return TieredMap.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				final Iterator<Hot<V>> hotValues = hot.values().iterator();
+				final Iterator<Map.Entry<K, Long>> coldValues = cold.entrySet().iterator();
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return hotValues.hasNext() || coldValues.hasNext();
+					}
+
+					@Override
+					public V next() {
+						if (hotValues.hasNext()) {
+							return hotValues.next().value;
+						}
+						long start = System.nanoTime();
+						Map.Entry<K, Long> entry = coldValues.next();
+						V value = codec.decode(entry.getKey(), file.read(entry.getValue()));
+						readBacks++;
+						coldLatency.record(System.nanoTime() - start);
+						return value;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return TieredMap.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				final Iterator<K> keys = keySet().iterator();
+				final Iterator<V> values = values().iterator();
+				return new Iterator<Map.Entry<K, V>>() {
+					@Override
+					public boolean hasNext() {
+						return keys.hasNext();
+					}
+
+					@Override
+					public Map.Entry<K, V> next() {
+						return new AbstractMap.SimpleImmutableEntry<>(keys.next(), values.next());
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return TieredMap.this.size();
+			}
+		};
+	}
+
+	private static <T> Iterator<T> concat(final Iterator<T> first, final Iterator<T> second) {
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return first.hasNext() || second.hasNext();
+			}
+
+			@Override
+			public T next() {
+				return first.hasNext() ? first.next() : second.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Entries per tier, hits and misses of {@link #read(Object)}, read-backs not moved to the hot tier by TinyLFU,
+	 * values spilled and read back by reads, gets and scans of values with their rates per second, bytes written to
+	 * the file, size and free bytes of the file, and latency of {@link #read(Object)} and of cold values in scans
+	 * per tier.
+	 */
+	public Map<String, Long> getStats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		long seconds = Math.max(1, (System.nanoTime() - statsStart) / 1000000000L);
+		stats.put("tier.hot.entries", (long) hot.size());
+		stats.put("tier.cold.entries", (long) cold.size());
+		stats.put("tier.hits", hits);
+		stats.put("tier.misses", misses);
+		stats.put("tier.hit.permille", hits + misses == 0 ? 0 : 1000 * hits / (hits + misses));
+		stats.put("tier.rejections", rejections);
+		stats.put("tier.spills", spills);
+		stats.put("tier.spill.rate", spills / seconds);
+		stats.put("tier.readbacks", readBacks);
+		stats.put("tier.readback.rate", readBacks / seconds);
+		stats.put("tier.spill.bytes", spillBytes);
+		stats.put("tier.file.bytes", file.size());
+		stats.put("tier.file.free.bytes", file.freeSize());
+		stats.put("tier.hot.p50.nanos", hotLatency.getPercentile(50));
+		stats.put("tier.hot.p99.nanos", hotLatency.getPercentile(99));
+		stats.put("tier.cold.p50.nanos", coldLatency.getPercentile(50));
+		stats.put("tier.cold.p99.nanos", coldLatency.getPercentile(99));
+		return stats;
+	}
+}
@@ -1,6 +1,8 @@
 package net.nosql_bench.workloads;
 
 import net.nosql_bench.*;
+import net.nosql_bench.generator.DataGenerator;
+import net.nosql_bench.generator.DataStream;
 
 import java.util.*;
 import java.util.concurrent.Callable;
@@ -9,34 +11,76 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class BulkInsert implements Workload {
 
 	private String tableName;
+	private DataGenerator dataGenerator;
+	private KeyManifest manifest;
 
 	public void execute(Database test, Properties dbProperties, Properties workloadProperties) {
 
 		tableName = workloadProperties.getProperty("tablename");
 		int threads = PropsUtil.expandInt(workloadProperties.getProperty("threads", "1"));
 		boolean cleanup = Boolean.valueOf(workloadProperties.getProperty("cleanup", "false"));
+		boolean bulkLoad = Boolean.valueOf(workloadProperties.getProperty("bulkload", "false"));
 
 		int count = PropsUtil.expandInt(workloadProperties.getProperty("insert.count"));
+		dataGenerator = new DataGenerator(workloadProperties);
+		String manifestPath = workloadProperties.getProperty("manifest");
+		if (manifestPath != null) {
+			manifest = KeyManifest.create(manifestPath);
+		}
 
-		setup(test, dbProperties);
+		setup(test, dbProperties, bulkLoad);
 
 		System.out.println("Starting inserts..");
 		long insertDuration = insert(test, count, threads);
 		System.out.println("Inserts benchmark: count=" + count + " duration=" + insertDuration + " rate=" + ((1000 * count) / insertDuration));
 
+		// with a write-behind database inserts are acknowledged before they are durable
+		long start = System.currentTimeMillis();
+		test.flush();
+		long flushDuration = System.currentTimeMillis() - start;
+		System.out.println("Durability: flush_duration=" + flushDuration
+				+ " acknowledged_rate=" + ((1000 * count) / Math.max(1, insertDuration))
+				+ " durable_rate=" + ((1000 * count) / Math.max(1, insertDuration + flushDuration)));
+
+		if (bulkLoad) {
+			System.out.println("Building indexes..");
+			start = System.currentTimeMillis();
+			test.endBulkLoad();
+			long indexDuration = System.currentTimeMillis() - start;
+			System.out.println("Index build: duration=" + indexDuration
+					+ " total_rate=" + ((1000 * count) / Math.max(1, insertDuration + indexDuration)));
+		}
+
+		Map<String, Long> stats = test.getStats(tableName);
+		if (!stats.isEmpty()) {
+			System.out.println("Stats: " + stats);
+		}
+
+		if (manifest != null) {
+			manifest.close();
+			System.out.println("Key manifest: path=" + manifestPath + " keys=" + manifest.size());
+		}
+
 		if (cleanup) {
 			test.cleanup(tableName);
 		}
 	}
 
 
-	public void setup(final Database test, Properties props) {
+	public void setup(final Database test, Properties props, boolean bulkLoad) {
 		test.init(props);
+		if (bulkLoad && manifest != null && !test.returnsFinalKeysInBulkLoad()) {
+			throw new IllegalArgumentException("Property 'manifest' can not be combined with 'bulkload' on "
+					+ test.getClass().getSimpleName() + ", its bulk load returns temporary keys.");
+		}
+		if (bulkLoad) {
+			test.startBulkLoad();
+		}
 		List<FieldDefinition> fieldDef = new ArrayList<>();
 		fieldDef.add(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE));
 		fieldDef.add(new FieldDefinition("text", FieldDefinition.FIELD_TYPE.STRING, FieldDefinition.INDEX_TYPE.RANGE));
 
-		test.register("BenchTest", fieldDef);
+		test.register(tableName, fieldDef);
 	}
 
 	public long insert(final Database test, final int count, final int threads) {
@@ -44,7 +88,7 @@ public class BulkInsert implements Workload {
 		ScenarioExecutor<Void> executor = new ScenarioExecutor<Void>(100);
 
 		for (int n = 1; n <= threads; n++) {
-			executor.addTask(new InsertTask(test, count / threads, n == 1, tableName));
+			executor.addTask(new InsertTask(test, count / threads, n == 1, tableName, dataGenerator.stream(n), manifest));
 		}
 
 		long start = System.currentTimeMillis();
@@ -57,8 +101,10 @@ public class BulkInsert implements Workload {
 
 		private String tableName;
 
-		public InsertTask(Database test, int countInThread, boolean printStatus, String tableName) {
+		public InsertTask(Database test, int countInThread, boolean printStatus, String tableName, DataStream data, KeyManifest manifest) {
 			this.test = test;
+			this.manifest = manifest;
+			this.data = data;
 			this.countInThread = countInThread;
 			this.printStatus = printStatus;
 			this.tableName = tableName;
@@ -69,6 +115,8 @@ public class BulkInsert implements Workload {
 		private int countInThread;
 		private boolean printStatus;
 		private Database test;
+		private DataStream data;
+		private KeyManifest manifest;
 
 		@Override
 		public List<Void> call() throws Exception {
@@ -76,21 +124,29 @@ public class BulkInsert implements Workload {
 			long start = System.currentTimeMillis() - 1;
 			double curTime = start;
 
-			for (int i = 0; i < countInThread; i++) {
-
-				Map<String, Object> fields = new HashMap<>(2);
-				fields.put("number", Tester.randomInt());
-				fields.put("text", Tester.randomWord());
-
-				test.insert(tableName, fields);
-				int total = totalCount.addAndGet(1);
-
-				if (printStatus && i % 1000 == 0) {
-					double duration = (System.currentTimeMillis() - start) / 1000;
-					double lastDur = (System.currentTimeMillis() - curTime) / 1000.0;
-					curTime = System.currentTimeMillis();
-					System.out.println("insert " + Thread.currentThread().getName() + " " + total + " dur:" + duration + "  avg_rate:" + (int) (total / duration) + "  cur_rate:" + (int) (1000.0 / lastDur));
+			try {
+				for (int i = 0; i < countInThread; i++) {
+
+					Map<String, Object> fields = new HashMap<>(2);
+					fields.put("number", data.nextInt());
+					fields.put("text", data.nextWord());
+
+					String key = test.insert(tableName, fields);
+					if (manifest != null) {
+						manifest.append(key);
+					}
+					int total = totalCount.addAndGet(1);
+
+					if (printStatus && i % 1000 == 0) {
+						double duration = (System.currentTimeMillis() - start) / 1000;
+						double lastDur = (System.currentTimeMillis() - curTime) / 1000.0;
+						curTime = System.currentTimeMillis();
+						System.out.println("insert " + Thread.currentThread().getName() + " " + total + " dur:" + duration + "  avg_rate:" + (int) (total / duration) + "  cur_rate:" + (int) (1000.0 / lastDur));
+					}
 				}
+			} finally {
+				// ends the thread's connection, flushing any pending bulk load batch
+				test.finish();
 			}
 
 			return null;
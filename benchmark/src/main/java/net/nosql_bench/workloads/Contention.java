@@ -0,0 +1,274 @@
+package net.nosql_bench.workloads;
+
+import net.nosql_bench.*;
+import net.nosql_bench.generator.RandomStream;
+import net.nosql_bench.retry.RetryHistogram;
+import net.nosql_bench.retry.RetryPolicy;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Measures how optimistic transactions degrade with contention. Sweeps every combination of
+ * 'contention.hotkeys' (number of counters), 'contention.threads' and 'contention.keys' (counters incremented
+ * per transaction). Each point runs for 'contention.duration' ms; a transaction that collides is rolled back
+ * and retried on the same counters as the 'retry.*' properties of {@link RetryPolicy} decide.
+ * <p/>
+ * 'contention.modes' selects how counters are incremented: 'transaction' reads and writes them in an optimistic
+ * transaction, 'increment' uses {@link Database#increment(String, String, String, long)} once per counter.
+ * Listing both runs every point in both modes, for comparison.
+ * <p/>
+ * Reports per point: committed transactions/sec, abort rate (aborted / all attempts), retries per commit and
+ * latency percentiles of committed transactions, measured from the first attempt to the successful commit.
+ */
+public class Contention implements Workload {
+
+	private String tableName;
+	private Properties workloadProperties;
+
+	@Override
+	public void execute(Database test, Properties dbProperties, Properties workloadProperties) {
+
+		this.workloadProperties = workloadProperties;
+		tableName = workloadProperties.getProperty("tablename");
+		boolean cleanup = Boolean.valueOf(workloadProperties.getProperty("cleanup", "false"));
+
+		int[] hotKeysList = PropsUtil.expandIntList(workloadProperties.getProperty("contention.hotkeys", "1,4,16,64"));
+		int[] threadsList = PropsUtil.expandIntList(workloadProperties.getProperty("contention.threads", "1,2,4,8,16"));
+		int[] keysList = PropsUtil.expandIntList(workloadProperties.getProperty("contention.keys", "1,2,4"));
+		int duration = PropsUtil.expandInt(workloadProperties.getProperty("contention.duration", "2000"));
+		String[] modes = workloadProperties.getProperty("contention.modes", "transaction").split(",");
+		String seedProperty = workloadProperties.getProperty("seed");
+		long seed = seedProperty == null ? System.nanoTime() : Long.valueOf(seedProperty);
+
+		setup(test, dbProperties);
+		System.out.println("Starting contention sweep: seed=" + seed + " duration=" + duration
+				+ " retry.policy=" + workloadProperties.getProperty("retry.policy", "immediate"));
+
+		int point = 0;
+		for (int hotKeys : hotKeysList) {
+			for (int keysPerTransaction : keysList) {
+				if (keysPerTransaction > hotKeys) {
+					continue;
+				}
+				for (int threads : threadsList) {
+					for (String mode : modes) {
+						boolean increment = mode.trim().equals("increment");
+						List<String> counters = createCounters(test, hotKeys);
+						ContentionStats stats = run(test, counters, threads, keysPerTransaction, increment, duration, RandomStream.seed(seed, point++));
+						report(test, counters, hotKeys, threads, keysPerTransaction, increment ? "increment" : "transaction", stats);
+					}
+				}
+			}
+		}
+
+		if (cleanup) {
+			System.out.println("Cleanup..");
+			test.cleanup(tableName);
+		}
+	}
+
+	public void setup(final Database test, Properties props) {
+		test.init(props);
+		List<FieldDefinition> fieldDef = new ArrayList<>();
+		fieldDef.add(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.SINGLE));
+		test.register(tableName, fieldDef);
+	}
+
+	/**
+	 * Each point gets its own counters, so the verification of one point is not affected by another.
+	 */
+	public List<String> createCounters(final Database test, int hotKeys) {
+		List<String> counters = new ArrayList<>(hotKeys);
+		for (int i = 0; i < hotKeys; i++) {
+			Map<String, Object> fields = new HashMap<>(2);
+			fields.put("number", 0);
+			counters.add(test.insert(tableName, fields));
+		}
+		return counters;
+	}
+
+	public ContentionStats run(final Database test, List<String> counters, int threads, int keysPerTransaction, boolean increment,
+							   int duration, long seed) {
+
+		ScenarioExecutor<ContentionStats> executor = new ScenarioExecutor<>(threads);
+		long deadline = System.currentTimeMillis() + duration;
+		for (int n = 0; n < threads; n++) {
+			long threadSeed = RandomStream.seed(seed, n);
+			RetryPolicy retryPolicy = RetryPolicy.fromProperties(workloadProperties, threadSeed);
+			executor.addTask(new ContentionTask(test, tableName, counters, keysPerTransaction, increment, deadline, threadSeed, retryPolicy));
+		}
+		long start = System.currentTimeMillis();
+		executor.start();
+		Set<ContentionStats> results = executor.getResults();
+
+		ContentionStats stats = new ContentionStats();
+		stats.duration = Math.max(1, System.currentTimeMillis() - start);
+		for (ContentionStats threadStats : results) {
+			stats.add(threadStats);
+		}
+		return stats;
+	}
+
+	private void report(Database test, List<String> counters, int hotKeys, int threads, int keysPerTransaction, String mode,
+						ContentionStats stats) {
+		long attempts = stats.latency.getCount() + stats.aborts;
+		System.out.println("Contention: mode=" + mode + " hotkeys=" + hotKeys + " threads=" + threads + " keys=" + keysPerTransaction
+				+ " committed=" + stats.latency.getCount()
+				+ " rate=" + ((1000 * stats.latency.getCount()) / stats.duration)
+				+ " abort_rate=" + String.format(Locale.ROOT, "%.3f", attempts == 0 ? 0.0 : (double) stats.aborts / attempts)
+				+ " retries_per_commit=" + String.format(Locale.ROOT, "%.2f", stats.latency.getCount() == 0 ? 0.0 : (double) stats.aborts / stats.latency.getCount())
+				+ " gave_up=" + stats.retries.getGaveUp()
+				+ " " + stats.latency);
+		System.out.println("  " + stats.retries);
+
+		// every committed transaction incremented exactly keysPerTransaction counters, given up ones maybe some
+		long sum = 0;
+		for (String counter : counters) {
+			Map<String, Object> record = test.get(counter);
+			sum += ((Number) record.get("number")).longValue();
+		}
+		long expected = stats.latency.getCount() * keysPerTransaction + stats.strayIncrements;
+		if (sum != expected) {
+			System.out.println("Error: counters sum (" + sum + ") is not equal to committed increments (" + expected + ").");
+		}
+	}
+
+	/**
+	 * Commit latency and aborts of one thread, or of all threads after they are merged.
+	 */
+	public static class ContentionStats {
+		public final LatencyHistogram latency = new LatencyHistogram();
+		// also counts transactions given up by the retry policy or still not committed when the point ended
+		public final RetryHistogram retries = new RetryHistogram();
+		public long aborts;
+		// increments applied by transactions given up in increment mode, which are not all-or-nothing
+		public long strayIncrements;
+		public long duration;
+
+		public void add(ContentionStats other) {
+			latency.add(other.latency);
+			retries.add(other.retries);
+			aborts += other.aborts;
+			strayIncrements += other.strayIncrements;
+		}
+	}
+
+	public static class ContentionTask implements Callable<List<ContentionStats>> {
+
+		public ContentionTask(Database test, String tableName, List<String> counters, int keysPerTransaction, boolean increment,
+							  long deadline, long seed, RetryPolicy retryPolicy) {
+			this.increment = increment;
+			this.test = test;
+			this.tableName = tableName;
+			this.counters = counters;
+			this.keysPerTransaction = keysPerTransaction;
+			this.deadline = deadline;
+			this.random = new RandomStream(seed);
+			this.retryPolicy = retryPolicy;
+		}
+
+		private Database test;
+		private String tableName;
+		private List<String> counters;
+		private int keysPerTransaction;
+		private boolean increment;
+		private long deadline;
+		private RandomStream random;
+		private RetryPolicy retryPolicy;
+		private ContentionStats stats = new ContentionStats();
+		// counters the current transaction has incremented in increment mode
+		private int incremented;
+
+		@Override
+		public List<ContentionStats> call() throws Exception {
+			try {
+				while (System.currentTimeMillis() < deadline) {
+					List<String> keys = chooseKeys();
+					long start = System.nanoTime();
+					int attempt = 1;
+					incremented = 0;
+					boolean committed;
+					while (!(committed = increment(keys))) {
+						stats.aborts++;
+						if (System.currentTimeMillis() >= deadline) {
+							retryPolicy.giveUp();
+						} else if (retryPolicy.retry(attempt++)) {
+							continue;
+						}
+						stats.strayIncrements += incremented;
+						break;
+					}
+					if (committed) {
+						retryPolicy.committed(attempt);
+						stats.latency.record(System.nanoTime() - start);
+					}
+				}
+			} finally {
+				test.finish();
+			}
+			stats.retries.add(retryPolicy.getHistogram());
+			return Collections.singletonList(stats);
+		}
+
+		/**
+		 * Picks distinct counters, in a fixed order so lock based databases can not deadlock.
+		 */
+		private List<String> chooseKeys() {
+			TreeSet<Integer> indexes = new TreeSet<>();
+			while (indexes.size() < keysPerTransaction) {
+				indexes.add(random.nextInt(counters.size()));
+			}
+			List<String> keys = new ArrayList<>(keysPerTransaction);
+			for (int index : indexes) {
+				keys.add(counters.get(index));
+			}
+			return keys;
+		}
+
+		/**
+		 * @return False if the transaction collided and was rolled back, or an increment failed. A retry continues
+		 * with the counter that failed, the ones before it stay incremented.
+		 * @throws IllegalStateException if a counter does not exist, which no retry can fix
+		 */
+		private boolean increment(List<String> keys) {
+			if (increment) {
+				// each counter is incremented atomically, but not all of them together
+				for (; incremented < keys.size(); incremented++) {
+					Map<String, Long> values;
+					try {
+						values = test.increment(tableName, keys.get(incremented), Collections.singletonMap("number", 1L));
+					} catch (RuntimeException re) {
+						return false;
+					}
+					if (values == null) {
+						throw new IllegalStateException("Counter does not exist: " + keys.get(incremented));
+					}
+				}
+				return true;
+			}
+			String missing = null;
+			try {
+				test.startTransaction();
+				for (String key : keys) {
+					Map<String, Object> record = test.get(key);
+					if (record == null) {
+						missing = key;
+						break;
+					}
+					record.put("number", ((Number) record.get("number")).intValue() + 1);
+					test.put(tableName, key, record);
+				}
+				if (missing == null) {
+					test.commitTransaction();
+					return true;
+				}
+			} catch (RuntimeException re) {
+				test.rollbackTransaction();
+				return false;
+			}
+			test.rollbackTransaction();
+			throw new IllegalStateException("Counter does not exist: " + missing);
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package net.nosql_bench.workloads;
+
+import net.nosql_bench.*;
+import net.nosql_bench.generator.DataGenerator;
+import net.nosql_bench.generator.DataStream;
+import net.nosql_bench.generator.KeyChooser;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * YCSB-style workload: loads 'record.count' records and then runs 'operation.count' operations picked at random
+ * with the configured 'proportion.*' of each operation type. Reports throughput and latency per operation type.
+ * <p/>
+ * With 'phase=load' only the records are loaded, with 'phase=run' only the operations are run, on records loaded
+ * earlier. Loaded keys are then passed between the phases in the {@link KeyManifest} at path 'manifest'.
+ */
+public class Mixed implements Workload {
+
+	public enum Operation {READ, UPDATE, INSERT, DELETE, QUERY, READMODIFYWRITE, TRANSACTION}
+
+	private String tableName;
+	private DataGenerator dataGenerator;
+	private int fieldCount;
+	private int queryCardinality;
+	private int queryLimit;
+	private int transactionKeys;
+	private Properties workloadProperties;
+
+	// loaded keys, if they are kept in a manifest instead of on heap
+	private KeyManifest manifest;
+
+	// keys from index keysOffset on: a successful insert claims a slot with insertCount and fills it, keyCount is
+	// the prefix of filled slots that keys are chosen from
+	private AtomicReferenceArray<String> keys;
+	private int keysOffset;
+	private AtomicInteger keyCount = new AtomicInteger(0);
+	private AtomicInteger insertCount = new AtomicInteger(0);
+
+	@Override
+	public void execute(Database test, Properties dbProperties, Properties workloadProperties) {
+
+		this.workloadProperties = workloadProperties;
+		tableName = workloadProperties.getProperty("tablename");
+		boolean cleanup = Boolean.valueOf(workloadProperties.getProperty("cleanup", "false"));
+		int threads = PropsUtil.expandInt(workloadProperties.getProperty("threads", "1"));
+
+		String phase = workloadProperties.getProperty("phase", "both");
+		String manifestPath = workloadProperties.getProperty("manifest");
+		if (phase.equals("run") && manifestPath == null) {
+			System.out.println("Error: property 'manifest' is required with phase=run.");
+			return;
+		}
+
+		int recordCount = PropsUtil.expandInt(workloadProperties.getProperty("record.count", "10k"));
+		int operationCount = PropsUtil.expandInt(workloadProperties.getProperty("operation.count", "100k"));
+		fieldCount = PropsUtil.expandInt(workloadProperties.getProperty("data.fields", "10"));
+		dataGenerator = new DataGenerator(workloadProperties);
+		queryCardinality = PropsUtil.expandInt(workloadProperties.getProperty("query.cardinality", "1000"));
+		queryLimit = PropsUtil.expandInt(workloadProperties.getProperty("query.limit", "10"));
+		transactionKeys = PropsUtil.expandInt(workloadProperties.getProperty("transaction.keys", "2"));
+
+		double[] proportions = new double[Operation.values().length];
+		double total = 0;
+		for (Operation operation : Operation.values()) {
+			String name = "proportion." + operation.name().toLowerCase();
+			proportions[operation.ordinal()] = Double.valueOf(workloadProperties.getProperty(name, "0"));
+			total += proportions[operation.ordinal()];
+		}
+		if (total <= 0) {
+			System.out.println("Error: at least one 'proportion.*' property must be greater than 0.");
+			return;
+		}
+
+		// cumulative distribution used to pick operations
+		double[] cumulative = new double[proportions.length];
+		double sum = 0;
+		for (int i = 0; i < proportions.length; i++) {
+			sum += proportions[i] / total;
+			cumulative[i] = sum;
+		}
+
+		int maxInserts = (int) Math.ceil(operationCount * proportions[Operation.INSERT.ordinal()] / total) + threads;
+
+		setup(test, dbProperties);
+
+		if (!phase.equals("run")) {
+			if (manifestPath != null) {
+				manifest = KeyManifest.create(manifestPath);
+			} else {
+				keys = new AtomicReferenceArray<>(recordCount + maxInserts);
+			}
+
+			System.out.println("Loading records..");
+			long loadDuration = load(test, recordCount, threads);
+			System.out.println("Load: count=" + recordCount + " duration=" + loadDuration + " rate=" + ((1000L * recordCount) / Math.max(1, loadDuration)));
+
+			if (manifest != null) {
+				manifest.close();
+				System.out.println("Key manifest: path=" + manifestPath + " keys=" + recordCount);
+			}
+			if (phase.equals("load")) {
+				return;
+			}
+		}
+
+		if (manifestPath != null) {
+			manifest = KeyManifest.open(manifestPath);
+			keysOffset = manifest.size();
+			keyCount.set(keysOffset);
+			insertCount.set(keysOffset);
+			keys = new AtomicReferenceArray<>(maxInserts);
+			System.out.println("Key manifest: path=" + manifestPath + " keys=" + keysOffset);
+		}
+
+		System.out.println("Starting mixed operations..");
+		ScenarioExecutor<OperationStats[]> executor = new ScenarioExecutor<>(threads);
+		for (int n = 1; n <= threads; n++) {
+			executor.addTask(new MixedTask(test, operationCount / threads, cumulative, dataGenerator.stream(threads + n)));
+		}
+		long start = System.currentTimeMillis();
+		executor.start();
+		Set<OperationStats[]> results = executor.getResults();
+		long duration = Math.max(1, System.currentTimeMillis() - start);
+
+		OperationStats[] stats = OperationStats.create();
+		for (OperationStats[] threadStats : results) {
+			for (int i = 0; i < stats.length; i++) {
+				stats[i].add(threadStats[i]);
+			}
+		}
+
+		long operations = 0;
+		for (OperationStats operationStats : stats) {
+			operations += operationStats.latency.getCount() + operationStats.failures;
+		}
+		System.out.println("Mixed benchmark: operations=" + operations + " duration=" + duration + " rate=" + ((1000 * operations) / duration));
+		for (Operation operation : Operation.values()) {
+			OperationStats operationStats = stats[operation.ordinal()];
+			if (operationStats.latency.getCount() + operationStats.failures > 0) {
+				System.out.println("  " + operation + ": rate=" + ((1000 * operationStats.latency.getCount()) / duration)
+						+ " failures=" + operationStats.failures + " " + operationStats.latency);
+			}
+		}
+
+		Map<String, Long> dbStats = test.getStats(tableName);
+		if (!dbStats.isEmpty()) {
+			System.out.println("Stats: " + dbStats);
+		}
+
+		if (manifest != null) {
+			manifest.close();
+		}
+
+		if (cleanup) {
+			System.out.println("Cleanup..");
+			test.cleanup(tableName);
+		}
+	}
+
+	public void setup(final Database test, Properties props) {
+		test.init(props);
+		List<FieldDefinition> fieldDef = new ArrayList<>();
+		fieldDef.add(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.SINGLE));
+		test.register(tableName, fieldDef);
+	}
+
+	public long load(final Database test, final int count, final int threads) {
+
+		ScenarioExecutor<Void> executor = new ScenarioExecutor<>(threads);
+		for (int n = 0; n < threads; n++) {
+			final int from = (int) ((long) count * n / threads);
+			final int to = (int) ((long) count * (n + 1) / threads);
+			final DataStream data = dataGenerator.stream(n);
+			executor.addTask(new Callable<List<Void>>() {
+				@Override
+				public List<Void> call() throws Exception {
+					try {
+						for (int i = from; i < to; i++) {
+							String key = test.insert(tableName, createRecord(data));
+							if (manifest != null) {
+								manifest.append(key);
+							} else {
+								keys.set(i, key);
+							}
+						}
+					} finally {
+						test.finish();
+					}
+					return null;
+				}
+			});
+		}
+		long start = System.currentTimeMillis();
+		executor.start();
+		executor.getResults();
+		keyCount.set(count);
+		insertCount.set(count);
+		return (System.currentTimeMillis() - start);
+	}
+
+	private Map<String, Object> createRecord(DataStream data) {
+		Map<String, Object> fields = data.nextRecord();
+		fields.put("number", data.nextInt(queryCardinality));
+		return fields;
+	}
+
+	private String chooseKey(KeyChooser keyChooser) {
+		int index = keyChooser.next(keyCount.get());
+		return index < keysOffset ? manifest.get(index) : keys.get(index - keysOffset);
+	}
+
+	/**
+	 * Stores the key of a successful insert and extends the prefix of filled slots as far as it goes, so a slot
+	 * filled out of order is published by whichever insert fills the gap before it.
+	 */
+	private void publish(String key) {
+		int slot = insertCount.getAndIncrement() - keysOffset;
+		if (slot >= keys.length()) {
+			return;
+		}
+		keys.set(slot, key);
+		int count;
+		while ((count = keyCount.get()) - keysOffset < keys.length() && keys.get(count - keysOffset) != null) {
+			keyCount.compareAndSet(count, count + 1);
+		}
+	}
+
+	/**
+	 * Latency of successful operations and number of failed ones, for a single operation type.
+	 */
+	public static class OperationStats {
+		public final LatencyHistogram latency = new LatencyHistogram();
+		public long failures;
+
+		public void add(OperationStats other) {
+			latency.add(other.latency);
+			failures += other.failures;
+		}
+
+		public static OperationStats[] create() {
+			OperationStats[] stats = new OperationStats[Operation.values().length];
+			for (int i = 0; i < stats.length; i++) {
+				stats[i] = new OperationStats();
+			}
+			return stats;
+		}
+	}
+
+	public class MixedTask implements Callable<List<OperationStats[]>> {
+
+		public MixedTask(Database test, int countInThread, double[] cumulative, DataStream data) {
+			this.test = test;
+			this.countInThread = countInThread;
+			this.cumulative = cumulative;
+			this.data = data;
+			this.keyChooser = KeyChooser.fromProperties(workloadProperties, data.nextLong());
+		}
+
+		private Database test;
+		private int countInThread;
+		private double[] cumulative;
+		private DataStream data;
+		private KeyChooser keyChooser;
+		private OperationStats[] stats = OperationStats.create();
+
+		@Override
+		public List<OperationStats[]> call() throws Exception {
+			try {
+				for (int i = 0; i < countInThread; i++) {
+					Operation operation = chooseOperation();
+					long start = System.nanoTime();
+					boolean success;
+					try {
+						success = execute(operation);
+					} catch (RuntimeException re) {
+						success = false;
+					}
+					long duration = System.nanoTime() - start;
+					if (success) {
+						stats[operation.ordinal()].latency.record(duration);
+					} else {
+						stats[operation.ordinal()].failures++;
+					}
+				}
+			} finally {
+				test.finish();
+			}
+			return Collections.singletonList(stats);
+		}
+
+		private Operation chooseOperation() {
+			double value = data.nextDouble();
+			for (int i = 0; i < cumulative.length; i++) {
+				if (value < cumulative[i]) {
+					return Operation.values()[i];
+				}
+			}
+			return Operation.values()[cumulative.length - 1];
+		}
+
+		private boolean execute(Operation operation) {
+			switch (operation) {
+				case READ:
+					return test.get(chooseKey(keyChooser)) != null;
+				case UPDATE:
+					test.put(tableName, chooseKey(keyChooser), createRecord(data));
+					return true;
+				case INSERT:
+					publish(test.insert(tableName, createRecord(data)));
+					return true;
+				case DELETE:
+					test.delete(tableName, chooseKey(keyChooser));
+					return true;
+				case QUERY:
+					List<QueryPredicate> predicates = new ArrayList<>(1);
+					predicates.add(new QueryPredicate("number", QueryPredicate.OPERATOR.EQUALS, data.nextInt(queryCardinality)));
+					test.querySimple(tableName, predicates, 0, queryLimit);
+					return true;
+				case READMODIFYWRITE:
+					String rmwKey = chooseKey(keyChooser);
+					Map<String, Object> record = test.get(rmwKey);
+					if (record == null) {
+						return false;
+					}
+					record.put("field" + data.nextInt(fieldCount), data.nextString());
+					test.put(tableName, rmwKey, record);
+					return true;
+				case TRANSACTION:
+					return transaction();
+				default:
+					throw new IllegalStateException("Unknown operation: " + operation);
+			}
+		}
+
+		/**
+		 * Reads 'transaction.keys' records and changes a field in each. Collisions are counted as failures, not retried.
+		 */
+		private boolean transaction() {
+			try {
+				test.startTransaction();
+				for (int k = 0; k < transactionKeys; k++) {
+					String key = chooseKey(keyChooser);
+					Map<String, Object> record = test.get(key);
+					if (record == null) {
+						test.rollbackTransaction();
+						return false;
+					}
+					record.put("number", data.nextInt(queryCardinality));
+					test.put(tableName, key, record);
+				}
+				test.commitTransaction();
+				return true;
+			} catch (RuntimeException re) {
+				test.rollbackTransaction();
+				return false;
+			}
+		}
+	}
+}
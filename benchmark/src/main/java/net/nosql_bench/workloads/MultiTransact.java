@@ -1,6 +1,9 @@
 package net.nosql_bench.workloads;
 
 import net.nosql_bench.*;
+import net.nosql_bench.generator.RandomStream;
+import net.nosql_bench.retry.RetryHistogram;
+import net.nosql_bench.retry.RetryPolicy;
 
 import java.util.*;
 import java.util.concurrent.Callable;
@@ -8,10 +11,12 @@ import java.util.concurrent.Callable;
 public class MultiTransact implements Workload {
 
 private String tableName;
+private Properties workloadProperties;
 
 	@Override
 	public void execute(Database test, Properties dbProperties, Properties workloadProperties) {
 
+		this.workloadProperties = workloadProperties;
 		tableName = workloadProperties.getProperty("tablename");
 		boolean cleanup = Boolean.valueOf(workloadProperties.getProperty("cleanup", "false"));
 		int threads = PropsUtil.expandInt(workloadProperties.getProperty("threads", "1"));
@@ -29,8 +34,11 @@ private String tableName;
 		createInitialEntities(test, numEntities, ceiling);
 
 		System.out.println("Starting transact..");
-		long queryDuration = transact(test, threads, ceiling);
+		RetryHistogram retries = new RetryHistogram();
+		long queryDuration = transact(test, threads, ceiling, retries);
 		System.out.println("Transact benchmark: entities=" + numEntities + " duration=" + queryDuration + " rate=" + ((1000 * numEntities) / queryDuration));
+		System.out.println("Retries: policy=" + workloadProperties.getProperty("retry.policy", "immediate")
+				+ " goodput=" + ((1000 * retries.getCommits()) / Math.max(1, queryDuration)) + " " + retries);
 
 		List<QueryPredicate> equalPredicate = new ArrayList<>(1);
 		equalPredicate.add(new QueryPredicate("number", QueryPredicate.OPERATOR.EQUALS, ceiling / 2));
@@ -77,38 +85,46 @@ private String tableName;
 		}
 	}
 
-	public long transact(final Database test, final int threads, final int ceiling) {
+	public long transact(final Database test, final int threads, final int ceiling, RetryHistogram retries) {
 
-		ScenarioExecutor<Void> executor = new ScenarioExecutor<Void>(threads);
+		ScenarioExecutor<RetryHistogram> executor = new ScenarioExecutor<RetryHistogram>(threads);
+		String seedProperty = workloadProperties.getProperty("seed");
+		long seed = seedProperty == null ? System.nanoTime() : Long.valueOf(seedProperty);
 
 		for (int n = 1; n <= threads; n++) {
-			executor.addTask(new TransactTask(test, ceiling, true, tableName));
+			RetryPolicy retryPolicy = RetryPolicy.fromProperties(workloadProperties, RandomStream.seed(seed, n));
+			executor.addTask(new TransactTask(test, ceiling, true, tableName, retryPolicy));
 		}
 		long start = System.currentTimeMillis();
 		executor.start();
-		executor.getResults();
+		for (RetryHistogram threadRetries : executor.getResults()) {
+			retries.add(threadRetries);
+		}
 		return (System.currentTimeMillis() - start);
 	}
 
-public static class TransactTask implements Callable<List<Void>> {
+public static class TransactTask implements Callable<List<RetryHistogram>> {
 
-	public TransactTask(Database test, int ceiling, boolean printStatus, String tableName) {
+	public TransactTask(Database test, int ceiling, boolean printStatus, String tableName, RetryPolicy retryPolicy) {
 		this.test = test;
 		this.ceiling = ceiling;
 		this.printStatus = printStatus;
 		this.tableName = tableName;
+		this.retryPolicy = retryPolicy;
 	}
 
 	private Database test;
 	private int ceiling;
 	private boolean printStatus;
 	private String tableName;
+	private RetryPolicy retryPolicy;
 
 	@Override
-	public List<Void> call() throws Exception {
+	public List<RetryHistogram> call() throws Exception {
 		long begin = System.currentTimeMillis();
 		long start = System.currentTimeMillis();
 		boolean loop = true;
+		int attempt = 1;
 
 		List<QueryPredicate> lessPredicate = new ArrayList<>(1);
 		lessPredicate.add(new QueryPredicate("number", QueryPredicate.OPERATOR.LESSER, ceiling / 2));
@@ -135,10 +151,13 @@ public static class TransactTask implements Callable<List<Void>> {
 
 //						System.out.println("FOUND lesser:" + lesserKey + " greater:" + greaterKey);
 
-					test.put(tableName, lesserKey, lesserEnt);
-					test.put(tableName, greaterKey, greaterEnt);
+					// only the counter changes, so only the counter is written
+					test.patch(tableName, lesserKey, Collections.singletonMap("number", lesserEnt.get("number")), Collections.<String>emptySet());
+					test.patch(tableName, greaterKey, Collections.singletonMap("number", greaterEnt.get("number")), Collections.<String>emptySet());
 
 					test.commitTransaction();
+					retryPolicy.committed(attempt);
+					attempt = 1;
 					System.out.println("Updated lesser:" + lesserKey + " lesserNumber:" + lesserEnt.get("number") + " greater:" + greaterKey + " greaterNumber:" + greaterEnt.get("number"));
 				} else {
 					System.out.println("transact " + Thread.currentThread().getName() + " Not found! lesser:" + lesser.size() + " greater:" + greater.size());
@@ -148,13 +167,17 @@ public static class TransactTask implements Callable<List<Void>> {
 			} catch (RuntimeException re) {
 				System.out.println("Collision: " + re.getMessage());
 				test.rollbackTransaction();
+				if (!retryPolicy.retry(attempt++)) {
+					// the next attempt queries the entities again, so count it as a new transaction
+					attempt = 1;
+				}
 			} finally {
 				test.finish();
 			}
 
 		}
 
-		return null;
+		return Collections.singletonList(retryPolicy.getHistogram());
 	}
 }
 
@@ -0,0 +1,153 @@
+package net.nosql_bench.workloads;
+
+import net.nosql_bench.*;
+import net.nosql_bench.generator.DataGenerator;
+import net.nosql_bench.generator.DataStream;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Measures latency per page number when walking through a large result: offset pagination with skip and limit of
+ * {@link Database#querySimple(String, List, int, int)}, against keyset pagination with the continuation of
+ * {@link Database#queryPage(String, List, String, int, String)}.
+ * <p/>
+ * Loads 'paging.records' records with an indexed 'number' field, then each thread walks the first 'paging.pages'
+ * pages of 'paging.size' records 'paging.walks' times in each mode. Latency is reported for page numbers
+ * 1, 2, 5, 10, 20, 50, .. and the last page.
+ */
+public class Paging implements Workload {
+
+	private String tableName;
+
+	@Override
+	public void execute(Database test, Properties dbProperties, Properties workloadProperties) {
+
+		tableName = workloadProperties.getProperty("tablename");
+		boolean cleanup = Boolean.valueOf(workloadProperties.getProperty("cleanup", "false"));
+		int threads = PropsUtil.expandInt(workloadProperties.getProperty("threads", "1"));
+
+		int recordCount = PropsUtil.expandInt(workloadProperties.getProperty("paging.records", "100k"));
+		int pageSize = PropsUtil.expandInt(workloadProperties.getProperty("paging.size", "100"));
+		int pages = Math.min(PropsUtil.expandInt(workloadProperties.getProperty("paging.pages", "100")), recordCount / pageSize);
+		int walks = PropsUtil.expandInt(workloadProperties.getProperty("paging.walks", "5"));
+		DataGenerator dataGenerator = new DataGenerator(workloadProperties);
+
+		test.init(dbProperties);
+		List<FieldDefinition> fieldDef = new ArrayList<>();
+		fieldDef.add(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE));
+		test.register(tableName, fieldDef);
+
+		System.out.println("Loading records..");
+		long loadDuration = load(test, recordCount, dataGenerator.stream(0));
+		System.out.println("Load: count=" + recordCount + " duration=" + loadDuration);
+
+		for (boolean keyset : new boolean[]{false, true}) {
+			ScenarioExecutor<LatencyHistogram[]> executor = new ScenarioExecutor<>(threads);
+			for (int n = 0; n < threads; n++) {
+				executor.addTask(new WalkTask(test, keyset, pages, pageSize, walks));
+			}
+			long start = System.currentTimeMillis();
+			executor.start();
+			LatencyHistogram[] latencies = newHistograms(pages);
+			for (LatencyHistogram[] threadLatencies : executor.getResults()) {
+				for (int page = 0; page < pages; page++) {
+					latencies[page].add(threadLatencies[page]);
+				}
+			}
+			long duration = Math.max(1, System.currentTimeMillis() - start);
+
+			String mode = keyset ? "keyset" : "offset";
+			long totalPages = (long) threads * walks * pages;
+			System.out.println("Paging: mode=" + mode + " pages=" + totalPages + " duration=" + duration + " rate=" + ((1000 * totalPages) / duration));
+			for (int page = 1; page <= pages; page++) {
+				if (isReported(page) || page == pages) {
+					System.out.println("  " + mode + ": page=" + page + " " + latencies[page - 1]);
+				}
+			}
+		}
+
+		if (cleanup) {
+			System.out.println("Cleanup..");
+			test.cleanup(tableName);
+		}
+	}
+
+	private long load(Database test, int count, DataStream data) {
+		long start = System.currentTimeMillis();
+		try {
+			for (int i = 0; i < count; i++) {
+				Map<String, Object> fields = new HashMap<>(2);
+				fields.put("number", data.nextInt(Integer.MAX_VALUE));
+				fields.put("text", data.nextString());
+				test.insert(tableName, fields);
+			}
+		} finally {
+			test.finish();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * @return True for 1, 2, 5, 10, 20, 50, 100, ..
+	 */
+	private static boolean isReported(int page) {
+		while (page % 10 == 0) {
+			page /= 10;
+		}
+		return page == 1 || page == 2 || page == 5;
+	}
+
+	private static LatencyHistogram[] newHistograms(int pages) {
+		LatencyHistogram[] histograms = new LatencyHistogram[pages];
+		for (int i = 0; i < pages; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		return histograms;
+	}
+
+	public class WalkTask implements Callable<List<LatencyHistogram[]>> {
+
+		public WalkTask(Database test, boolean keyset, int pages, int pageSize, int walks) {
+			this.test = test;
+			this.keyset = keyset;
+			this.pages = pages;
+			this.pageSize = pageSize;
+			this.walks = walks;
+		}
+
+		private Database test;
+		private boolean keyset;
+		private int pages;
+		private int pageSize;
+		private int walks;
+		private LatencyHistogram[] latencies;
+
+		@Override
+		public List<LatencyHistogram[]> call() throws Exception {
+			latencies = newHistograms(pages);
+			List<QueryPredicate> predicates = new ArrayList<>(1);
+			predicates.add(new QueryPredicate("number", QueryPredicate.OPERATOR.GREATER_EQUALS, 0));
+			try {
+				for (int walk = 0; walk < walks; walk++) {
+					String continuation = null;
+					for (int page = 0; page < pages; page++) {
+						long start = System.nanoTime();
+						if (keyset) {
+							continuation = test.queryPage(tableName, predicates, "number", pageSize, continuation).continuation;
+						} else {
+							test.querySimple(tableName, predicates, page * pageSize, pageSize);
+						}
+						latencies[page].record(System.nanoTime() - start);
+						if (keyset && continuation == null) {
+							break;
+						}
+					}
+				}
+			} finally {
+				test.finish();
+			}
+			return Collections.singletonList(latencies);
+		}
+	}
+}
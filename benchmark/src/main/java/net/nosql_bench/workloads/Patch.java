@@ -0,0 +1,179 @@
+package net.nosql_bench.workloads;
+
+import net.nosql_bench.*;
+import net.nosql_bench.generator.DataGenerator;
+import net.nosql_bench.generator.DataStream;
+import net.nosql_bench.generator.KeyChooser;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Compares changing a few fields of a record with a full rewrite. For every record width in 'patch.widths'
+ * (number of fields) 'patch.records' records are loaded, then for every count in 'patch.fields' that many fields
+ * of random records are changed 'patch.operations' times in each mode:
+ * <ul>
+ * <li>put - the record is read, changed and written back whole with {@link Database#put(String, String, Map)}</li>
+ * <li>patch - only the changed fields are written with {@link Database#patch(String, String, Map, Collection)}</li>
+ * </ul>
+ */
+public class Patch implements Workload {
+
+	private String tableName;
+	private DataGenerator dataGenerator;
+	private Properties workloadProperties;
+
+	@Override
+	public void execute(Database test, Properties dbProperties, Properties workloadProperties) {
+
+		this.workloadProperties = workloadProperties;
+		tableName = workloadProperties.getProperty("tablename");
+		boolean cleanup = Boolean.valueOf(workloadProperties.getProperty("cleanup", "false"));
+		int threads = PropsUtil.expandInt(workloadProperties.getProperty("threads", "1"));
+
+		int[] widths = PropsUtil.expandIntList(workloadProperties.getProperty("patch.widths", "10,50,200"));
+		int[] fieldCounts = PropsUtil.expandIntList(workloadProperties.getProperty("patch.fields", "1,4,16"));
+		int recordCount = PropsUtil.expandInt(workloadProperties.getProperty("patch.records", "1000"));
+		int operationCount = PropsUtil.expandInt(workloadProperties.getProperty("patch.operations", "20k"));
+		dataGenerator = new DataGenerator(workloadProperties);
+
+		test.init(dbProperties);
+		test.register(tableName, new ArrayList<FieldDefinition>());
+
+		int stream = 0;
+		for (int width : widths) {
+			List<String> keys = load(test, width, recordCount, dataGenerator.stream(stream++));
+			for (int fieldCount : fieldCounts) {
+				if (fieldCount > width) {
+					continue;
+				}
+				for (boolean patch : new boolean[]{false, true}) {
+					ScenarioExecutor<PatchStats> executor = new ScenarioExecutor<>(threads);
+					for (int n = 0; n < threads; n++) {
+						executor.addTask(new PatchTask(test, keys, width, fieldCount, patch, operationCount / threads, dataGenerator.stream(stream++)));
+					}
+					long start = System.currentTimeMillis();
+					executor.start();
+					PatchStats stats = new PatchStats();
+					for (PatchStats threadStats : executor.getResults()) {
+						stats.add(threadStats);
+					}
+					long duration = Math.max(1, System.currentTimeMillis() - start);
+
+					System.out.println("Patch: mode=" + (patch ? "patch" : "put") + " width=" + width + " fields=" + fieldCount
+							+ " duration=" + duration + " rate=" + ((1000 * stats.latency.getCount()) / duration)
+							+ " failures=" + stats.failures + " " + stats.latency);
+				}
+			}
+		}
+
+		if (cleanup) {
+			System.out.println("Cleanup..");
+			test.cleanup(tableName);
+		}
+	}
+
+	private List<String> load(Database test, int width, int recordCount, DataStream data) {
+		List<String> keys = new ArrayList<>(recordCount);
+		try {
+			for (int i = 0; i < recordCount; i++) {
+				keys.add(test.insert(tableName, createRecord(width, data)));
+			}
+		} finally {
+			test.finish();
+		}
+		return keys;
+	}
+
+	private static Map<String, Object> createRecord(int width, DataStream data) {
+		Map<String, Object> record = new HashMap<>((int) (width / 0.75f) + 1);
+		for (int i = 0; i < width; i++) {
+			record.put("field" + i, data.nextString());
+		}
+		return record;
+	}
+
+	/**
+	 * Latency of successful updates and number of failed ones.
+	 */
+	public static class PatchStats {
+		public final LatencyHistogram latency = new LatencyHistogram();
+		public long failures;
+
+		public void add(PatchStats other) {
+			latency.add(other.latency);
+			failures += other.failures;
+		}
+	}
+
+	public class PatchTask implements Callable<List<PatchStats>> {
+
+		public PatchTask(Database test, List<String> keys, int width, int fieldCount, boolean patch, int countInThread, DataStream data) {
+			this.test = test;
+			this.keys = keys;
+			this.width = width;
+			this.fieldCount = fieldCount;
+			this.patch = patch;
+			this.countInThread = countInThread;
+			this.data = data;
+			this.keyChooser = KeyChooser.fromProperties(workloadProperties, data.nextLong());
+		}
+
+		private Database test;
+		private List<String> keys;
+		private int width;
+		private int fieldCount;
+		private boolean patch;
+		private int countInThread;
+		private DataStream data;
+		private KeyChooser keyChooser;
+		private PatchStats stats = new PatchStats();
+
+		@Override
+		public List<PatchStats> call() throws Exception {
+			try {
+				for (int i = 0; i < countInThread; i++) {
+					String key = keys.get(keyChooser.next(keys.size()));
+					Map<String, Object> changes = changes();
+					long start = System.nanoTime();
+					boolean success;
+					try {
+						success = patch ? test.patch(tableName, key, changes, Collections.<String>emptySet()) : put(key, changes);
+					} catch (RuntimeException re) {
+						success = false;
+					}
+					if (success) {
+						stats.latency.record(System.nanoTime() - start);
+					} else {
+						stats.failures++;
+					}
+				}
+			} finally {
+				test.finish();
+			}
+			return Collections.singletonList(stats);
+		}
+
+		private boolean put(String key, Map<String, Object> changes) {
+			Map<String, Object> record = test.get(key);
+			if (record == null) {
+				return false;
+			}
+			record.putAll(changes);
+			test.put(tableName, key, record);
+			return true;
+		}
+
+		/**
+		 * @return New values for 'fieldCount' distinct fields, starting at a random field.
+		 */
+		private Map<String, Object> changes() {
+			Map<String, Object> changes = new HashMap<>((int) (fieldCount / 0.75f) + 1);
+			int first = data.nextInt(width);
+			for (int i = 0; i < fieldCount; i++) {
+				changes.put("field" + ((first + i) % width), data.nextString());
+			}
+			return changes;
+		}
+	}
+}
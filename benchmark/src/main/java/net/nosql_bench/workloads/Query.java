@@ -1,9 +1,12 @@
 package net.nosql_bench.workloads;
 
 import net.nosql_bench.*;
+import net.nosql_bench.generator.KeyChooser;
+import net.nosql_bench.generator.RandomStream;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -11,9 +14,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class Query implements Workload {
 
 	private String tableName;
+	private Properties workloadProperties;
 
 	public void execute(Database test, Properties dbProperties, Properties workloadProperties) {
 
+		this.workloadProperties = workloadProperties;
 		tableName = workloadProperties.getProperty("tablename");
 		boolean cleanup = Boolean.valueOf(workloadProperties.getProperty("cleanup", "false"));
 
@@ -25,6 +30,10 @@ public class Query implements Workload {
 		System.out.println("Starting query..");
 		long queryDuration = query(test, count, threads);
 		System.out.println("Query benchmark: count=" + count + " duration=" + queryDuration + " rate=" + ((1000 * count) / queryDuration));
+		Map<String, Long> stats = test.getStats(tableName);
+		if (!stats.isEmpty()) {
+			System.out.println("Stats: " + stats);
+		}
 
 		if (cleanup) {
 			test.cleanup(tableName);
@@ -45,8 +54,12 @@ public class Query implements Workload {
 
 		ScenarioExecutor<Void> executor = new ScenarioExecutor<Void>(threads);
 
+		String seedProperty = workloadProperties.getProperty("seed");
+		long seed = seedProperty == null ? System.nanoTime() : Long.valueOf(seedProperty);
 		for (int n = 1; n <= threads; n++) {
-			executor.addTask(new QueryTask(test, count / threads, true, tableName));
+			// the key distribution picks which words are searched for
+			KeyChooser wordChooser = KeyChooser.fromProperties(workloadProperties, RandomStream.seed(seed, n));
+			executor.addTask(new QueryTask(test, count / threads, true, tableName, wordChooser));
 		}
 		long start = System.currentTimeMillis();
 		executor.start();
@@ -56,8 +69,9 @@ public class Query implements Workload {
 
 	public static class QueryTask implements Callable<List<Void>> {
 
-		public QueryTask(Database test, int countInThread, boolean printStatus, String tableName) {
+		public QueryTask(Database test, int countInThread, boolean printStatus, String tableName, KeyChooser wordChooser) {
 			this.test = test;
+			this.wordChooser = wordChooser;
 			this.countInThread = countInThread;
 			this.printStatus = printStatus;
 			this.tableName = tableName;
@@ -69,6 +83,7 @@ public class Query implements Workload {
 		private boolean printStatus;
 		private String tableName;
 		private Database test;
+		private KeyChooser wordChooser;
 
 		@Override
 		public List<Void> call() throws Exception {
@@ -76,7 +91,7 @@ public class Query implements Workload {
 			long start = System.currentTimeMillis();
 			for (int i = 0; i < countInThread; i++) {
 				List<QueryPredicate> predicates = new ArrayList<QueryPredicate>(1);
-				predicates.add(new QueryPredicate("text", QueryPredicate.OPERATOR.EQUALS, Tester.randomWord()));
+				predicates.add(new QueryPredicate("text", QueryPredicate.OPERATOR.EQUALS, Tester.word(wordChooser.next(Tester.wordCount()))));
 				int res = test.querySimple(tableName, predicates, 0, 0).size();
 				double duration = (System.currentTimeMillis() - start);
 				if (printStatus) {
@@ -0,0 +1,206 @@
+package net.nosql_bench.workloads;
+
+import net.nosql_bench.*;
+import net.nosql_bench.generator.DataGenerator;
+import net.nosql_bench.generator.DataStream;
+import net.nosql_bench.generator.RandomStream;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Measures how a {@link ShardedDatabase} scales with the number of shards. For every shard count in
+ * 'sharding.shards' the database is initialized anew, 'sharding.records' records are loaded and then each phase
+ * runs for 'sharding.duration' ms on 'threads' threads:
+ * <ul>
+ * <li>read - gets of random records</li>
+ * <li>query - equality queries on an indexed field, sent to all shards</li>
+ * <li>single - transactions updating two records of the same shard, committed in one round trip</li>
+ * <li>cross - transactions updating two records of different shards, committed with two-phase commit</li>
+ * </ul>
+ * Reports per shard count and phase: rate, abort rate and latency percentiles, followed by the database stats.
+ */
+public class Sharding implements Workload {
+
+	public enum Phase {READ, QUERY, SINGLE, CROSS}
+
+	private String tableName;
+	private int queryCardinality;
+
+	@Override
+	public void execute(Database test, Properties dbProperties, Properties workloadProperties) {
+
+		if (!(test instanceof ShardedDatabase)) {
+			System.out.println("Error: workload requires class=" + ShardedDatabase.class.getName() + " in database properties.");
+			return;
+		}
+		ShardedDatabase sharded = (ShardedDatabase) test;
+
+		tableName = workloadProperties.getProperty("tablename");
+		int threads = PropsUtil.expandInt(workloadProperties.getProperty("threads", "4"));
+		int[] shardCounts = PropsUtil.expandIntList(workloadProperties.getProperty("sharding.shards", "1,2,4,8"));
+		int recordCount = PropsUtil.expandInt(workloadProperties.getProperty("sharding.records", "10k"));
+		int duration = PropsUtil.expandInt(workloadProperties.getProperty("sharding.duration", "2000"));
+		queryCardinality = PropsUtil.expandInt(workloadProperties.getProperty("query.cardinality", "100"));
+		DataGenerator dataGenerator = new DataGenerator(workloadProperties);
+
+		System.out.println("Starting sharding sweep: shard.latency=" + dbProperties.getProperty("shard.latency", "100")
+				+ " shard.bandwidth=" + dbProperties.getProperty("shard.bandwidth", "1000") + " duration=" + duration);
+
+		int point = 0;
+		for (int shardCount : shardCounts) {
+			Properties props = new Properties();
+			props.putAll(dbProperties);
+			props.setProperty("shard.count", String.valueOf(shardCount));
+			setup(sharded, props);
+
+			DataStream data = dataGenerator.stream(point);
+			List<String> keys = new ArrayList<>(recordCount);
+			for (int i = 0; i < recordCount; i++) {
+				keys.add(sharded.insert(tableName, createRecord(data)));
+			}
+
+			for (Phase phase : Phase.values()) {
+				if (phase == Phase.CROSS && shardCount == 1) {
+					continue;
+				}
+				PhaseStats stats = run(sharded, keys, phase, threads, duration, dataGenerator.stream(++point));
+				long attempts = stats.latency.getCount() + stats.aborts;
+				System.out.println("Sharding: shards=" + shardCount + " phase=" + phase.name().toLowerCase()
+						+ " rate=" + ((1000 * stats.latency.getCount()) / stats.duration)
+						+ " abort_rate=" + String.format(Locale.ROOT, "%.3f", attempts == 0 ? 0.0 : (double) stats.aborts / attempts)
+						+ " " + stats.latency);
+			}
+			System.out.println("  Stats: " + sharded.getStats(tableName));
+			sharded.cleanup(tableName);
+		}
+	}
+
+	public void setup(Database test, Properties props) {
+		test.init(props);
+		List<FieldDefinition> fieldDef = new ArrayList<>();
+		fieldDef.add(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE));
+		test.register(tableName, fieldDef);
+	}
+
+	private Map<String, Object> createRecord(DataStream data) {
+		Map<String, Object> fields = data.nextRecord();
+		fields.put("number", data.nextInt(queryCardinality));
+		return fields;
+	}
+
+	public PhaseStats run(ShardedDatabase test, List<String> keys, Phase phase, int threads, int duration, RandomStream random) {
+		ScenarioExecutor<PhaseStats> executor = new ScenarioExecutor<>(threads);
+		long deadline = System.currentTimeMillis() + duration;
+		for (int n = 0; n < threads; n++) {
+			executor.addTask(new PhaseTask(test, tableName, keys, phase, deadline, queryCardinality, random.nextLong()));
+		}
+		long start = System.currentTimeMillis();
+		executor.start();
+		PhaseStats stats = new PhaseStats();
+		for (PhaseStats threadStats : executor.getResults()) {
+			stats.add(threadStats);
+		}
+		stats.duration = Math.max(1, System.currentTimeMillis() - start);
+		return stats;
+	}
+
+	public static class PhaseStats {
+		public final LatencyHistogram latency = new LatencyHistogram();
+		public long aborts;
+		public long duration;
+
+		public void add(PhaseStats other) {
+			latency.add(other.latency);
+			aborts += other.aborts;
+		}
+	}
+
+	public static class PhaseTask implements Callable<List<PhaseStats>> {
+
+		public PhaseTask(ShardedDatabase test, String tableName, List<String> keys, Phase phase, long deadline,
+						 int queryCardinality, long seed) {
+			this.test = test;
+			this.tableName = tableName;
+			this.keys = keys;
+			this.phase = phase;
+			this.deadline = deadline;
+			this.queryCardinality = queryCardinality;
+			this.random = new RandomStream(seed);
+		}
+
+		private ShardedDatabase test;
+		private String tableName;
+		private List<String> keys;
+		private Phase phase;
+		private long deadline;
+		private int queryCardinality;
+		private RandomStream random;
+		private PhaseStats stats = new PhaseStats();
+
+		@Override
+		public List<PhaseStats> call() throws Exception {
+			try {
+				while (System.currentTimeMillis() < deadline) {
+					long start = System.nanoTime();
+					boolean success;
+					try {
+						success = execute();
+					} catch (RuntimeException re) {
+						success = false;
+					}
+					if (success) {
+						stats.latency.record(System.nanoTime() - start);
+					} else {
+						stats.aborts++;
+					}
+				}
+			} finally {
+				test.finish();
+			}
+			return Collections.singletonList(stats);
+		}
+
+		private boolean execute() {
+			switch (phase) {
+				case READ:
+					return test.get(keys.get(random.nextInt(keys.size()))) != null;
+				case QUERY:
+					List<QueryPredicate> predicates = new ArrayList<>(1);
+					predicates.add(new QueryPredicate("number", QueryPredicate.OPERATOR.EQUALS, random.nextInt(queryCardinality)));
+					test.querySimple(tableName, predicates, 0, 10);
+					return true;
+				case SINGLE:
+				case CROSS:
+					String first = keys.get(random.nextInt(keys.size()));
+					String second;
+					do {
+						second = keys.get(random.nextInt(keys.size()));
+					} while (second.equals(first) || (test.shardOf(first) == test.shardOf(second)) != (phase == Phase.SINGLE));
+					return transaction(first, second);
+				default:
+					throw new IllegalStateException("Unknown phase: " + phase);
+			}
+		}
+
+		private boolean transaction(String first, String second) {
+			try {
+				test.startTransaction();
+				for (String key : new String[]{first, second}) {
+					Map<String, Object> record = test.get(key);
+					if (record == null) {
+						test.rollbackTransaction();
+						return false;
+					}
+					record.put("number", random.nextInt(queryCardinality));
+					test.put(tableName, key, record);
+				}
+				test.commitTransaction();
+				return true;
+			} catch (RuntimeException re) {
+				test.rollbackTransaction();
+				return false;
+			}
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package net.nosql_bench.workloads;
 
 import net.nosql_bench.*;
+import net.nosql_bench.generator.RandomStream;
+import net.nosql_bench.retry.RetryHistogram;
+import net.nosql_bench.retry.RetryPolicy;
 
 import java.util.*;
 import java.util.concurrent.Callable;
@@ -9,6 +12,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class SimpleTransact implements Workload {
 
 	private String tableName;
+	private Properties workloadProperties;
+	private boolean increment;
 	private static final AtomicInteger verifyCounter = new AtomicInteger(0);
 	private static final AtomicInteger collisions = new AtomicInteger(0);
 
@@ -16,18 +21,24 @@ public class SimpleTransact implements Workload {
 	@Override
 	public void execute(Database db, Properties dbProperties, Properties workloadProperties) {
 
+		this.workloadProperties = workloadProperties;
 		tableName = workloadProperties.getProperty("tablename");
 		boolean cleanup = Boolean.valueOf(workloadProperties.getProperty("cleanup", "false"));
 		int threads = PropsUtil.expandInt(workloadProperties.getProperty("threads", "1"));
 
 		int repeat = PropsUtil.expandInt(workloadProperties.getProperty("transact.repeat", "100"));
+		// transaction: read-modify-write in a transaction, increment: Database.increment() without a transaction
+		increment = workloadProperties.getProperty("transact.mode", "transaction").equals("increment");
 
 		setup(db, dbProperties);
 		String key = createInitialEntity(db);
 
 		System.out.println("Starting transact..");
-		long queryDuration = transact(db, threads, key, repeat);
+		RetryHistogram retries = new RetryHistogram();
+		long queryDuration = transact(db, threads, key, repeat, retries);
 		System.out.println("Transact benchmark: repeats=" + repeat + " duration=" + queryDuration + " rate=" + ((1000 * repeat) / queryDuration));
+		System.out.println("Retries: policy=" + workloadProperties.getProperty("retry.policy", "immediate")
+				+ " goodput=" + ((1000 * retries.getCommits()) / Math.max(1, queryDuration)) + " " + retries);
 
 		Map<String, Object> res = db.get(key);
 		int counterResult = PropsUtil.expandInt(res.get("number").toString());
@@ -65,30 +76,38 @@ public class SimpleTransact implements Workload {
 		return test.insert(tableName, fields);
 	}
 
-	public long transact(final Database test, final int threads, final String key, int repeat) {
+	public long transact(final Database test, final int threads, final String key, int repeat, RetryHistogram retries) {
 
-		ScenarioExecutor<Void> executor = new ScenarioExecutor<Void>(threads);
+		ScenarioExecutor<RetryHistogram> executor = new ScenarioExecutor<RetryHistogram>(threads);
+		String seedProperty = workloadProperties.getProperty("seed");
+		long seed = seedProperty == null ? System.nanoTime() : Long.valueOf(seedProperty);
 
 		for (int n = 1; n <= threads; n++) {
 			int delta = 1;
-			executor.addTask(new TransactTask(test, key, delta, repeat, true, tableName));
+			RetryPolicy retryPolicy = RetryPolicy.fromProperties(workloadProperties, RandomStream.seed(seed, n));
+			executor.addTask(new TransactTask(test, key, delta, repeat, true, tableName, retryPolicy, increment));
 			System.out.println("Added task:" + n + " delta:" + delta);
 		}
 		long start = System.currentTimeMillis();
 		executor.start();
-		executor.getResults();
+		for (RetryHistogram threadRetries : executor.getResults()) {
+			retries.add(threadRetries);
+		}
 		return (System.currentTimeMillis() - start);
 	}
 
-	public static class TransactTask implements Callable<List<Void>> {
+	public static class TransactTask implements Callable<List<RetryHistogram>> {
 
-		public TransactTask(Database db, String key, int delta, int repeat, boolean printStatus, String tableName) {
+		public TransactTask(Database db, String key, int delta, int repeat, boolean printStatus, String tableName, RetryPolicy retryPolicy,
+							boolean increment) {
+			this.increment = increment;
 			this.db = db;
 			this.key = key;
 			this.delta = delta;
 			this.repeat = repeat;
 			this.printStatus = printStatus;
 			this.tableName = tableName;
+			this.retryPolicy = retryPolicy;
 		}
 
 		private Database db;
@@ -97,13 +116,24 @@ public class SimpleTransact implements Workload {
 		private int repeat;
 		private boolean printStatus;
 		private String tableName;
+		private RetryPolicy retryPolicy;
+		private boolean increment;
 
 		@Override
-		public List<Void> call() throws Exception {
+		public List<RetryHistogram> call() throws Exception {
 			long begin = System.currentTimeMillis();
 			long start = System.currentTimeMillis();
+			int attempt = 1;
 
 			while (repeat != 0) {
+				if (increment) {
+					long number = db.increment(tableName, key, "number", delta);
+					verifyCounter.addAndGet(1);
+					retryPolicy.committed(1);
+					repeat--;
+					System.out.println("Incremented " + delta + " entity:" + key + " number:" + number);
+					continue;
+				}
 				try {
 
 					db.startTransaction();
@@ -119,6 +149,8 @@ public class SimpleTransact implements Workload {
 
 						db.commitTransaction();
 						verifyCounter.addAndGet(1);
+						retryPolicy.committed(attempt);
+						attempt = 1;
 						repeat--;
 						System.out.println("Updated " + delta + " entity:" + key + " number:" + entity.get("number"));
 					} else {
@@ -131,11 +163,16 @@ public class SimpleTransact implements Workload {
 //					re.printStackTrace();
 					System.out.println("Collision: " + re.getMessage());
 					db.rollbackTransaction();
+					if (!retryPolicy.retry(attempt++)) {
+						System.out.println("Gave up after " + (attempt - 1) + " attempts.");
+						attempt = 1;
+						repeat--;
+					}
 				}
 			}
 
 			db.finish();
-			return null;
+			return Collections.singletonList(retryPolicy.getHistogram());
 		}
 	}
 
@@ -0,0 +1,215 @@
+package net.nosql_bench.workloads;
+
+import net.nosql_bench.*;
+import net.nosql_bench.generator.DataGenerator;
+import net.nosql_bench.generator.DataStream;
+import net.nosql_bench.generator.KeyChooser;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Text search on a FULLTEXT indexed field. Loads 'text.documents' documents of 'text.words.min' to 'text.words.max'
+ * words from the {@link Tester} vocabulary, with the word frequencies skewed by the 'key.*' properties of
+ * {@link KeyChooser} (zipfian by default, like natural language). The index is built after the load, so its
+ * build time can be reported separately.
+ * <p/>
+ * Then runs 'text.query.count' queries of each type, choosing query words with the same skew:
+ * <ul>
+ * <li>single - CONTAINS_TEXT of one word</li>
+ * <li>multi - CONTAINS_TEXT of 'text.query.terms' words, all of which must be in the document</li>
+ * <li>substring - LIKE of the first 'text.substring.length' letters of a word, which also matches them inside other words</li>
+ * </ul>
+ */
+public class TextSearch implements Workload {
+
+	public enum QueryType {SINGLE, MULTI, SUBSTRING}
+
+	private String tableName;
+	private Properties workloadProperties;
+	private int vocabulary;
+	private int queryTerms;
+	private int substringLength;
+	private int queryLimit;
+
+	@Override
+	public void execute(Database test, Properties dbProperties, Properties workloadProperties) {
+
+		this.workloadProperties = workloadProperties;
+		tableName = workloadProperties.getProperty("tablename");
+		boolean cleanup = Boolean.valueOf(workloadProperties.getProperty("cleanup", "false"));
+		int threads = PropsUtil.expandInt(workloadProperties.getProperty("threads", "1"));
+
+		int documents = PropsUtil.expandInt(workloadProperties.getProperty("text.documents", "50k"));
+		int minWords = PropsUtil.expandInt(workloadProperties.getProperty("text.words.min", "20"));
+		int maxWords = PropsUtil.expandInt(workloadProperties.getProperty("text.words.max", "100"));
+		vocabulary = Math.min(Tester.wordCount(), PropsUtil.expandInt(workloadProperties.getProperty("text.vocabulary", "10k")));
+		int queryCount = PropsUtil.expandInt(workloadProperties.getProperty("text.query.count", "10k"));
+		queryTerms = PropsUtil.expandInt(workloadProperties.getProperty("text.query.terms", "2"));
+		substringLength = PropsUtil.expandInt(workloadProperties.getProperty("text.substring.length", "3"));
+		queryLimit = PropsUtil.expandInt(workloadProperties.getProperty("text.query.limit", "100"));
+		DataGenerator dataGenerator = new DataGenerator(workloadProperties);
+
+		test.init(dbProperties);
+		test.startBulkLoad();
+		List<FieldDefinition> fieldDef = new ArrayList<>();
+		fieldDef.add(new FieldDefinition("text", FieldDefinition.FIELD_TYPE.STRING, FieldDefinition.INDEX_TYPE.FULLTEXT));
+		test.register(tableName, fieldDef);
+
+		System.out.println("Loading documents..");
+		ScenarioExecutor<Void> loader = new ScenarioExecutor<>(threads);
+		for (int n = 0; n < threads; n++) {
+			int count = (int) ((long) documents * (n + 1) / threads - (long) documents * n / threads);
+			loader.addTask(new LoadTask(test, count, minWords, maxWords, dataGenerator.stream(n)));
+		}
+		long start = System.currentTimeMillis();
+		loader.start();
+		loader.getResults();
+		long loadDuration = Math.max(1, System.currentTimeMillis() - start);
+		System.out.println("Load: documents=" + documents + " duration=" + loadDuration + " rate=" + ((1000L * documents) / loadDuration));
+
+		System.out.println("Building index..");
+		start = System.currentTimeMillis();
+		test.endBulkLoad();
+		System.out.println("Index build: duration=" + (System.currentTimeMillis() - start));
+		System.out.println("Stats: " + test.getStats(tableName));
+
+		for (QueryType type : QueryType.values()) {
+			ScenarioExecutor<QueryStats> executor = new ScenarioExecutor<>(threads);
+			for (int n = 0; n < threads; n++) {
+				executor.addTask(new SearchTask(test, type, queryCount / threads, dataGenerator.stream(threads + n)));
+			}
+			start = System.currentTimeMillis();
+			executor.start();
+			QueryStats stats = new QueryStats();
+			for (QueryStats threadStats : executor.getResults()) {
+				stats.add(threadStats);
+			}
+			long duration = Math.max(1, System.currentTimeMillis() - start);
+			long queries = stats.latency.getCount();
+			System.out.println("Text search: type=" + type.name().toLowerCase() + " queries=" + queries + " duration=" + duration
+					+ " rate=" + ((1000 * queries) / duration) + " avg_results=" + (queries == 0 ? 0 : stats.results / queries)
+					+ " failures=" + stats.failures + " " + stats.latency);
+		}
+
+		if (cleanup) {
+			System.out.println("Cleanup..");
+			test.cleanup(tableName);
+		}
+	}
+
+	/**
+	 * Latency of successful queries, their total number of results, and number of failed queries.
+	 */
+	public static class QueryStats {
+		public final LatencyHistogram latency = new LatencyHistogram();
+		public long results;
+		public long failures;
+
+		public void add(QueryStats other) {
+			latency.add(other.latency);
+			results += other.results;
+			failures += other.failures;
+		}
+	}
+
+	public class LoadTask implements Callable<List<Void>> {
+
+		public LoadTask(Database test, int count, int minWords, int maxWords, DataStream data) {
+			this.test = test;
+			this.count = count;
+			this.minWords = minWords;
+			this.maxWords = maxWords;
+			this.data = data;
+			this.wordChooser = KeyChooser.fromProperties(workloadProperties, data.nextLong());
+		}
+
+		private Database test;
+		private int count;
+		private int minWords;
+		private int maxWords;
+		private DataStream data;
+		private KeyChooser wordChooser;
+
+		@Override
+		public List<Void> call() throws Exception {
+			try {
+				for (int i = 0; i < count; i++) {
+					int words = minWords + data.nextInt(maxWords - minWords + 1);
+					StringBuilder text = new StringBuilder(words * 9);
+					for (int w = 0; w < words; w++) {
+						if (w > 0) {
+							text.append(' ');
+						}
+						text.append(Tester.word(wordChooser.next(vocabulary)));
+					}
+					Map<String, Object> fields = new HashMap<>(2);
+					fields.put("text", text.toString());
+					test.insert(tableName, fields);
+				}
+			} finally {
+				test.finish();
+			}
+			return null;
+		}
+	}
+
+	public class SearchTask implements Callable<List<QueryStats>> {
+
+		public SearchTask(Database test, QueryType type, int count, DataStream data) {
+			this.test = test;
+			this.type = type;
+			this.count = count;
+			this.wordChooser = KeyChooser.fromProperties(workloadProperties, data.nextLong());
+		}
+
+		private Database test;
+		private QueryType type;
+		private int count;
+		private KeyChooser wordChooser;
+		private QueryStats stats = new QueryStats();
+
+		@Override
+		public List<QueryStats> call() throws Exception {
+			try {
+				for (int i = 0; i < count; i++) {
+					List<QueryPredicate> predicates = predicates();
+					long start = System.nanoTime();
+					try {
+						int results = test.querySimple(tableName, predicates, 0, queryLimit).size();
+						stats.latency.record(System.nanoTime() - start);
+						stats.results += results;
+					} catch (RuntimeException re) {
+						stats.failures++;
+					}
+				}
+			} finally {
+				test.finish();
+			}
+			return Collections.singletonList(stats);
+		}
+
+		private List<QueryPredicate> predicates() {
+			List<QueryPredicate> predicates = new ArrayList<>(queryTerms);
+			switch (type) {
+				case SINGLE:
+					predicates.add(new QueryPredicate("text", QueryPredicate.OPERATOR.CONTAINS_TEXT, nextWord()));
+					break;
+				case MULTI:
+					for (int t = 0; t < queryTerms; t++) {
+						predicates.add(new QueryPredicate("text", QueryPredicate.OPERATOR.CONTAINS_TEXT, nextWord()));
+					}
+					break;
+				case SUBSTRING:
+					String word = nextWord();
+					predicates.add(new QueryPredicate("text", QueryPredicate.OPERATOR.LIKE, word.substring(0, Math.min(substringLength, word.length()))));
+					break;
+			}
+			return predicates;
+		}
+
+		private String nextWord() {
+			return Tester.word(wordChooser.next(vocabulary));
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package net.nosql_bench;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class InPlaceWriteTest {
+
+	@Test
+	public void transactionalAndInPlaceIncrementsAreNotLost() throws Exception {
+		final TestDatabase db = new TestDatabase();
+		db.init(new Properties());
+		final String key = db.insert("Counters", Collections.<String, Object>singletonMap("count", 0L));
+		final int threads = 4;
+		final int increments = 500;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final boolean transactional = t % 2 == 0;
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = 0; i < increments; i++) {
+						if (!transactional) {
+							db.increment("Counters", key, Collections.singletonMap("count", 1L));
+							continue;
+						}
+						while (true) {
+							db.startTransaction();
+							try {
+								db.increment("Counters", key, Collections.singletonMap("count", 1L));
+								db.commitTransaction();
+								break;
+							} catch (IllegalStateException e) {
+								db.rollbackTransaction();
+							}
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		Assert.assertEquals((long) threads * increments, ((Number) db.get(key).get("count")).longValue());
+	}
+}
@@ -0,0 +1,47 @@
+package net.nosql_bench;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+public class KeyManifestTest {
+
+	@Test
+	public void concurrentAppendsAreReadBack() throws Exception {
+		String path = File.createTempFile("manifest", "").getPath();
+		final KeyManifest manifest = KeyManifest.create(path);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						manifest.append("BenchTest:" + thread + ":" + i);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		manifest.close();
+
+		KeyManifest reopened = KeyManifest.open(path);
+		Assert.assertEquals(40000, reopened.size());
+		Set<String> keys = new HashSet<>();
+		for (int i = 0; i < reopened.size(); i++) {
+			keys.add(reopened.get(i));
+		}
+		reopened.close();
+		Assert.assertEquals(40000, keys.size());
+		Assert.assertTrue(keys.contains("BenchTest:3:9999"));
+
+		new File(path + ".keys").delete();
+		new File(path + ".index").delete();
+	}
+}
@@ -0,0 +1,70 @@
+package net.nosql_bench;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+public class PagingTest {
+
+	private TestDatabase db;
+
+	@Before
+	public void setUp() {
+		db = new TestDatabase();
+		db.init(new Properties());
+		List<FieldDefinition> fields = new ArrayList<>();
+		fields.add(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE));
+		db.register("Paged", fields);
+		for (int i = 0; i < 1000; i++) {
+			Map<String, Object> record = new HashMap<>();
+			record.put("number", i % 97); // duplicates, ties are ordered by key
+			db.insert("Paged", record);
+		}
+	}
+
+	@Test
+	public void keysetWalkReturnsEveryRecordOnceInOrder() {
+		for (boolean indexed : new boolean[]{true, false}) {
+			String sortField = indexed ? "number" : "unindexed";
+			if (!indexed) {
+				// same values in a field without range index, served by the default implementation
+				for (Map.Entry<String, Map<String, Object>> record : db.querySimple("Paged", new ArrayList<QueryPredicate>(), 0, 0).entrySet()) {
+					db.patch("Paged", record.getKey(), Collections.singletonMap("unindexed", record.getValue().get("number")), Collections.<String>emptySet());
+				}
+			}
+			Set<String> seen = new HashSet<>();
+			Page.Cursor previous = null;
+			String continuation = null;
+			do {
+				Page page = db.queryPage("Paged", new ArrayList<QueryPredicate>(), sortField, 64, continuation);
+				for (Map.Entry<String, Map<String, Object>> record : page.records.entrySet()) {
+					Page.Cursor cursor = new Page.Cursor(record.getValue().get(sortField), record.getKey());
+					Assert.assertTrue(previous == null || cursor.compareTo(previous) > 0);
+					Assert.assertTrue(seen.add(record.getKey()));
+					previous = cursor;
+				}
+				continuation = page.continuation;
+			} while (continuation != null);
+			Assert.assertEquals(sortField, 1000, seen.size());
+		}
+	}
+
+	@Test
+	public void queryWithoutLimitReturnsAll() {
+		List<QueryPredicate> predicates = new ArrayList<>();
+		predicates.add(new QueryPredicate("number", QueryPredicate.OPERATOR.EQUALS, 5));
+		Assert.assertEquals(11, db.querySimple("Paged", predicates, 0, 0).size());
+		Assert.assertEquals(3, db.querySimple("Paged", predicates, 8, 0).size());
+	}
+
+	@Test
+	public void continuationRoundTrip() {
+		for (Object value : new Object[]{null, 7, 7L, 1.5, "a:b"}) {
+			Page.Cursor cursor = Page.Cursor.decode(new Page.Cursor(value, "Paged:12").encode());
+			Assert.assertEquals(value, cursor.value);
+			Assert.assertEquals("Paged:12", cursor.key);
+		}
+	}
+}
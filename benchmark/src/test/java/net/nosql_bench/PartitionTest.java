@@ -0,0 +1,104 @@
+package net.nosql_bench;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class PartitionTest {
+
+	private TestDatabase db;
+
+	@Before
+	public void setUp() {
+		db = new TestDatabase();
+		db.init(new Properties());
+		List<FieldDefinition> fields = new ArrayList<>();
+		fields.add(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE));
+		db.register("First", fields);
+		db.register("Second", fields);
+		for (int i = 0; i < 100; i++) {
+			Map<String, Object> record = new HashMap<>();
+			record.put("number", i);
+			db.insert("First", record);
+			if (i % 2 == 0) {
+				db.insert("Second", record);
+			}
+		}
+	}
+
+	@Test
+	public void queriesOnlySeeTheirTable() {
+		List<QueryPredicate> predicates = new ArrayList<>();
+		predicates.add(new QueryPredicate("number", QueryPredicate.OPERATOR.LESSER, 10));
+		Assert.assertEquals(10, db.querySimple("First", predicates, 0, 0).size());
+		Assert.assertEquals(5, db.querySimple("Second", predicates, 0, 0).size());
+		Assert.assertEquals(50, db.queryPage("Second", new ArrayList<QueryPredicate>(), "number", 100, null).records.size());
+		Assert.assertEquals(0, db.querySimple("Unknown", predicates, 0, 0).size());
+	}
+
+	@Test
+	public void cleanupDropsOnlyItsTable() {
+		String key = db.querySimple("Second", new ArrayList<QueryPredicate>(), 0, 1).keySet().iterator().next();
+		db.cleanup("Second");
+		Assert.assertNull(db.get(key));
+		Assert.assertEquals(0L, (long) db.getStats("Second").get("records"));
+		Assert.assertEquals(0L, (long) db.getStats("Second").get("bytes"));
+		Assert.assertEquals(0L, (long) db.getStats("Second").get("index.number.entries"));
+		Assert.assertEquals(100L, (long) db.getStats("First").get("records"));
+		Assert.assertEquals(100L, (long) db.getStats("First").get("index.number.entries"));
+
+		// indexes survive the cleanup
+		Map<String, Object> record = new HashMap<>();
+		record.put("number", 7);
+		db.insert("Second", record);
+		Assert.assertEquals(1L, (long) db.getStats("Second").get("index.number.entries"));
+	}
+
+	@Test
+	public void cleanupKeepsTheOtherTablesSpillFile() throws IOException {
+		Path dir = Files.createTempDirectory("partition");
+		Properties props = new Properties();
+		props.setProperty("tier.heap.entries", "10");
+		props.setProperty("tier.spill.path", dir.resolve("spill").toString());
+		db.init(props);
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			Map<String, Object> record = new HashMap<>();
+			record.put("number", i);
+			keys.add(db.insert("First", record));
+			db.insert("Second", record);
+		}
+		try {
+			db.cleanup("Second");
+			Assert.assertTrue(Files.exists(dir.resolve("spill-First")));
+			Assert.assertEquals(40L, (long) db.getStats("First").get("tier.cold.entries"));
+			for (int i = 0; i < 50; i++) {
+				Assert.assertEquals(i, db.get(keys.get(i)).get("number"));
+			}
+			Assert.assertEquals(0L, (long) db.getStats("Second").get("records"));
+		} finally {
+			// closes the spill files
+			db.init(new Properties());
+			Files.delete(dir.resolve("spill-First"));
+			Files.delete(dir.resolve("spill-Second"));
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void bytesFollowWrites() {
+		long bytes = db.getStats("First").get("bytes");
+		Assert.assertTrue(bytes > 0);
+		String key = db.querySimple("First", new ArrayList<QueryPredicate>(), 0, 1).keySet().iterator().next();
+		db.patch("First", key, Collections.<String, Object>singletonMap("name", "a longer value"), Collections.<String>emptySet());
+		Assert.assertTrue(db.getStats("First").get("bytes") > bytes);
+		db.delete("First", key);
+		db.delete("First", db.querySimple("First", new ArrayList<QueryPredicate>(), 0, 1).keySet().iterator().next());
+		Assert.assertTrue(db.getStats("First").get("bytes") < bytes);
+	}
+}
@@ -0,0 +1,78 @@
+package net.nosql_bench;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+
+public class RemoteDatabaseTest {
+
+	@Test
+	public void operationsRoundTrip() {
+		Properties props = new Properties();
+		props.setProperty("remote.embedded", "true");
+		props.setProperty("remote.connections", "2");
+		RemoteDatabase db = new RemoteDatabase();
+		db.init(props);
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE)));
+
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("number", 7);
+		fields.put("text", "za\u017c\u00f3\u0142\u0107");
+		fields.put("big", Long.MAX_VALUE);
+		fields.put("list", Arrays.asList("a", 1));
+		String key = db.insert("t", fields);
+		Assert.assertEquals(fields, db.get(key));
+
+		List<QueryPredicate> predicates = Collections.singletonList(new QueryPredicate("number", QueryPredicate.OPERATOR.EQUALS, 7));
+		Assert.assertEquals(Collections.singleton(key), db.querySimple("t", predicates, 0, 0).keySet());
+		Assert.assertEquals(8L, db.increment("t", key, "number", 1));
+
+		// the transaction belongs to this thread's session, whichever server worker runs its requests
+		db.startTransaction();
+		Map<String, Object> record = db.get(key);
+		record.put("number", 1);
+		db.put("t", key, record);
+		db.rollbackTransaction();
+		Assert.assertEquals(8, db.get(key).get("number"));
+
+		// server side errors are rethrown by the client
+		db.startTransaction();
+		try {
+			db.startTransaction();
+			Assert.fail("Nested transaction should fail.");
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Remote:"));
+		}
+		db.rollbackTransaction();
+		db.cleanup("t");
+		Assert.assertNull(db.get(key));
+	}
+
+	@Test
+	public void malformedRequestGetsErrorResponse() throws IOException {
+		RemoteServer server = new RemoteServer(new Properties(), 0, 1);
+		server.start();
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()))) {
+			WireProtocol.FrameOutput request = new WireProtocol.FrameOutput();
+			request.writeLong(42);
+			request.writeLong(1);
+			request.writeByte(WireProtocol.Operation.values().length);
+			channel.write(ByteBuffer.wrap(request.toByteArray()));
+
+			DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+			in.readInt();
+			Assert.assertEquals(42, in.readLong());
+			Assert.assertEquals(WireProtocol.ERROR, in.readByte());
+			Assert.assertTrue(WireProtocol.readString(in).contains("Unknown operation"));
+		} finally {
+			server.stop();
+		}
+	}
+}
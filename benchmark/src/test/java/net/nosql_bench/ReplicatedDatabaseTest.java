@@ -0,0 +1,47 @@
+package net.nosql_bench;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class ReplicatedDatabaseTest {
+
+	@Test
+	public void replicasApplyCommittedWrites() {
+		Properties props = new Properties();
+		props.setProperty("replication.replicas", "2");
+		props.setProperty("replication.reads", "round-robin");
+		ReplicatedDatabase db = new ReplicatedDatabase();
+		db.init(props);
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE)));
+
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("number", 1);
+		String first = db.insert("t", fields);
+		String second = db.insert("t", fields);
+		db.increment("t", first, "number", 1);
+
+		db.startTransaction();
+		Map<String, Object> record = db.get(second);
+		record.put("number", 5);
+		db.put("t", second, record);
+		db.commitTransaction();
+		db.delete("t", first);
+		db.flush();
+
+		// reads alternate between the replicas
+		for (int i = 0; i < 2; i++) {
+			Assert.assertNull(db.get(first));
+			Assert.assertEquals(5, db.get(second).get("number"));
+		}
+		List<QueryPredicate> predicates = Collections.singletonList(new QueryPredicate("number", QueryPredicate.OPERATOR.EQUALS, 5));
+		Assert.assertEquals(Collections.singleton(second), db.querySimple("t", predicates, 0, 0).keySet());
+
+		Map<String, Long> stats = db.getStats("t");
+		Assert.assertEquals(5L, (long) stats.get("replication.writesets"));
+		Assert.assertEquals(1L, (long) stats.get("primary.reads"));
+		Assert.assertEquals(3L, (long) stats.get("replica.0.reads"));
+		Assert.assertEquals(2L, (long) stats.get("replica.1.reads"));
+	}
+}
@@ -0,0 +1,71 @@
+package net.nosql_bench;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class ShardedDatabaseTest {
+
+	@Test
+	public void crossShardTransactionIsAtomic() {
+		Properties props = new Properties();
+		props.setProperty("shard.count", "4");
+		props.setProperty("shard.latency", "0");
+		ShardedDatabase db = new ShardedDatabase();
+		db.init(props);
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE)));
+
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("number", 0);
+		String first = db.insert("t", fields);
+		String second;
+		do {
+			second = db.insert("t", fields);
+		} while (db.shardOf(second) == db.shardOf(first));
+
+		// a write between read and commit makes the prepare of one shard fail, the other shard must not commit
+		db.startTransaction();
+		for (String key : new String[]{first, second}) {
+			Map<String, Object> record = db.get(key);
+			record.put("number", 1);
+			db.put("t", key, record);
+		}
+		fields.put("number", 2);
+		putOutsideTransaction(db, second, fields);
+		try {
+			db.commitTransaction();
+			Assert.fail("Commit should fail.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertEquals(0, db.get(first).get("number"));
+		Assert.assertEquals(2, db.get(second).get("number"));
+
+		db.startTransaction();
+		for (String key : new String[]{first, second}) {
+			Map<String, Object> record = db.get(key);
+			record.put("number", 3);
+			db.put("t", key, record);
+		}
+		db.commitTransaction();
+		Assert.assertEquals(3, db.get(first).get("number"));
+		Assert.assertEquals(3, db.get(second).get("number"));
+		Assert.assertEquals(1L, (long) db.getStats("t").get("commits.cross"));
+	}
+
+	private static void putOutsideTransaction(final Database db, final String key, final Map<String, Object> fields) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				db.put("t", key, fields);
+			}
+		});
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
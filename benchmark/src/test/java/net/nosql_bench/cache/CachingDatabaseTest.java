@@ -0,0 +1,67 @@
+package net.nosql_bench.cache;
+
+import net.nosql_bench.FieldDefinition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class CachingDatabaseTest {
+
+	@Test
+	public void lruEvictsLeastRecentlyUsed() {
+		BoundedCache<String> cache = new BoundedCache<>(2, 0, BoundedCache.Policy.LRU, 0, 1);
+		cache.put("a", "1", 1, cache.generation("a"));
+		cache.put("b", "2", 1, cache.generation("b"));
+		cache.get("a");
+		cache.put("c", "3", 1, cache.generation("c"));
+		Assert.assertEquals("1", cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals(1L, (long) cache.getStats().get("evictions"));
+	}
+
+	@Test
+	public void tinyLfuRejectsColdKey() {
+		BoundedCache<String> cache = new BoundedCache<>(1, 0, BoundedCache.Policy.TINYLFU, 0, 1);
+		for (int i = 0; i < 5; i++) {
+			cache.get("hot");
+		}
+		cache.put("hot", "1", 1, cache.generation("hot"));
+		cache.get("cold");
+		Assert.assertFalse(cache.put("cold", "2", 1, cache.generation("cold")));
+		Assert.assertEquals("1", cache.get("hot"));
+	}
+
+	@Test
+	public void invalidationDiscardsLoadInFlight() {
+		BoundedCache<String> cache = new BoundedCache<>(10, 0, BoundedCache.Policy.LRU, 0, 1);
+		long generation = cache.generation("a");
+		cache.invalidate("a");
+		Assert.assertFalse(cache.put("a", "stale", 1, generation));
+		Assert.assertNull(cache.get("a"));
+	}
+
+	@Test
+	public void transactionSeesOwnWritesAndCommitInvalidates() {
+		Properties props = new Properties();
+		props.setProperty("delegate", "net.nosql_bench.TestDatabase");
+		CachingDatabase db = new CachingDatabase();
+		db.init(props);
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.SINGLE)));
+
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("number", 1);
+		String key = db.insert("t", fields);
+		Assert.assertEquals(1, db.get(key).get("number"));
+
+		db.startTransaction();
+		Map<String, Object> record = db.get(key);
+		record.put("number", 2);
+		db.put("t", key, record);
+		Assert.assertEquals(2, db.get(key).get("number"));
+		db.commitTransaction();
+
+		Assert.assertEquals(2, db.get(key).get("number"));
+		db.cleanup("t");
+	}
+}
@@ -0,0 +1,43 @@
+package net.nosql_bench.cache;
+
+import net.nosql_bench.FieldDefinition;
+import net.nosql_bench.QueryPredicate;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class QueryCachingDatabaseTest {
+
+	@Test
+	public void queryKeyIgnoresPredicateOrder() {
+		QueryPredicate a = new QueryPredicate("a", QueryPredicate.OPERATOR.EQUALS, 1);
+		QueryPredicate b = new QueryPredicate("b", QueryPredicate.OPERATOR.GREATER, "x");
+		Assert.assertEquals(QueryCachingDatabase.queryKey("t", Arrays.asList(a, b), 0, 10),
+				QueryCachingDatabase.queryKey("t", Arrays.asList(b, a), 0, 10));
+		Assert.assertNotEquals(QueryCachingDatabase.queryKey("t", Collections.singletonList(a), 0, 10),
+				QueryCachingDatabase.queryKey("t", Collections.singletonList(new QueryPredicate("a", QueryPredicate.OPERATOR.EQUALS, "1")), 0, 10));
+	}
+
+	@Test
+	public void writeInvalidatesTableResults() {
+		Properties props = new Properties();
+		props.setProperty("delegate", "net.nosql_bench.TestDatabase");
+		QueryCachingDatabase db = new QueryCachingDatabase();
+		db.init(props);
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.SINGLE)));
+
+		List<QueryPredicate> predicates = Collections.singletonList(new QueryPredicate("number", QueryPredicate.OPERATOR.EQUALS, 1));
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("number", 1);
+		db.insert("t", fields);
+		Assert.assertEquals(1, db.querySimple("t", predicates, 0, 0).size());
+		Assert.assertEquals(1, db.querySimple("t", predicates, 0, 0).size());
+
+		db.insert("t", fields);
+		Assert.assertEquals(2, db.querySimple("t", predicates, 0, 0).size());
+		Map<String, Long> stats = db.getStats("t");
+		Assert.assertEquals(1L, (long) stats.get("querycache.stale.dropped"));
+		db.cleanup("t");
+	}
+}
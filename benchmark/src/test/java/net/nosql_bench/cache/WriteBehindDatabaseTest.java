@@ -0,0 +1,62 @@
+package net.nosql_bench.cache;
+
+import net.nosql_bench.FieldDefinition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class WriteBehindDatabaseTest {
+
+	@Test
+	public void writesAreDurableAfterFlush() {
+		Properties props = new Properties();
+		props.setProperty("delegate", "net.nosql_bench.TestDatabase");
+		props.setProperty("writebehind.linger", "1000");
+		WriteBehindDatabase db = new WriteBehindDatabase();
+		db.init(props);
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.SINGLE)));
+
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("number", 1);
+		String key = db.insert("t", fields);
+		for (int i = 2; i <= 10; i++) {
+			fields.put("number", i);
+			db.put("t", key, fields);
+		}
+		// queued writes are visible to reads before they are durable
+		Assert.assertEquals(10, db.get(key).get("number"));
+
+		db.flush();
+		Assert.assertEquals(10, db.getDelegate().get(key).get("number"));
+		Map<String, Long> stats = db.getStats("t");
+		Assert.assertEquals(10L, (long) stats.get("writebehind.acknowledged"));
+		Assert.assertEquals(0L, (long) stats.get("writebehind.pending"));
+		Assert.assertTrue(stats.get("writebehind.durable") < 10);
+
+		db.delete("t", key);
+		db.flush();
+		Assert.assertNull(db.getDelegate().get(key));
+	}
+
+	@Test
+	public void queuedWritesDoNotOverwriteCommittedOnes() {
+		Properties props = new Properties();
+		props.setProperty("delegate", "net.nosql_bench.TestDatabase");
+		props.setProperty("writebehind.linger", "1000");
+		WriteBehindDatabase db = new WriteBehindDatabase();
+		db.init(props);
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.SINGLE)));
+
+		String key = db.insert("t", Collections.<String, Object>singletonMap("number", 1));
+		db.put("t", key, Collections.<String, Object>singletonMap("number", 2));
+		db.startTransaction();
+		Assert.assertEquals(2, db.get(key).get("number"));
+		db.put("t", key, Collections.<String, Object>singletonMap("number", 3));
+		db.commitTransaction();
+
+		db.flush();
+		Assert.assertEquals(3, db.getDelegate().get(key).get("number"));
+		Assert.assertEquals(3, db.get(key).get("number"));
+	}
+}
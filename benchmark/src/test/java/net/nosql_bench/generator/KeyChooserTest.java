@@ -0,0 +1,75 @@
+package net.nosql_bench.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class KeyChooserTest {
+
+	private static final int COUNT = 1000;
+	private static final int SAMPLES = 200_000;
+
+	@Test
+	public void allChoosersStayInRange() {
+		for (String distribution : new String[]{"uniform", "sequential", "zipfian", "hotspot", "latest"}) {
+			Properties props = new Properties();
+			props.setProperty("key.distribution", distribution);
+			KeyChooser chooser = KeyChooser.fromProperties(props, 42);
+			for (int count = 1; count < 5000; count += 7) {
+				int index = chooser.next(count);
+				Assert.assertTrue(distribution + " index=" + index + " count=" + count, index >= 0 && index < count);
+			}
+		}
+	}
+
+	@Test
+	public void sameSeedGivesSameSequence() {
+		KeyChooser first = new ZipfianKeyChooser(7, 0.99, true);
+		KeyChooser second = new ZipfianKeyChooser(7, 0.99, true);
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals(first.next(COUNT), second.next(COUNT));
+		}
+	}
+
+	@Test
+	public void zipfianIsSkewed() {
+		int[] hits = sample(new ZipfianKeyChooser(1, 0.99, false));
+		// rank 0 alone gets ~13% of all requests with theta=0.99 and 1000 items
+		Assert.assertTrue(hits[0] > SAMPLES / 10);
+		Assert.assertTrue(hits[0] > hits[1] && hits[1] > hits[10]);
+	}
+
+	@Test
+	public void latestPrefersNewestRecords() {
+		int[] hits = sample(new LatestKeyChooser(1, 0.99));
+		Assert.assertTrue(hits[COUNT - 1] > hits[COUNT / 2]);
+		Assert.assertTrue(hits[COUNT - 1] > SAMPLES / 10);
+	}
+
+	@Test
+	public void hotspotSendsOperationsToHotKeys() {
+		int[] hits = sample(new HotspotKeyChooser(1, 0.2, 0.8));
+		int hot = 0;
+		for (int i = 0; i < COUNT / 5; i++) {
+			hot += hits[i];
+		}
+		Assert.assertEquals(0.8, (double) hot / SAMPLES, 0.01);
+	}
+
+	@Test
+	public void zipfianFollowsGrowingRecordCount() {
+		ZipfianKeyChooser chooser = new ZipfianKeyChooser(3, 0.9, false);
+		for (int count = 10; count < 10_000; count++) {
+			Assert.assertTrue(chooser.nextRank(count) < count);
+		}
+	}
+
+	private int[] sample(KeyChooser chooser) {
+		int[] hits = new int[COUNT];
+		for (int i = 0; i < SAMPLES; i++) {
+			hits[chooser.next(COUNT)]++;
+		}
+		return hits;
+	}
+}
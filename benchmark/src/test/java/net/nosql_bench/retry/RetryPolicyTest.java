@@ -0,0 +1,33 @@
+package net.nosql_bench.retry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Properties;
+
+public class RetryPolicyTest {
+
+	@Test
+	public void givesUpAfterMaxAttempts() {
+		Properties props = new Properties();
+		props.setProperty("retry.max.attempts", "3");
+		RetryPolicy policy = RetryPolicy.fromProperties(props, 1);
+		Assert.assertTrue(policy.retry(1));
+		Assert.assertTrue(policy.retry(2));
+		Assert.assertFalse(policy.retry(3));
+		policy.committed(2);
+		Assert.assertEquals(1, policy.getHistogram().getCommits());
+		Assert.assertEquals(1, policy.getHistogram().getGaveUp());
+		Assert.assertEquals(1.0, policy.getHistogram().getRetriesPerCommit(), 0.0);
+	}
+
+	@Test
+	public void exponentialBackoffStaysBelowCeiling() {
+		ExponentialBackoffPolicy policy = new ExponentialBackoffPolicy(1, 0, 1000, 50000);
+		for (int attempt = 1; attempt < 100; attempt++) {
+			long ceiling = Math.min(50000, 1000L << Math.min(attempt - 1, 20));
+			long backoff = policy.backoff(attempt);
+			Assert.assertTrue("attempt=" + attempt + " backoff=" + backoff, backoff >= 0 && backoff < ceiling);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package net.nosql_bench.tier;
+
+import net.nosql_bench.FieldDefinition;
+import net.nosql_bench.QueryPredicate;
+import net.nosql_bench.TestDatabase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+public class TieredTestDatabaseTest {
+
+	private Path dir;
+	private TestDatabase db;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("tier");
+		Properties props = new Properties();
+		props.setProperty("tier.heap.entries", "10");
+		props.setProperty("tier.spill.path", dir.resolve("spill").toString());
+		db = new TestDatabase();
+		db.init(props);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		// closes the spill files
+		db.init(new Properties());
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+				Files.delete(directory);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Test
+	public void coldRecordsAreReadBack() {
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE)));
+
+		List<String> keys = new ArrayList<>();
+		Map<String, Object> fields = new HashMap<>();
+		for (int i = 0; i < 100; i++) {
+			fields.put("number", i);
+			fields.put("text", "record " + i);
+			keys.add(db.insert("t", fields));
+		}
+		Map<String, Long> stats = db.getStats("t");
+		Assert.assertEquals(10L, (long) stats.get("tier.hot.entries"));
+		Assert.assertEquals(90L, (long) stats.get("tier.cold.entries"));
+		Assert.assertEquals(90L, (long) stats.get("tier.spills"));
+
+		// cold records are read back, changed in place and spilled again
+		Assert.assertEquals("record 0", db.get(keys.get(0)).get("text"));
+		db.increment("t", keys.get(1), "number", 1000);
+		for (int i = 50; i < 100; i++) {
+			db.get(keys.get(i));
+		}
+		Assert.assertEquals(1001, db.get(keys.get(1)).get("number"));
+
+		// scans and queries see both tiers
+		List<QueryPredicate> predicates = Collections.singletonList(new QueryPredicate("number", QueryPredicate.OPERATOR.GREATER, 97));
+		Assert.assertEquals(3, db.querySimple("t", predicates, 0, 0).size());
+		Assert.assertEquals(3, db.queryPage("t", predicates, "number", 10, null).records.size());
+		Assert.assertEquals(100L, (long) db.getStats("t").get("records"));
+
+		stats = db.getStats("t");
+		Assert.assertTrue(stats.toString(), stats.get("tier.readbacks") >= 52);
+		// a record read back unchanged is not written again
+		Assert.assertTrue(stats.toString(), stats.get("tier.spills") < 90 + 52);
+
+		// rewritten records reuse the slots of their stale copies
+		long fileBytes = db.getStats("t").get("tier.file.bytes");
+		for (int round = 0; round < 5; round++) {
+			for (String key : keys) {
+				db.increment("t", key, "number", 1);
+			}
+		}
+		Assert.assertTrue(db.getStats("t").toString(), db.getStats("t").get("tier.file.bytes") <= fileBytes + 1024);
+
+		db.cleanup("t");
+		Assert.assertNull(db.get(keys.get(0)));
+		Assert.assertEquals(0L, (long) db.getStats("t").get("tier.file.bytes"));
+	}
+}
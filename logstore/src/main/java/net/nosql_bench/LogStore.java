@@ -0,0 +1,1146 @@
+package net.nosql_bench;
+
+import net.nosql_bench.logstore.SegmentLog;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Embedded, persistent key-value engine. Records are appended to a {@link SegmentLog} of memory-mapped segment
+ * files and found through a primary index on heap, which maps every key to the location of its latest version in
+ * the log. A get decodes the record straight from the mapped segment.
+ * <p/>
+ * Log entries are:
+ * <ul>
+ * <li>batch - the writes of one commit: puts with the whole record and deletes, all with the commit's version</li>
+ * <li>schema - the fields registered for a table</li>
+ * <li>cleanup - removal of all records of a table</li>
+ * </ul>
+ * Fields registered with index type SINGLE or RANGE get a sorted index on heap, used by queries with a comparison
+ * on the field. Other queries, including those on FULLTEXT fields, scan the table. Values of registered fields
+ * must be of the registered type.
+ * <p/>
+ * Transactions are optimistic: reads record the version of every record they return, writes are buffered, and the
+ * commit fails if any of the records read has changed since. Commits are serialized and appended as one entry, so
+ * a transaction is either recovered whole or not at all.
+ * <p/>
+ * Compaction: when the sealed segments, all but the one being appended to, are more than
+ * 'logstore.compaction.garbage' overwritten or deleted data, a background thread rewrites the oldest sealed segment:
+ * its live records are appended anew and the segment is deleted. Compacting the oldest segment first means that
+ * deletes and cleanups in it can be dropped, as no older version of their records is left. The segment is read and
+ * the copies are encoded without holding the lock, writers only wait while a batch of copies is appended and the
+ * records are pointed to it. The copies are written to disk before the segment is deleted.
+ * <p/>
+ * Recovery: init replays the log, rebuilding the primary and field indexes, up to the first incomplete entry.
+ * Entries are in mapped memory, so they survive a crash of the process once appended, and a crash of the machine
+ * once written to disk, which 'logstore.sync' does on every commit.
+ * <ul>
+ * <li>logstore.path - directory of the log (default ./target/logstore)</li>
+ * <li>logstore.segment.size - size of a segment file in bytes (default 64M)</li>
+ * <li>logstore.sync - write every commit to disk before it returns (default false)</li>
+ * <li>logstore.clear - delete existing data on init instead of recovering it (default false)</li>
+ * <li>logstore.compaction.garbage - share of garbage in sealed segments that starts compaction (default 0.5)</li>
+ * <li>logstore.compaction.interval - ms between checks of the compaction thread, 0 for no compaction (default 1000)</li>
+ * </ul>
+ */
+public class LogStore extends Database {
+
+	private static final byte BATCH = 1, SCHEMA = 2, CLEANUP = 3;
+	private static final byte PUT = 1, DELETE = 2;
+
+	private static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+		@Override
+		public int compare(Object a, Object b) {
+			return Page.compareValues(a, b);
+		}
+	};
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final ThreadLocal<Transaction> transaction = new ThreadLocal<>();
+
+	// guarded by lock
+	private SegmentLog log;
+	private int segmentSize;
+	private Map<String, Table> tables;
+	private Map<String, Location> records;
+	private Map<Integer, Long> liveBytes;
+	private long version;
+	private boolean bulkLoad;
+
+	private final AtomicLong idCounter = new AtomicLong(0);
+	private boolean sync;
+	private double compactionGarbage;
+	private Compactor compactor;
+
+	// statistics
+	private final AtomicLong commits = new AtomicLong(0);
+	private final AtomicLong conflicts = new AtomicLong(0);
+	private long compactions;
+	private long compactionBytes;
+	private long compactionNanos;
+	private final AtomicLong compactionFailures = new AtomicLong(0);
+	private long recoveryEntries;
+	private long recoveryMillis;
+
+	/**
+	 * Latest version of a record in the log.
+	 */
+	private static class Location {
+		final long version;
+		// values of indexed fields, to find the record's index entries
+		final Map<String, Object> indexed;
+		long address;
+		int offset;
+		int length;
+
+		Location(long version, Map<String, Object> indexed, long address, int offset, int length) {
+			this.version = version;
+			this.indexed = indexed;
+			this.address = address;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private static class Table {
+		final String name;
+		final Map<String, FieldDefinition> fields = new LinkedHashMap<>();
+		final Map<String, TreeMap<Object, Set<String>>> indexes = new HashMap<>();
+		final Set<String> keys = new HashSet<>();
+		long schemaAddress = -1;
+
+		Table(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * A put, with fields, or a delete, without.
+	 */
+	private static class Write {
+		final String table;
+		final String key;
+		final Map<String, Object> fields;
+		long version;
+		// encoded record, set when appended
+		byte[] record;
+		int offset;
+
+		Write(String table, String key, Map<String, Object> fields) {
+			this.table = table;
+			this.key = key;
+			this.fields = fields;
+		}
+	}
+
+	private static class Transaction {
+		// version of every record read, 0 for records that did not exist
+		final Map<String, Long> reads = new HashMap<>();
+		final Map<String, Write> writes = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Reads a payload and knows its position in it.
+	 */
+	private static class PayloadInput extends DataInputStream {
+
+		PayloadInput(byte[] payload) {
+			super(new Positioned(payload));
+		}
+
+		int position() {
+			return ((Positioned) in).position();
+		}
+
+		private static class Positioned extends ByteArrayInputStream {
+			Positioned(byte[] bytes) {
+				super(bytes);
+			}
+
+			int position() {
+				return pos;
+			}
+		}
+	}
+
+	@Override
+	public void init(Properties props) {
+		this.properties = props;
+		Path path = Paths.get(props.getProperty("logstore.path", "./target/logstore"));
+		int segmentSize = PropsUtil.expandInt(props.getProperty("logstore.segment.size", "64M"));
+		sync = Boolean.valueOf(props.getProperty("logstore.sync", "false"));
+		compactionGarbage = Double.valueOf(props.getProperty("logstore.compaction.garbage", "0.5"));
+		int compactionInterval = PropsUtil.expandInt(props.getProperty("logstore.compaction.interval", "1000"));
+
+		lock.writeLock().lock();
+		try {
+			close();
+			if (Boolean.valueOf(props.getProperty("logstore.clear", "false"))) {
+				SegmentLog.clear(path);
+			}
+			this.segmentSize = segmentSize;
+			tables = new HashMap<>();
+			records = new HashMap<>(1000);
+			liveBytes = new HashMap<>();
+			version = 0;
+			compactions = 0;
+			compactionBytes = 0;
+			compactionNanos = 0;
+			recoveryEntries = 0;
+
+			long start = System.currentTimeMillis();
+			log = new SegmentLog(path, segmentSize);
+			log.recover(new SegmentLog.Visitor() {
+				@Override
+				public void entry(long address, ByteBuffer payload) {
+					recover(address, payload.array());
+				}
+			});
+			recoveryMillis = System.currentTimeMillis() - start;
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		if (compactionInterval > 0) {
+			compactor = new Compactor(TimeUnit.MILLISECONDS.toNanos(compactionInterval));
+			Thread thread = new Thread(compactor, "logstore-compactor");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops compaction and closes the log, if open.
+	 */
+	void close() {
+		if (compactor != null) {
+			compactor.running = false;
+			compactor = null;
+		}
+		if (log != null) {
+			log.close();
+			log = null;
+		}
+	}
+
+	private void recover(long address, byte[] payload) {
+		recoveryEntries++;
+		try {
+			PayloadInput in = new PayloadInput(payload);
+			byte type = in.readByte();
+			if (type == BATCH) {
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					byte operation = in.readByte();
+					String tableName = WireProtocol.readString(in);
+					String key = WireProtocol.readString(in);
+					long writeVersion = in.readLong();
+					version = Math.max(version, writeVersion);
+					recoverId(key);
+					Table table = table(tableName);
+					if (operation == PUT) {
+						int length = in.readInt();
+						int offset = in.position();
+						Map<String, Object> indexed = Collections.emptyMap();
+						if (hasIndexedFields(table)) {
+							indexed = indexedValues(table, WireProtocol.readRecord(in));
+						} else {
+							in.skipBytes(length);
+						}
+						apply(table, key, indexed, writeVersion, address, offset, length);
+					} else {
+						apply(table, key, null, writeVersion, address, 0, 0);
+					}
+				}
+			} else if (type == SCHEMA) {
+				Table table = table(WireProtocol.readString(in));
+				table.fields.clear();
+				for (FieldDefinition field : WireProtocol.readFields(in)) {
+					table.fields.put(field.fieldName, field);
+				}
+				table.schemaAddress = address;
+				rebuildIndexes(table, true);
+			} else if (type == CLEANUP) {
+				drop(table(WireProtocol.readString(in)));
+			} else {
+				throw new IllegalStateException("Unknown log entry type: " + type);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Corrupt log entry at segment " + SegmentLog.segmentOf(address)
+					+ " offset " + SegmentLog.offsetOf(address), e);
+		}
+	}
+
+	private void recoverId(String key) {
+		String id = key.substring(key.lastIndexOf(':') + 1);
+		try {
+			long value = Long.valueOf(id);
+			if (value > idCounter.get()) {
+				idCounter.set(value);
+			}
+		} catch (NumberFormatException e) {
+			// not a key created by this store
+		}
+	}
+
+	private Table table(String tableName) {
+		Table table = tables.get(tableName);
+		if (table == null) {
+			table = new Table(tableName);
+			tables.put(tableName, table);
+		}
+		return table;
+	}
+
+	private static boolean hasIndexedFields(Table table) {
+		for (FieldDefinition field : table.fields.values()) {
+			if (isIndexed(field)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isIndexed(FieldDefinition field) {
+		return field.indexType == FieldDefinition.INDEX_TYPE.SINGLE || field.indexType == FieldDefinition.INDEX_TYPE.RANGE;
+	}
+
+	private static Map<String, Object> indexedValues(Table table, Map<String, Object> fields) {
+		Map<String, Object> indexed = null;
+		for (FieldDefinition field : table.fields.values()) {
+			Object value = fields.get(field.fieldName);
+			if (value != null && isIndexed(field)) {
+				if (indexed == null) {
+					indexed = new HashMap<>(4);
+				}
+				indexed.put(field.fieldName, value);
+			}
+		}
+		return indexed == null ? Collections.<String, Object>emptyMap() : indexed;
+	}
+
+	/**
+	 * Points the key to a new location, or removes it if indexed is null, maintaining field indexes and the live
+	 * bytes of segments.
+	 */
+	private void apply(Table table, String key, Map<String, Object> indexed, long writeVersion, long address, int offset, int length) {
+		Location old = records.remove(key);
+		if (old != null) {
+			addLiveBytes(old.address, -old.length);
+			unindex(table, key, old.indexed);
+		}
+		if (indexed == null) {
+			table.keys.remove(key);
+			return;
+		}
+		records.put(key, new Location(writeVersion, indexed, address, offset, length));
+		table.keys.add(key);
+		addLiveBytes(address, length);
+		index(table, key, indexed);
+	}
+
+	private void addLiveBytes(long address, long bytes) {
+		int segment = SegmentLog.segmentOf(address);
+		Long live = liveBytes.get(segment);
+		liveBytes.put(segment, (live == null ? 0 : live) + bytes);
+	}
+
+	private void index(Table table, String key, Map<String, Object> indexed) {
+		for (Map.Entry<String, Object> value : indexed.entrySet()) {
+			TreeMap<Object, Set<String>> index = table.indexes.get(value.getKey());
+			if (index != null) {
+				Set<String> keys = index.get(value.getValue());
+				if (keys == null) {
+					keys = new HashSet<>(4);
+					index.put(value.getValue(), keys);
+				}
+				keys.add(key);
+			}
+		}
+	}
+
+	private void unindex(Table table, String key, Map<String, Object> indexed) {
+		for (Map.Entry<String, Object> value : indexed.entrySet()) {
+			TreeMap<Object, Set<String>> index = table.indexes.get(value.getKey());
+			if (index != null) {
+				Set<String> keys = index.get(value.getValue());
+				if (keys != null) {
+					keys.remove(key);
+					if (keys.isEmpty()) {
+						index.remove(value.getValue());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the indexes of a table's indexed fields from its records, unless in bulk load mode.
+	 *
+	 * @param decode Read the records to find their indexed values, needed if the indexed fields changed.
+	 */
+	private void rebuildIndexes(Table table, boolean decode) {
+		table.indexes.clear();
+		if (bulkLoad && !decode) {
+			return;
+		}
+		if (decode) {
+			for (String key : table.keys) {
+				Location location = records.get(key);
+				Location updated = new Location(location.version, indexedValues(table, read(location)),
+						location.address, location.offset, location.length);
+				records.put(key, updated);
+			}
+		}
+		if (bulkLoad) {
+			return;
+		}
+		for (FieldDefinition field : table.fields.values()) {
+			if (isIndexed(field)) {
+				table.indexes.put(field.fieldName, new TreeMap<Object, Set<String>>(VALUE_ORDER));
+			}
+		}
+		for (String key : table.keys) {
+			index(table, key, records.get(key).indexed);
+		}
+	}
+
+	/**
+	 * Removes all records of a table.
+	 */
+	private void drop(Table table) {
+		for (String key : table.keys) {
+			Location location = records.remove(key);
+			addLiveBytes(location.address, -location.length);
+		}
+		table.keys.clear();
+		for (TreeMap<Object, Set<String>> index : table.indexes.values()) {
+			index.clear();
+		}
+	}
+
+	private Map<String, Object> read(Location location) {
+		byte[] bytes = log.read(location.address, location.offset, location.length);
+		try {
+			return WireProtocol.readRecord(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (IOException e) {
+			throw new IllegalStateException("Corrupt record in segment " + SegmentLog.segmentOf(location.address), e);
+		}
+	}
+
+	private static byte[] encode(Map<String, Object> fields) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try {
+			WireProtocol.writeRecord(new DataOutputStream(bytes), fields);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Appends writes as one batch entry, encoding records that are not encoded yet.
+	 *
+	 * @return Address of the entry.
+	 */
+	private long append(Collection<Write> writes) {
+		return log.append(encodeBatch(writes));
+	}
+
+	/**
+	 * Encodes writes as a batch entry, setting the offsets of their records in it.
+	 */
+	private static byte[] encodeBatch(Collection<Write> writes) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(BATCH);
+			out.writeInt(writes.size());
+			for (Write write : writes) {
+				out.writeByte(write.fields == null && write.record == null ? DELETE : PUT);
+				WireProtocol.writeString(out, write.table);
+				WireProtocol.writeString(out, write.key);
+				out.writeLong(write.version);
+				if (write.fields != null || write.record != null) {
+					if (write.record == null) {
+						write.record = encode(write.fields);
+					}
+					out.writeInt(write.record.length);
+					write.offset = out.size();
+					out.write(write.record);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void appendSchema(Table table) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(SCHEMA);
+			WireProtocol.writeString(out, table.name);
+			WireProtocol.writeFields(out, new ArrayList<>(table.fields.values()));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		table.schemaAddress = log.append(bytes.toByteArray());
+	}
+
+	/**
+	 * Checks that values of registered fields are of the registered type.
+	 */
+	private void validate(String tableName, Map<String, Object> fields) {
+		Table table = tables.get(tableName);
+		if (table == null) {
+			return;
+		}
+		for (FieldDefinition field : table.fields.values()) {
+			Object value = fields.get(field.fieldName);
+			if (value != null && (field.fieldType == FieldDefinition.FIELD_TYPE.STRING ? !(value instanceof String) : !(value instanceof Number))) {
+				throw new IllegalArgumentException("Field " + tableName + "." + field.fieldName + " must be of type "
+						+ field.fieldType + ", was " + value.getClass().getSimpleName());
+			}
+		}
+	}
+
+	/**
+	 * Verifies the versions read and appends the writes with a new version.
+	 *
+	 * @throws IllegalStateException If a record read has changed.
+	 */
+	private void commit(Collection<Write> writes, Map<String, Long> reads) {
+		lock.writeLock().lock();
+		try {
+			for (Map.Entry<String, Long> read : reads.entrySet()) {
+				Location location = records.get(read.getKey());
+				long current = location == null ? 0 : location.version;
+				if (current != read.getValue()) {
+					conflicts.incrementAndGet();
+					throw new IllegalStateException("Entity(" + read.getKey() + ") version has changed. read="
+							+ read.getValue() + " current=" + current);
+				}
+			}
+			if (writes.isEmpty()) {
+				return;
+			}
+			for (Write write : writes) {
+				validate(write.table, write.fields == null ? Collections.<String, Object>emptyMap() : write.fields);
+			}
+			version++;
+			for (Write write : writes) {
+				write.version = version;
+			}
+			long address = append(writes);
+			for (Write write : writes) {
+				Table table = table(write.table);
+				apply(table, write.key, write.fields == null ? null : indexedValues(table, write.fields),
+						version, address, write.offset, write.fields == null ? 0 : write.record.length);
+			}
+			if (sync) {
+				log.force();
+			}
+			commits.incrementAndGet();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void write(String tableName, String key, Map<String, Object> fields) {
+		Write write = new Write(tableName, key, fields == null ? null : new HashMap<>(fields));
+		Transaction tx = transaction.get();
+		if (tx != null) {
+			tx.writes.put(key, write);
+		} else {
+			commit(Collections.singletonList(write), Collections.<String, Long>emptyMap());
+		}
+	}
+
+	/**
+	 * Rewrites sealed segments, oldest first, while they hold more garbage than the threshold.
+	 *
+	 * @return Number of segments compacted.
+	 */
+	synchronized int compact() {
+		int compacted = 0;
+		while (true) {
+			SegmentLog current;
+			int segment;
+			lock.readLock().lock();
+			try {
+				current = log;
+				if (current == null) {
+					return compacted;
+				}
+				List<Integer> sealed = current.sealedSegments();
+				long total = 0;
+				long live = 0;
+				for (int id : sealed) {
+					total += current.getSegmentBytes(id);
+					Long segmentLive = liveBytes.get(id);
+					live += segmentLive == null ? 0 : segmentLive;
+				}
+				if (sealed.isEmpty() || total - live <= compactionGarbage * total) {
+					return compacted;
+				}
+				segment = sealed.get(0);
+			} finally {
+				lock.readLock().unlock();
+			}
+			if (!compact(current, segment)) {
+				return compacted;
+			}
+			compacted++;
+		}
+	}
+
+	/**
+	 * A record or schema found in a segment being compacted.
+	 */
+	private static class Found {
+		final Write write;
+		final long address;
+		final int offset;
+
+		Found(Write write, long address, int offset) {
+			this.write = write;
+			this.address = address;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * @return False if the log was closed or replaced meanwhile.
+	 */
+	private boolean compact(SegmentLog current, final int segment) {
+		long start = System.nanoTime();
+
+		// a sealed segment does not change, so it is scanned without the lock
+		final List<Found> puts = new ArrayList<>();
+		final Map<String, Long> schemas = new HashMap<>();
+		current.scan(segment, new SegmentLog.Visitor() {
+			@Override
+			public void entry(long address, ByteBuffer payload) {
+				try {
+					PayloadInput in = new PayloadInput(payload.array());
+					byte type = in.readByte();
+					if (type == BATCH) {
+						int count = in.readInt();
+						for (int i = 0; i < count; i++) {
+							byte operation = in.readByte();
+							String tableName = WireProtocol.readString(in);
+							String key = WireProtocol.readString(in);
+							long writeVersion = in.readLong();
+							if (operation != PUT) {
+								continue;
+							}
+							int length = in.readInt();
+							int offset = in.position();
+							in.skipBytes(length);
+							Write write = new Write(tableName, key, null);
+							write.version = writeVersion;
+							write.record = Arrays.copyOfRange(payload.array(), offset, offset + length);
+							puts.add(new Found(write, address, offset));
+						}
+					} else if (type == SCHEMA) {
+						schemas.put(WireProtocol.readString(in), address);
+					}
+					// cleanups and deletes are dropped, no older records remain
+				} catch (IOException e) {
+					throw new IllegalStateException("Corrupt log entry in segment " + segment, e);
+				}
+			}
+		});
+
+		// records that still live in the segment, later writes only move records out of it
+		final List<Found> live = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			if (log != current) {
+				return false;
+			}
+			for (Found found : puts) {
+				if (isAt(records.get(found.write.key), found)) {
+					live.add(found);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		long bytes = 0;
+		int batchStart = 0;
+		int batchBytes = 0;
+		for (int i = 0; i <= live.size(); i++) {
+			int recordBytes = i < live.size() ? live.get(i).write.record.length + 64 : 0;
+			// flushed before the record that would make the batch too large, a record alone always fits
+			if (i > batchStart && (i == live.size() || batchBytes + recordBytes > segmentSize / 4)) {
+				long copied = copy(current, live.subList(batchStart, i));
+				if (copied < 0) {
+					return false;
+				}
+				bytes += copied;
+				batchStart = i;
+				batchBytes = 0;
+			}
+			batchBytes += recordBytes;
+		}
+
+		lock.writeLock().lock();
+		try {
+			if (log != current) {
+				return false;
+			}
+			for (Map.Entry<String, Long> schema : schemas.entrySet()) {
+				Table table = tables.get(schema.getKey());
+				if (table != null && table.schemaAddress == schema.getValue()) {
+					appendSchema(table);
+				}
+			}
+			// sealed segments were written when sealed, the copies must be on disk before the originals are gone
+			log.force();
+			log.delete(segment);
+			liveBytes.remove(segment);
+			compactions++;
+			compactionBytes += bytes;
+			compactionNanos += System.nanoTime() - start;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * Appends copies of the records that still live at the found locations, as one batch entry.
+	 *
+	 * @return bytes of the records copied, or -1 if the log was replaced meanwhile
+	 */
+	private long copy(SegmentLog current, List<Found> copied) {
+		long bytes = 0;
+		List<Write> batch = new ArrayList<>(copied.size());
+		for (Found found : copied) {
+			batch.add(found.write);
+		}
+		byte[] entry = encodeBatch(batch);
+		lock.writeLock().lock();
+		try {
+			if (log != current) {
+				return -1;
+			}
+			// a copy appended after a newer write or delete of its record would win at recovery
+			List<Found> still = new ArrayList<>(copied.size());
+			for (Found found : copied) {
+				if (isAt(records.get(found.write.key), found)) {
+					still.add(found);
+				}
+			}
+			if (still.size() < copied.size()) {
+				batch.clear();
+				for (Found found : still) {
+					batch.add(found.write);
+				}
+				entry = batch.isEmpty() ? null : encodeBatch(batch);
+			}
+			if (entry != null) {
+				long address = log.append(entry);
+				for (Found found : still) {
+					Location location = records.get(found.write.key);
+					addLiveBytes(location.address, -location.length);
+					location.address = address;
+					location.offset = found.write.offset;
+					addLiveBytes(address, location.length);
+					bytes += location.length;
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return bytes;
+	}
+
+	private static boolean isAt(Location location, Found found) {
+		return location != null && location.address == found.address && location.offset == found.offset;
+	}
+
+	private class Compactor implements Runnable {
+		final long intervalNanos;
+		volatile boolean running = true;
+
+		Compactor(long intervalNanos) {
+			this.intervalNanos = intervalNanos;
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				LockSupport.parkNanos(intervalNanos);
+				if (running) {
+					try {
+						compact();
+					} catch (RuntimeException e) {
+						// the next check tries again, failures are reported by stats
+						compactionFailures.incrementAndGet();
+						System.err.println("Error: LogStore compaction failed: " + e);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void register(String tableName, List<FieldDefinition> fields) {
+		lock.writeLock().lock();
+		try {
+			Table table = table(tableName);
+			boolean changed = false;
+			for (FieldDefinition field : fields) {
+				FieldDefinition existing = table.fields.get(field.fieldName);
+				if (existing == null || existing.fieldType != field.fieldType || existing.indexType != field.indexType) {
+					table.fields.put(field.fieldName, field);
+					changed = true;
+				}
+			}
+			if (changed) {
+				appendSchema(table);
+				rebuildIndexes(table, true);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Appends a cleanup entry and removes the table's records from the indexes, the space they take in the log is
+	 * reclaimed by compaction.
+	 */
+	@Override
+	public void cleanup(String tableName) {
+		lock.writeLock().lock();
+		try {
+			Table table = tables.get(tableName);
+			if (table == null) {
+				return;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				out.writeByte(CLEANUP);
+				WireProtocol.writeString(out, tableName);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			log.append(bytes.toByteArray());
+			drop(table);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void finish() {
+	}
+
+	/**
+	 * Field indexes are not maintained until {@link #endBulkLoad()}.
+	 */
+	@Override
+	public void startBulkLoad() {
+		lock.writeLock().lock();
+		try {
+			bulkLoad = true;
+			for (Table table : tables.values()) {
+				table.indexes.clear();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void endBulkLoad() {
+		lock.writeLock().lock();
+		try {
+			bulkLoad = false;
+			for (Table table : tables.values()) {
+				rebuildIndexes(table, false);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void flush() {
+		lock.writeLock().lock();
+		try {
+			log.force();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Records and distinct values of each index, then the log: segments, bytes, live bytes and garbage, commits,
+	 * conflicts, compactions with bytes copied, time taken and failures, and entries replayed by recovery and its
+	 * time.
+	 */
+	@Override
+	public Map<String, Long> getStats(String tableName) {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		lock.readLock().lock();
+		try {
+			Table table = tables.get(tableName);
+			stats.put("records", table == null ? 0L : table.keys.size());
+			if (table != null) {
+				for (Map.Entry<String, TreeMap<Object, Set<String>>> index : table.indexes.entrySet()) {
+					stats.put("index." + index.getKey() + ".values", (long) index.getValue().size());
+				}
+			}
+			long total = 0;
+			long live = 0;
+			for (long segmentLive : liveBytes.values()) {
+				live += segmentLive;
+			}
+			for (int segment : log.sealedSegments()) {
+				total += log.getSegmentBytes(segment);
+			}
+			total += log.getSegmentBytes(log.getHeadSegment());
+			stats.put("log.segments", (long) log.getSegmentCount());
+			stats.put("log.bytes", total);
+			stats.put("log.live.bytes", live);
+			stats.put("log.garbage.permille", total == 0 ? 0 : 1000 * (total - live) / total);
+			stats.put("commits", commits.get());
+			stats.put("conflicts", conflicts.get());
+			stats.put("compactions", compactions);
+			stats.put("compaction.bytes", compactionBytes);
+			stats.put("compaction.millis", compactionNanos / 1000000);
+			stats.put("compaction.failures", compactionFailures.get());
+			stats.put("recovery.entries", recoveryEntries);
+			stats.put("recovery.millis", recoveryMillis);
+		} finally {
+			lock.readLock().unlock();
+		}
+		return stats;
+	}
+
+	@Override
+	public void startTransaction() {
+		if (transaction.get() != null) {
+			throw new IllegalStateException("Transaction already started");
+		}
+		transaction.set(new Transaction());
+	}
+
+	@Override
+	public void commitTransaction() {
+		Transaction tx = transaction.get();
+		transaction.remove();
+		if (tx != null) {
+			commit(tx.writes.values(), tx.reads);
+		}
+	}
+
+	@Override
+	public void rollbackTransaction() {
+		transaction.remove();
+	}
+
+	@Override
+	public boolean supportsClientKeys() {
+		return true;
+	}
+
+	@Override
+	public String createKey(String tableName) {
+		return tableName + ":" + idCounter.incrementAndGet();
+	}
+
+	@Override
+	public String insert(String tableName, Map<String, Object> fields) {
+		String key = createKey(tableName);
+		write(tableName, key, fields);
+		return key;
+	}
+
+	@Override
+	public Map<String, Object> get(String key) {
+		Transaction tx = transaction.get();
+		if (tx != null) {
+			Write write = tx.writes.get(key);
+			if (write != null) {
+				return write.fields == null ? null : new HashMap<>(write.fields);
+			}
+		}
+		lock.readLock().lock();
+		try {
+			Location location = records.get(key);
+			if (tx != null && !tx.reads.containsKey(key)) {
+				tx.reads.put(key, location == null ? 0 : location.version);
+			}
+			return location == null ? null : read(location);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void put(String tableName, String key, Map<String, Object> fields) {
+		write(tableName, key, fields);
+	}
+
+	@Override
+	public void delete(String tableName, String key) {
+		write(tableName, key, null);
+	}
+
+	@Override
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		if (transaction.get() != null) {
+			return super.patch(tableName, key, set, unset);
+		}
+		lock.writeLock().lock();
+		try {
+			Location location = records.get(key);
+			if (location == null) {
+				return false;
+			}
+			Map<String, Object> fields = read(location);
+			fields.putAll(set);
+			fields.keySet().removeAll(unset);
+			commit(Collections.singletonList(new Write(tableName, key, fields)), Collections.<String, Long>emptyMap());
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		if (transaction.get() != null) {
+			return super.increment(tableName, key, deltas);
+		}
+		lock.writeLock().lock();
+		try {
+			Location location = records.get(key);
+			if (location == null) {
+				return null;
+			}
+			Map<String, Object> fields = read(location);
+			Map<String, Long> values = addDeltas(fields, deltas);
+			commit(Collections.singletonList(new Write(tableName, key, fields)), Collections.<String, Long>emptyMap());
+			return values;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Map<String, Object>> querySimple(String tableName, List<QueryPredicate> predicates, int skip, int limit) {
+		Map<String, Map<String, Object>> results = new HashMap<>();
+		Transaction tx = transaction.get();
+		lock.readLock().lock();
+		try {
+			Table table = tables.get(tableName);
+			if (table == null) {
+				return results;
+			}
+			for (String key : candidates(table, predicates)) {
+				Location location = records.get(key);
+				Map<String, Object> fields = read(location);
+				boolean matched = true;
+				for (QueryPredicate predicate : predicates) {
+					matched = matched && matches(fields, predicate);
+				}
+				if (matched) {
+					if (skip > 0) {
+						skip--;
+					} else if (limit == 0 || results.size() < limit) {
+						if (tx != null && !tx.reads.containsKey(key)) {
+							tx.reads.put(key, location.version);
+						}
+						results.put(key, fields);
+					} else {
+						break;
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return results;
+	}
+
+	/**
+	 * @return Keys of the records that can match: those found by the index of the first predicate with an index, or
+	 * all records of the table.
+	 */
+	private Collection<String> candidates(Table table, List<QueryPredicate> predicates) {
+		for (QueryPredicate predicate : predicates) {
+			TreeMap<Object, Set<String>> index = table.indexes.get(predicate.fieldName);
+			if (index == null || predicate.value == null) {
+				continue;
+			}
+			Collection<Set<String>> matching;
+			switch (predicate.operator) {
+				case EQUALS:
+					Set<String> keys = index.get(predicate.value);
+					return keys == null ? Collections.<String>emptySet() : keys;
+				case GREATER:
+					matching = index.tailMap(predicate.value, false).values();
+					break;
+				case GREATER_EQUALS:
+					matching = index.tailMap(predicate.value, true).values();
+					break;
+				case LESSER:
+					matching = index.headMap(predicate.value, false).values();
+					break;
+				case LESSER_EQUALS:
+					matching = index.headMap(predicate.value, true).values();
+					break;
+				default:
+					continue;
+			}
+			List<String> keys = new ArrayList<>();
+			for (Set<String> valueKeys : matching) {
+				keys.addAll(valueKeys);
+			}
+			return keys;
+		}
+		return table.keys;
+	}
+
+	private static boolean matches(Map<String, Object> fields, QueryPredicate predicate) {
+		Object fieldVal = fields.get(predicate.fieldName);
+		Object value = predicate.value;
+		switch (predicate.operator) {
+			case EQUALS:
+				return value.equals(fieldVal);
+			case NOT_EQUALS:
+				return !value.equals(fieldVal);
+			case GREATER:
+				return fieldVal != null && Page.compareValues(fieldVal, value) > 0;
+			case GREATER_EQUALS:
+				return fieldVal != null && Page.compareValues(fieldVal, value) >= 0;
+			case LESSER:
+				return fieldVal != null && Page.compareValues(fieldVal, value) < 0;
+			case LESSER_EQUALS:
+				return fieldVal != null && Page.compareValues(fieldVal, value) <= 0;
+			case LIKE:
+				return fieldVal instanceof String && value instanceof String && ((String) fieldVal).contains((String) value);
+			case CONTAINS:
+				return fieldVal instanceof Collection && ((Collection) fieldVal).contains(value);
+			case CONTAINS_TEXT:
+				return QueryPredicate.containsText(fieldVal, value);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,270 @@
+package net.nosql_bench.logstore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log in a directory of segment files, each mapped into memory at its full size. Entries are appended
+ * to the last segment, the head, and a new segment is started when an entry does not fit.
+ * <p/>
+ * An entry is its payload's length as an int, the payload's CRC32 as an int and the payload. An entry is followed
+ * by a zero length, which ends the segment until the next entry overwrites it. Recovery reads every segment up to
+ * the zero length or the first entry whose checksum does not match, which is where a crash interrupted an append.
+ * <p/>
+ * Entries are addressed by the segment id in the upper and the offset in the lower 32 bits of a long.
+ * Reads may run concurrently with each other, but not with appends, deletes or recovery. Reads and scans of sealed
+ * segments may also run concurrently with appends, as sealed segments do not change.
+ */
+public class SegmentLog {
+
+	public static final int ENTRY_HEADER = 8;
+
+	private final Path directory;
+	private final int segmentSize;
+	private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+	private volatile Segment head;
+
+	/**
+	 * Receives the entries found by {@link SegmentLog#recover(Visitor)}, in the order they were appended.
+	 */
+	public interface Visitor {
+		void entry(long address, ByteBuffer payload);
+	}
+
+	private static class Segment {
+		final int id;
+		final Path path;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		int end;
+
+		Segment(int id, Path path, int size) throws IOException {
+			this.id = id;
+			this.path = path;
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	public SegmentLog(Path directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Maps the existing segments and passes their entries to the visitor, then continues appending after the last
+	 * valid entry. Creates the directory and the first segment if there are none.
+	 */
+	public void recover(Visitor visitor) {
+		try {
+			Files.createDirectories(directory);
+			List<Integer> ids = new ArrayList<>();
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+				for (Path file : files) {
+					String name = file.getFileName().toString();
+					ids.add(Integer.valueOf(name.substring(0, name.length() - 4)));
+				}
+			}
+			Collections.sort(ids);
+			for (int id : ids) {
+				Segment segment = new Segment(id, path(id), segmentSize);
+				segments.put(id, segment);
+				segment.end = scan(segment, visitor);
+				head = segment;
+			}
+			if (head == null) {
+				head = create(1);
+			}
+			// a torn entry at the end of the head must not be taken for the end of a later entry
+			terminate(head);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open log: " + directory, e);
+		}
+	}
+
+	private int scan(Segment segment, Visitor visitor) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		int position = 0;
+		CRC32 crc = new CRC32();
+		while (position + ENTRY_HEADER <= segmentSize) {
+			int length = buffer.getInt(position);
+			if (length <= 0 || position + ENTRY_HEADER + length > segmentSize) {
+				break;
+			}
+			byte[] payload = new byte[length];
+			buffer.position(position + ENTRY_HEADER);
+			buffer.get(payload);
+			crc.reset();
+			crc.update(payload, 0, length);
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+				break;
+			}
+			visitor.entry(address(segment.id, position), ByteBuffer.wrap(payload));
+			position += ENTRY_HEADER + length;
+		}
+		return position;
+	}
+
+	private Path path(int id) {
+		return directory.resolve(String.format("%08d.log", id));
+	}
+
+	private Segment create(int id) throws IOException {
+		Segment segment = new Segment(id, path(id), segmentSize);
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private void terminate(Segment segment) {
+		if (segment.end + 4 <= segmentSize) {
+			segment.buffer.putInt(segment.end, 0);
+		}
+	}
+
+	public static long address(int segment, int offset) {
+		return ((long) segment << 32) | offset;
+	}
+
+	public static int segmentOf(long address) {
+		return (int) (address >>> 32);
+	}
+
+	public static int offsetOf(long address) {
+		return (int) address;
+	}
+
+	/**
+	 * @return Address of the new entry.
+	 */
+	public long append(byte[] payload) {
+		if (ENTRY_HEADER + payload.length + 4 > segmentSize) {
+			throw new IllegalArgumentException("Log entry of " + payload.length + " bytes exceeds the segment size.");
+		}
+		if (head.end + ENTRY_HEADER + payload.length > segmentSize) {
+			// a sealed segment is always on disk, so force() only has to write the head
+			head.buffer.force();
+			try {
+				head = create(head.id + 1);
+			} catch (IOException e) {
+				throw new RuntimeException("Could not create log segment " + (head.id + 1), e);
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		int position = head.end;
+		ByteBuffer buffer = head.buffer.duplicate();
+		buffer.position(position + ENTRY_HEADER);
+		buffer.put(payload);
+		buffer.putInt(position + 4, (int) crc.getValue());
+		head.end = position + ENTRY_HEADER + payload.length;
+		terminate(head);
+		// the length goes last, so an entry is not found by recovery before it is complete
+		buffer.putInt(position, payload.length);
+		return address(head.id, position);
+	}
+
+	/**
+	 * Reads bytes of an entry's payload.
+	 *
+	 * @param offset Offset in the payload.
+	 */
+	public byte[] read(long address, int offset, int length) {
+		Segment segment = segments.get(segmentOf(address));
+		if (segment == null) {
+			throw new IllegalStateException("Log segment " + segmentOf(address) + " does not exist.");
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(offsetOf(address) + ENTRY_HEADER + offset);
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Passes entries of a segment to the visitor.
+	 */
+	public void scan(int id, Visitor visitor) {
+		scan(segments.get(id), visitor);
+	}
+
+	/**
+	 * @return Ids of all segments but the head, oldest first.
+	 */
+	public List<Integer> sealedSegments() {
+		return new ArrayList<>(segments.headMap(head.id).keySet());
+	}
+
+	public int getHeadSegment() {
+		return head.id;
+	}
+
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * @return Bytes used by entries of a segment.
+	 */
+	public int getSegmentBytes(int id) {
+		return segments.get(id).end;
+	}
+
+	/**
+	 * Deletes a sealed segment, whose entries must no longer be read.
+	 */
+	public void delete(int id) {
+		if (id == head.id) {
+			throw new IllegalArgumentException("Head segment can not be deleted.");
+		}
+		Segment segment = segments.remove(id);
+		try {
+			segment.channel.close();
+			Files.delete(segment.path);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not delete log segment " + id, e);
+		}
+	}
+
+	/**
+	 * Writes the head segment's changes to disk, so they survive a crash of the machine and not only the process.
+	 */
+	public void force() {
+		head.buffer.force();
+	}
+
+	public void close() {
+		for (Segment segment : segments.values()) {
+			try {
+				segment.channel.close();
+			} catch (IOException e) {
+				throw new RuntimeException("Could not close log segment " + segment.id, e);
+			}
+		}
+		segments.clear();
+	}
+
+	/**
+	 * Deletes all segments of a log directory.
+	 */
+	public static void clear(Path directory) {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not clear log: " + directory, e);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package net.nosql_bench;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+public class LogStoreTest {
+
+	private final List<LogStore> stores = new ArrayList<>();
+	private final List<Path> directories = new ArrayList<>();
+
+	private LogStore newStore() {
+		LogStore db = new LogStore();
+		stores.add(db);
+		return db;
+	}
+
+	private Path newDirectory() throws IOException {
+		Path path = Files.createTempDirectory("logstore");
+		directories.add(path);
+		return path;
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (LogStore db : stores) {
+			db.close();
+		}
+		for (Path directory : directories) {
+			Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+	}
+
+	private static Properties properties(Path path, String segmentSize) {
+		Properties props = new Properties();
+		props.setProperty("logstore.path", path.toString());
+		props.setProperty("logstore.segment.size", segmentSize);
+		props.setProperty("logstore.compaction.interval", "0");
+		return props;
+	}
+
+	private static List<QueryPredicate> numberEquals(int number) {
+		return Collections.singletonList(new QueryPredicate("number", QueryPredicate.OPERATOR.EQUALS, number));
+	}
+
+	@Test
+	public void recoversCommittedState() throws IOException {
+		Path path = newDirectory();
+		LogStore db = newStore();
+		db.init(properties(path, "64k"));
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.RANGE)));
+
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("number", 1);
+		String first = db.insert("t", fields);
+		String second = db.insert("t", fields);
+		String third = db.insert("t", fields);
+		db.delete("t", third);
+		db.increment("t", first, "number", 1);
+
+		db.startTransaction();
+		Map<String, Object> record = db.get(second);
+		record.put("number", 5);
+		db.put("t", second, record);
+		// a write between read and commit makes the commit fail
+		final LogStore other = db;
+		final String otherKey = second;
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Map<String, Object> otherFields = new HashMap<>();
+				otherFields.put("number", 7);
+				other.put("t", otherKey, otherFields);
+			}
+		});
+		writer.start();
+		joinQuietly(writer);
+		try {
+			db.commitTransaction();
+			Assert.fail("Commit should fail.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		// reopen: the committed state is recovered from the log
+		db.init(properties(path, "64k"));
+		Assert.assertEquals(2, db.get(first).get("number"));
+		Assert.assertEquals(7, db.get(second).get("number"));
+		Assert.assertNull(db.get(third));
+		Assert.assertEquals(Collections.singleton(second), db.querySimple("t", numberEquals(7), 0, 0).keySet());
+		Assert.assertEquals(2L, (long) db.getStats("t").get("records"));
+		// keys are not reused
+		Assert.assertNotEquals(third, db.insert("t", fields));
+	}
+
+	@Test
+	public void compactionKeepsLiveRecords() throws IOException {
+		Path path = newDirectory();
+		LogStore db = newStore();
+		db.init(properties(path, "4096"));
+		db.register("t", Collections.singletonList(new FieldDefinition("number", FieldDefinition.FIELD_TYPE.INTEGER, FieldDefinition.INDEX_TYPE.SINGLE)));
+
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("number", -1);
+		// written once, so compaction has to copy it
+		String stable = db.insert("t", fields);
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			fields.put("number", i);
+			keys.add(db.insert("t", fields));
+		}
+		String deleted = keys.remove(9);
+		db.delete("t", deleted);
+		for (int round = 0; round < 50; round++) {
+			for (int i = 0; i < keys.size(); i++) {
+				fields.put("number", round * 100 + i);
+				db.put("t", keys.get(i), fields);
+			}
+		}
+		long segments = db.getStats("t").get("log.segments");
+		Assert.assertTrue(db.compact() > 0);
+		Map<String, Long> stats = db.getStats("t");
+		Assert.assertTrue(stats.toString(), stats.get("log.segments") < segments);
+		Assert.assertTrue(stats.toString(), stats.get("compaction.bytes") > 0);
+
+		db.init(properties(path, "4096"));
+		for (int i = 0; i < keys.size(); i++) {
+			Assert.assertEquals(4900 + i, db.get(keys.get(i)).get("number"));
+		}
+		Assert.assertEquals(-1, db.get(stable).get("number"));
+		Assert.assertNull(db.get(deleted));
+		Assert.assertEquals(Collections.singleton(keys.get(3)), db.querySimple("t", numberEquals(4903), 0, 0).keySet());
+		Assert.assertTrue(db.querySimple("t", numberEquals(9), 0, 0).isEmpty());
+	}
+
+	@Test
+	public void compactionRunsAlongsideWriters() throws Exception {
+		Path path = newDirectory();
+		final LogStore db = newStore();
+		db.init(properties(path, "4096"));
+		final List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			keys.add(db.insert("t", Collections.<String, Object>singletonMap("number", 0)));
+		}
+		for (int round = 1; round <= 20; round++) {
+			for (String key : keys) {
+				db.put("t", key, Collections.<String, Object>singletonMap("number", round));
+			}
+		}
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int round = 21; round <= 100; round++) {
+					for (String key : keys) {
+						db.put("t", key, Collections.<String, Object>singletonMap("number", round));
+					}
+				}
+			}
+		});
+		writer.start();
+		int compacted = 0;
+		while (writer.isAlive()) {
+			compacted += db.compact();
+		}
+		joinQuietly(writer);
+		compacted += db.compact();
+		Assert.assertTrue(compacted > 0);
+
+		db.init(properties(path, "4096"));
+		for (String key : keys) {
+			Assert.assertEquals(100, db.get(key).get("number"));
+		}
+	}
+
+	@Test
+	public void recoveryStopsAtTornEntry() throws IOException {
+		Path path = newDirectory();
+		LogStore db = newStore();
+		db.init(properties(path, "64k"));
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("text", "first");
+		String first = db.insert("t", fields);
+		fields.put("text", "second");
+		String second = db.insert("t", fields);
+
+		// a crash in the middle of appending the second record leaves a checksum that does not match
+		try (RandomAccessFile file = new RandomAccessFile(path.resolve("00000001.log").toFile(), "rw")) {
+			byte[] bytes = new byte[4096];
+			file.readFully(bytes);
+			for (int i = bytes.length - 1; i >= 0; i--) {
+				if (bytes[i] == 'd') {
+					file.seek(i);
+					file.write('x');
+					break;
+				}
+			}
+		}
+
+		db.init(properties(path, "64k"));
+		Assert.assertEquals("first", db.get(first).get("text"));
+		Assert.assertNull(db.get(second));
+		fields.put("text", "third");
+		String third = db.insert("t", fields);
+		db.init(properties(path, "64k"));
+		Assert.assertEquals("third", db.get(third).get("text"));
+	}
+
+	private static void joinQuietly(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
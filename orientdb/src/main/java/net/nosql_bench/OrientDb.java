@@ -1,55 +1,129 @@
 package net.nosql_bench;
 
 
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OSchema;
 import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
 import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
 
 import java.util.*;
 
 public class OrientDb extends Database {
 
+	private static final String CONFIG_PREFIX = "config.";
+
 	//	private OPartitionedDatabasePool dbPool;
 	private OSchema schema;
 
+	// true if database runs in-process (memory: or plocal:), false for remote:
+	private boolean embedded;
+	private boolean dropOnCleanup;
+
+	// bulk load mode: massive-insert intent, batched transactions, deferred indexes
+	private volatile boolean bulkLoad;
+	private int bulkBatchSize;
+	private boolean bulkRebuildIndexes;
+	private final Map<String, List<FieldDefinition>> deferredIndexes = new LinkedHashMap<>();
+
 	private static ThreadLocal<ODatabaseDocumentTx> threadLocalDb = new ThreadLocal<>();
 
+	// number of inserts in the currently open bulk load transaction of this thread
+	private static ThreadLocal<int[]> threadLocalBatch = new ThreadLocal<>();
+
 	@Override
 	public void init(Properties props) {
 
 		this.properties = props;
+		String url = properties.getProperty("database");
+		embedded = url.startsWith("memory:") || url.startsWith("plocal:");
+		dropOnCleanup = Boolean.valueOf(properties.getProperty("database.drop", "false"));
+		bulkBatchSize = PropsUtil.expandInt(properties.getProperty("bulk.batch", "1000"));
+		bulkRebuildIndexes = Boolean.valueOf(properties.getProperty("bulk.index.rebuild", "false"));
+
+		// storage and cache settings must be in place before the storage is opened
+		applyGlobalConfiguration();
+
 //		dbPool = new OPartitionedDatabasePoolFactory().get(
 //				properties.getProperty("database"),
 //				properties.getProperty("username"),
 //				properties.getProperty("password"));
 
 //		ODatabase db = dbPool.acquire();
+		if (embedded) {
+			createIfMissing(url);
+		}
 		ODatabaseDocumentTx db = threadInit();
 		schema = db.getMetadata().getSchema();
+		System.out.println("OrientDB: database=" + url + " embedded=" + embedded);
+	}
+
+	/**
+	 * Copies all properties prefixed with 'config.' into {@link OGlobalConfiguration},
+	 * e.g. 'config.storage.diskCache.bufferSize=4096'.
+	 */
+	private void applyGlobalConfiguration() {
+		for (String name : properties.stringPropertyNames()) {
+			if (!name.startsWith(CONFIG_PREFIX)) {
+				continue;
+			}
+			String configKey = name.substring(CONFIG_PREFIX.length());
+			OGlobalConfiguration config = OGlobalConfiguration.findByKey(configKey);
+			if (config == null) {
+				throw new IllegalArgumentException("Unknown OrientDB configuration key: " + configKey);
+			}
+			config.setValue(properties.getProperty(name));
+			System.out.println("OrientDB config: " + configKey + "=" + config.getValue());
+		}
+	}
+
+	/**
+	 * Embedded databases are created on first use. The creating connection stays open on this thread,
+	 * which also keeps a memory: database alive for the duration of the benchmark.
+	 */
+	private void createIfMissing(String url) {
+		ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+		if (db.exists()) {
+			return;
+		}
+		db.create();
+		threadLocalDb.set(db);
+		System.out.println("OrientDB: created database " + url);
 	}
 
 	@Override
 	public void cleanup(String tableName) {
 		schema.dropClass(tableName);
+
+		if (embedded && dropOnCleanup) {
+			ODatabaseDocumentTx db = threadInit();
+			db.drop();
+			threadLocalDb.remove();
+		}
 	}
 
 	private ODatabaseDocumentTx threadInit() {
 
-		ODatabaseDocumentTx db = null;
-		if (threadLocalDb.get() == null) {
+		ODatabaseDocumentTx db = threadLocalDb.get();
+		if (db == null || db.isClosed()) {
 			db = new ODatabaseDocumentTx(properties.getProperty("database")).open(properties.getProperty("username"), properties.getProperty("password"));
 			threadLocalDb.set(db);
+			System.out.println("Thread: " + Thread.currentThread().getName() + " db:" + db.toString());
+		}
+		if (bulkLoad && threadLocalBatch.get() == null) {
+			db.declareIntent(new OIntentMassiveInsert());
+			threadLocalBatch.set(new int[1]);
 		}
-		db = threadLocalDb.get();
 
 //		ODatabaseDocumentTx db = dbPool.acquire();
-		System.out.println("Thread: " + Thread.currentThread().getName() + " db:" + db.toString());
 		return db;
 	}
 
@@ -57,19 +131,97 @@ public class OrientDb extends Database {
 	public void register(String tableName, List<FieldDefinition> fields) {
 		OClass oldCls = schema.getClass(tableName);
 		OClass cls = schema.getOrCreateClass(tableName);
+		List<FieldDefinition> deferred = new ArrayList<>();
 		for (FieldDefinition field : fields) {
 			if (!cls.existsProperty(field.fieldName)) {
 				cls.createProperty(field.fieldName, translateFieldType(field));
-				cls.createIndex(tableName + "." + field.fieldName, translateIndexType(field), field.fieldName);
+				if (bulkLoad) {
+					deferred.add(field);
+				} else {
+					cls.createIndex(tableName + "." + field.fieldName, translateIndexType(field), field.fieldName);
+				}
 			}
 		}
+		if (bulkLoad) {
+			deferredIndexes.put(tableName, deferred);
+		}
 	}
 
+	/**
+	 * Number of records of the class, and size and number of keys of each of its indexes.
+	 */
 	@Override
-	public void finish() {
+	public Map<String, Long> getStats(String tableName) {
+		threadInit();
+		Map<String, Long> stats = new LinkedHashMap<>();
+		OClass cls = schema.getClass(tableName);
+		if (cls == null) {
+			return stats;
+		}
+		stats.put("records", cls.count());
+		for (OIndex<?> index : cls.getIndexes()) {
+			stats.put("index." + index.getName() + ".size", index.getSize());
+			stats.put("index." + index.getName() + ".keys", index.getKeySize());
+		}
+		return stats;
+	}
+
+	@Override
+	public void startBulkLoad() {
+		bulkLoad = true;
+		System.out.println("OrientDB bulk load: batch=" + bulkBatchSize + " index.rebuild=" + bulkRebuildIndexes);
+	}
+
+	/**
+	 * Creates the indexes deferred by {@link #register(String, List)} during the load. Indexes that
+	 * already existed are rebuilt if 'bulk.index.rebuild' is set.
+	 */
+	@Override
+	public void endBulkLoad() {
+		bulkLoad = false;
 		ODatabaseDocumentTx db = threadInit();
-		db.close();
+		db.declareIntent(null);
+		threadLocalBatch.remove();
+
+		for (Map.Entry<String, List<FieldDefinition>> table : deferredIndexes.entrySet()) {
+			OClass cls = schema.getClass(table.getKey());
+			Set<String> created = new HashSet<>();
+			for (FieldDefinition field : table.getValue()) {
+				String indexName = table.getKey() + "." + field.fieldName;
+				cls.createIndex(indexName, translateIndexType(field), field.fieldName);
+				created.add(indexName);
+			}
+			if (bulkRebuildIndexes) {
+				for (OIndex<?> index : cls.getIndexes()) {
+					if (!created.contains(index.getName())) {
+						index.rebuild();
+					}
+				}
+			}
+		}
+		deferredIndexes.clear();
+	}
+
+	@Override
+	public void finish() {
+		ODatabaseDocumentTx db = threadLocalDb.get();
+		if (db != null && !db.isClosed()) {
+			commitBatch(db);
+			if (threadLocalBatch.get() != null) {
+				db.declareIntent(null);
+			}
+			db.close();
+		}
 		threadLocalDb.remove();
+		threadLocalBatch.remove();
+	}
+
+	private void commitBatch(ODatabaseDocumentTx db) {
+		int[] batch = threadLocalBatch.get();
+		if (batch != null && batch[0] > 0) {
+			db.commit();
+			batch[0] = 0;
+		}
 	}
 
 	@Override
@@ -93,6 +245,14 @@ public class OrientDb extends Database {
 
 	}
 
+	/**
+	 * Inserts of a bulk load return temporary record ids until their batch is committed.
+	 */
+	@Override
+	public boolean returnsFinalKeysInBulkLoad() {
+		return false;
+	}
+
 	@Override
 	public String insert(String tableName, Map<String, Object> fields) {
 		ODatabaseDocumentTx db = threadInit();
@@ -100,8 +260,17 @@ public class OrientDb extends Database {
 		for (Map.Entry<String, Object> field : fields.entrySet()) {
 			doc.field(field.getKey(), field.getValue());
 		}
+
+		// in bulk load mode inserts are grouped into transactions of 'bulk.batch' records,
+		// returned keys hold temporary record ids until the batch is committed
+		int[] batch = threadLocalBatch.get();
+		if (batch != null && batch[0] == 0) {
+			db.begin();
+		}
 		ORecord record = db.save(doc);
-		ORID orid = record.getIdentity();
+		if (batch != null && ++batch[0] >= bulkBatchSize) {
+			commitBatch(db);
+		}
 		return fromORID(record);
 	}
 
@@ -134,6 +303,100 @@ public class OrientDb extends Database {
 		db.delete(oldDoc);
 	}
 
+	/**
+	 * Outside of a transaction issues a single UPDATE ... SET ... REMOVE with only the changed fields. Within a
+	 * transaction the document is changed and saved, so the patch takes part in the transaction's version checks.
+	 */
+	@Override
+	public boolean patch(String tableName, String key, Map<String, Object> set, Collection<String> unset) {
+		ODatabaseDocumentTx db = threadInit();
+		ODocument oldDoc = new ODocument();
+		oldDoc.fromJSON(key);
+
+		if (set.isEmpty() && unset.isEmpty()) {
+			// an UPDATE without SET or REMOVE is not valid SQL, only report whether the record exists
+			return db.load(oldDoc) != null;
+		}
+
+		if (db.getTransaction().isActive()) {
+			ODocument doc = db.load(oldDoc, null, true);
+			if (doc == null) {
+				return false;
+			}
+			for (Map.Entry<String, Object> field : set.entrySet()) {
+				doc.field(field.getKey(), field.getValue());
+			}
+			for (String fieldName : unset) {
+				doc.removeField(fieldName);
+			}
+			db.save(doc);
+			return true;
+		}
+
+		StringBuilder command = new StringBuilder("update ").append(oldDoc.getIdentity());
+		List<Object> params = new ArrayList<>(set.size());
+		Iterator<Map.Entry<String, Object>> fields = set.entrySet().iterator();
+		if (fields.hasNext()) {
+			command.append(" set ");
+		}
+		while (fields.hasNext()) {
+			Map.Entry<String, Object> field = fields.next();
+			command.append(field.getKey()).append(" = ?");
+			params.add(field.getValue());
+			if (fields.hasNext()) {
+				command.append(", ");
+			}
+		}
+		Iterator<String> removed = unset.iterator();
+		if (removed.hasNext()) {
+			command.append(" remove ");
+		}
+		while (removed.hasNext()) {
+			command.append(removed.next());
+			if (removed.hasNext()) {
+				command.append(", ");
+			}
+		}
+
+		Number updated = db.command(new OCommandSQL(command.toString())).execute(params.toArray());
+		return updated != null && updated.intValue() > 0;
+	}
+
+	/**
+	 * Outside of a transaction issues a single UPDATE ... INCREMENT, so the record is not loaded by the client.
+	 */
+	@Override
+	public Map<String, Long> increment(String tableName, String key, Map<String, Long> deltas) {
+		ODatabaseDocumentTx db = threadInit();
+		if (db.getTransaction().isActive()) {
+			return super.increment(tableName, key, deltas);
+		}
+
+		ODocument oldDoc = new ODocument();
+		oldDoc.fromJSON(key);
+		StringBuilder command = new StringBuilder("update ").append(oldDoc.getIdentity()).append(" increment ");
+		Iterator<Map.Entry<String, Long>> iterator = deltas.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Long> delta = iterator.next();
+			command.append(delta.getKey()).append(" = ").append(delta.getValue());
+			if (iterator.hasNext()) {
+				command.append(", ");
+			}
+		}
+		command.append(" return after");
+
+		List<ODocument> updated = db.command(new OCommandSQL(command.toString())).execute();
+		if (updated == null || updated.isEmpty()) {
+			return null;
+		}
+		Map<String, Long> values = new HashMap<>(deltas.size());
+		for (String fieldName : deltas.keySet()) {
+			Number value = updated.get(0).field(fieldName);
+			values.put(fieldName, value.longValue());
+		}
+		return values;
+	}
+
 	@Override
 	public Map<String /*key*/, Map<String, Object> /*fields*/> querySimple(String tableName, List<QueryPredicate> predicates, int skip, int limit) {
 		ODatabaseDocumentTx db = threadInit();
@@ -142,36 +405,7 @@ public class OrientDb extends Database {
 		Iterator<QueryPredicate> iterator = predicates.iterator();
 		while (iterator.hasNext()) {
 			QueryPredicate predicate = iterator.next();
-			queryString.append(predicate.fieldName);
-			switch (predicate.operator) {
-				case EQUALS:
-					queryString.append(" == ").append(asQueryParameter(predicate.value));
-					break;
-				case NOT_EQUALS:
-					queryString.append(" <> ").append(asQueryParameter(predicate.value));
-					break;
-				case CONTAINS:
-					queryString.append(" contains ").append(predicate.value);
-					break;
-				case LIKE:
-					queryString.append(" like ").append("'%").append(predicate.value).append("%'");
-					break;
-				case GREATER:
-					queryString.append(" > ").append(asQueryParameter(predicate.value));
-					break;
-				case GREATER_EQUALS:
-					queryString.append(" >= ").append(asQueryParameter(predicate.value));
-					break;
-				case LESSER:
-					queryString.append(" < ").append(asQueryParameter(predicate.value));
-					break;
-				case LESSER_EQUALS:
-					queryString.append(" <= ").append(asQueryParameter(predicate.value));
-					break;
-				default:
-					throw new IllegalStateException("Unknown query operator: " + predicate.operator);
-			}
-
+			appendPredicate(queryString, predicate);
 			if (iterator.hasNext()) {
 				queryString.append(" and");
 			}
@@ -191,6 +425,82 @@ public class OrientDb extends Database {
 		return queryResultToMap(res);
 	}
 
+	/**
+	 * Seeks past the continuation in the query itself, so with an index on the sort field a deep page costs
+	 * no more than the first one, while SKIP reads and discards all the records before the page.
+	 */
+	@Override
+	public Page queryPage(String tableName, List<QueryPredicate> predicates, String sortField, int limit, String continuation) {
+		ODatabaseDocumentTx db = threadInit();
+
+		StringBuilder queryString = new StringBuilder("select * from " + tableName + " where true");
+		List<Object> params = new ArrayList<>();
+		for (QueryPredicate predicate : predicates) {
+			queryString.append(" and ");
+			appendPredicate(queryString, predicate);
+		}
+		Page.Cursor after = Page.Cursor.decode(continuation);
+		if (after != null) {
+			ODocument last = new ODocument();
+			last.fromJSON(after.key);
+			queryString.append(" and (").append(sortField).append(" > ? or (").append(sortField).append(" = ? and @rid > ")
+					.append(last.getIdentity()).append("))");
+			params.add(after.value);
+			params.add(after.value);
+		}
+		queryString.append(" order by ").append(sortField).append(", @rid limit ").append(limit);
+
+		List<ODocument> results = db.query(new OSQLSynchQuery<ODocument>(queryString.toString()), params.toArray());
+		Map<String, Map<String, Object>> records = new LinkedHashMap<>();
+		for (ODocument result : results) {
+			records.put(fromORID(result), result.toMap());
+		}
+		String next = null;
+		if (results.size() == limit && limit > 0) {
+			ODocument last = results.get(results.size() - 1);
+			next = new Page.Cursor(last.field(sortField), fromORID(last)).encode();
+		}
+		return new Page(records, next);
+	}
+
+	/**
+	 * Renders a predicate with its value inline, the same way for all queries.
+	 */
+	private void appendPredicate(StringBuilder query, QueryPredicate predicate) {
+		query.append(predicate.fieldName);
+		switch (predicate.operator) {
+			case EQUALS:
+				query.append(" == ").append(asQueryParameter(predicate.value));
+				break;
+			case NOT_EQUALS:
+				query.append(" <> ").append(asQueryParameter(predicate.value));
+				break;
+			case CONTAINS:
+				query.append(" contains ").append(predicate.value);
+				break;
+			case LIKE:
+				query.append(" like ").append("'%").append(predicate.value).append("%'");
+				break;
+			case CONTAINS_TEXT:
+				query.append(" containstext ").append(asQueryParameter(predicate.value));
+				break;
+			case GREATER:
+				query.append(" > ").append(asQueryParameter(predicate.value));
+				break;
+			case GREATER_EQUALS:
+				query.append(" >= ").append(asQueryParameter(predicate.value));
+				break;
+			case LESSER:
+				query.append(" < ").append(asQueryParameter(predicate.value));
+				break;
+			case LESSER_EQUALS:
+				query.append(" <= ").append(asQueryParameter(predicate.value));
+				break;
+			default:
+				throw new IllegalStateException("Unknown query operator: " + predicate.operator);
+		}
+	}
+
 	private String asQueryParameter(Object value) {
 		if (value instanceof Integer) {
 			return value.toString();